@@ -23,15 +23,21 @@ Request Flow:
 Browser → POST /verify → Flask → OCR Service → Verification Service → JSON Response
 """
 
-from flask import Flask, request, jsonify, send_from_directory
+from flask import Flask, Request, Response, g, request, jsonify, send_from_directory, stream_with_context
 from flask_cors import CORS
-from werkzeug.utils import secure_filename
+import json
 import os
-import tempfile
 
 # Import our services
+from deadline import DEADLINE_HEADER, DeadlineExceeded, deadline_policy
+from metrics import CONTENT_TYPE, IN_FLIGHT, REQUESTS, STAGE_SECONDS, UPLOAD_BYTES, registry
+from tracing import TRACE_HEADER, tracer
 from ocr_service import ocr_service
 from verification_service import verification_service
+from job_service import job_service, JobQueueFullError
+from batch_service import (
+    batch_service, BatchRequestError, decode_manifest, label_filename, parse_manifest, read_zip_archive
+)
 
 
 # Initialize Flask app
@@ -48,9 +54,90 @@ CORS(app)
 
 # Configuration
 # In production, you'd use environment variables, but for simplicity we hardcode these
-app.config['MAX_CONTENT_LENGTH'] = 16 * 1024 * 1024  # Max file size: 16 MB
+MAX_IMAGE_BYTES = 16 * 1024 * 1024  # Max file size per label image: 16 MB
 ALLOWED_EXTENSIONS = {'png', 'jpg', 'jpeg', 'gif'}  # Allowed image formats
 
+# Flask rejects any request body larger than MAX_CONTENT_LENGTH while reading it
+# (with or without a Content-Length header). Only batch uploads may be bigger.
+MAX_BATCH_BYTES = int(os.environ.get('BATCH_MAX_UPLOAD_MB', 256)) * 1024 * 1024
+app.config['MAX_CONTENT_LENGTH'] = MAX_IMAGE_BYTES
+
+
+class UploadRequest(Request):
+    """
+    A request whose body limit depends on the endpoint: MAX_BATCH_BYTES for
+    POST /verify/batch, MAX_CONTENT_LENGTH for everything else.
+
+    Flask 3.0 reads the limit from the app config only, so one endpoint
+    can't raise it for itself any other way.
+    """
+
+    @property
+    def max_content_length(self):
+        if self.endpoint == 'verify_batch':
+            return MAX_BATCH_BYTES
+        return super().max_content_length
+
+
+app.request_class = UploadRequest
+
+
+# Values owned by other services, read only when /metrics is scraped
+registry.callback(
+    'label_job_queue_depth',
+    'Background jobs queued or running (POST /jobs and batches)',
+    'gauge',
+    lambda: job_service.pending_count()
+)
+registry.callback(
+    'label_verify_timeouts_total',
+    'Verifications that ran past their deadline, by the stage that noticed',
+    'counter',
+    lambda: {(stage,): count for stage, count in deadline_policy.stats()["timeouts_by_stage"].items()},
+    ['stage']
+)
+
+
+# Routes not worth a trace: the page itself and monitoring probes
+UNTRACED_ENDPOINTS = {'static', 'index', 'health', 'metrics', 'stats'}
+
+
+@app.before_request
+def start_request_metrics():
+    # Route names (not URLs) keep the label set small: /jobs/<job_id> is
+    # one series, not one per job
+    g.metrics_endpoint = request.endpoint or 'unmatched'
+    IN_FLIGHT.inc(endpoint=g.metrics_endpoint)
+
+    # The root span of this request's trace (see tracing.py)
+    if g.metrics_endpoint not in UNTRACED_ENDPOINTS:
+        g.trace = tracer.start_trace(
+            f"{request.method} {request.url_rule.rule if request.url_rule else request.path}",
+            request.headers.get('traceparent'),
+            endpoint=g.metrics_endpoint
+        )
+
+
+@app.after_request
+def count_request(response):
+    REQUESTS.inc(endpoint=g.get('metrics_endpoint', 'unmatched'), status=response.status_code)
+
+    # Lets a user complaint be matched to the request's timeline
+    trace = g.get('trace')
+    if trace:
+        root, _ = trace
+        root.set(status_code=response.status_code)
+        response.headers[TRACE_HEADER] = root.trace_id
+    return response
+
+
+@app.teardown_request
+def finish_request_metrics(error=None):
+    # Runs even if the request failed, so the gauge can't drift upwards
+    if 'metrics_endpoint' in g:
+        IN_FLIGHT.dec(endpoint=g.metrics_endpoint)
+    tracer.end_trace(g.pop('trace', None), error)
+
 
 def allowed_file(filename):
     """
@@ -75,6 +162,129 @@ def allowed_file(filename):
            filename.rsplit('.', 1)[1].lower() in ALLOWED_EXTENSIONS
 
 
+def parse_verification_request():
+    """
+    Validate a verification upload and collect its form fields.
+
+    Used by every endpoint that accepts the /verify form (POST /verify,
+    POST /jobs) so they reject bad input with identical messages.
+
+    Returns:
+    --------
+    tuple
+        (file, form_data, None) when the request is valid, or
+        (None, None, (response, status_code)) when it should be rejected
+    """
+
+    # Check that an image was uploaded
+    if 'image' not in request.files:
+        return None, None, (jsonify({
+            "success": False,
+            "error": "No image file provided. Please upload an image of the alcohol label."
+        }), 400)  # 400 = Bad Request status code
+
+    file = request.files['image']
+
+    # Check if user actually selected a file (not just submitted empty form)
+    if file.filename == '':
+        return None, None, (jsonify({
+            "success": False,
+            "error": "No file selected. Please choose an image file."
+        }), 400)
+
+    # Validate file extension
+    if not allowed_file(file.filename):
+        return None, None, (jsonify({
+            "success": False,
+            "error": f"Invalid file type. Allowed types: {', '.join(ALLOWED_EXTENSIONS)}"
+        }), 400)
+
+    # Get form data
+    # request.form contains the text fields from the form
+    form_data = {
+        "brand_name": request.form.get('brand_name', '').strip(),
+        "product_type": request.form.get('product_type', '').strip(),
+        "abv": request.form.get('abv', '').strip(),
+        "net_contents": request.form.get('net_contents', '').strip()
+    }
+
+    # Validate required fields
+    required_fields = ['brand_name', 'product_type', 'abv']
+    missing_fields = [field for field in required_fields if not form_data[field]]
+
+    if missing_fields:
+        return None, None, (jsonify({
+            "success": False,
+            "error": f"Missing required fields: {', '.join(missing_fields)}"
+        }), 400)
+
+    return file, form_data, None
+
+
+def collect_batch_upload():
+    """
+    Gather the images and manifest of a POST /verify/batch request.
+
+    Two upload styles are accepted:
+    1. Several 'images' file parts plus a 'manifest' (file part or text field)
+    2. One 'archive' ZIP file holding the images and, optionally, a
+       manifest.json / manifest.csv (a separate 'manifest' part overrides it)
+
+    Returns:
+    --------
+    tuple
+        (images, manifest) - {filename: bytes} and {filename: form_data}
+
+    Raises:
+    -------
+    BatchRequestError
+        If the upload can't be used at all (no images, no manifest, ...)
+    """
+    manifest = None
+
+    if 'archive' in request.files:
+        images, manifest = read_zip_archive(
+            request.files['archive'].read(),
+            allowed_file,
+            batch_service.max_labels,
+            MAX_IMAGE_BYTES,
+            MAX_BATCH_BYTES
+        )
+    else:
+        images = {}
+        for file in request.files.getlist('images'):
+            # Cleaned the same way as manifest entries, so they match
+            # Example: "../../etc/passwd" becomes "passwd"
+            filename = label_filename(file.filename)
+            if not filename:
+                continue
+            if not allowed_file(filename):
+                raise BatchRequestError(
+                    f"Invalid file type for '{filename}'. Allowed types: {', '.join(ALLOWED_EXTENSIONS)}"
+                )
+            if filename in images:
+                raise BatchRequestError(f"'{filename}' was uploaded more than once")
+
+            image_bytes = file.read()
+            if len(image_bytes) > MAX_IMAGE_BYTES:
+                raise BatchRequestError(f"'{filename}' is larger than 16 MB")
+            images[filename] = image_bytes
+
+    # An explicit manifest part wins over one found inside the archive
+    if 'manifest' in request.files:
+        manifest_file = request.files['manifest']
+        manifest = parse_manifest(decode_manifest(manifest_file.read()), manifest_file.filename)
+    elif request.form.get('manifest'):
+        manifest = parse_manifest(request.form['manifest'])
+
+    if manifest is None:
+        raise BatchRequestError(
+            "No manifest provided. Send a 'manifest' (JSON or CSV) or include manifest.json in the archive."
+        )
+
+    return images, manifest
+
+
 @app.route('/')
 def index():
     """
@@ -104,6 +314,9 @@ def verify():
     - net_contents: string (optional)
     - image: file upload (required)
 
+    Optional header X-Deadline-Seconds sets this request's time limit
+    (default VERIFY_DEADLINE_SECONDS, see deadline.py).
+
     Response:
     ---------
     JSON object:
@@ -112,116 +325,427 @@ def verify():
         "overall_match": bool,
         "details": {...},
         "ocr_text": string,
+        "early_exit": bool,         # OCR stopped once the fields verified
+        "preprocessing": string,    # Ladder rung that produced the text
+        "registry": {...},          # With a brand catalog (brand_registry.py)
         "error": string (if failed)
     }
 
+    504 if the deadline passed before OCR produced any text:
+    {"success": false, "timed_out": true, "stage": string,
+     "deadline_seconds": float, "error": string}
+
     Process Flow:
     -------------
     1. Validate request (check image present, form fields filled)
-    2. Save uploaded image temporarily
-    3. Extract text with OCR service
-    4. Verify text with verification service
-    5. Clean up temporary file
-    6. Return results as JSON
+    2. Extract text with OCR service (decoded in memory from the upload)
+    3. Verify text with verification service, re-reading failed numeric
+       fields line by line (see field_ocr.py)
+    4. Return results as JSON
     """
 
-    # Step 1: Validate that an image was uploaded
-    if 'image' not in request.files:
+    # The clock starts as soon as the request arrives
+    try:
+        deadline = deadline_policy.start(request.headers.get(DEADLINE_HEADER))
+    except ValueError as e:
         return jsonify({
             "success": False,
-            "error": "No image file provided. Please upload an image of the alcohol label."
-        }), 400  # 400 = Bad Request status code
+            "error": str(e)
+        }), 400
 
-    file = request.files['image']
+    # Step 1: Validate the upload and collect form data
+    with STAGE_SECONDS.time(stage='upload_parse'), tracer.span('upload_parse'):
+        file, form_data, error_response = parse_verification_request()
+    if error_response:
+        return error_response
 
-    # Check if user actually selected a file (not just submitted empty form)
-    if file.filename == '':
+    try:
+        # Step 2: Extract text with OCR
+        # The upload is decoded straight from the request stream - no temp
+        # file is written, so there is nothing to clean up afterwards
+        # With VERIFY_EARLY_EXIT on, OCR stops as soon as the text read so
+        # far already verifies. The score lets the preprocessing ladder
+        # try heavier image cleanup only when the fields don't verify.
+        image_bytes = file.stream.read()
+        UPLOAD_BYTES.observe(len(image_bytes))
+        with tracer.span('ocr.extract', bytes=len(image_bytes)) as span:
+            ocr_result = ocr_service.extract_text_from_bytes(
+                image_bytes,
+                stop_when=verification_service.early_exit_check(form_data),
+                score_text=verification_service.required_field_score(form_data),
+                deadline=deadline
+            )
+            span.set(success=ocr_result["success"], preprocessing=ocr_result.get("preprocessing") or '')
+
+        # Check if OCR succeeded
+        if not ocr_result["success"]:
+            return jsonify({
+                "success": False,
+                "error": ocr_result["error"]
+            }), 500  # 500 = Internal Server Error
+
+        # Step 3: Verify the extracted text against form data
+        with STAGE_SECONDS.time(stage='verify'), tracer.span('verify_label'):
+            verification_result = verification_service.verify_label(
+                form_data,
+                ocr_result["text"],
+                ocr_result.get("words")
+            )
+
+        # A garbled ABV or volume gets a cheap, targeted second read
+        # instead of costing the user a resubmission
+        if ocr_service.fields.enabled:
+            with STAGE_SECONDS.time(stage='field_recheck'), tracer.span('field_recheck') as span:
+                verification_result, recovered = verification_service.recheck_fields(
+                    form_data,
+                    ocr_result["text"],
+                    verification_result,
+                    lambda fields: ocr_service.extract_field_text(image_bytes, fields, deadline),
+                    ocr_result.get("words")
+                )
+                span.set(recovered=len(recovered))
+            ocr_service.fields.record_recovered(recovered)
+
+        # Step 4: Return success response
+        response = {
+            "success": True,
+            "overall_match": verification_result["overall_match"],
+            "details": verification_result["details"],
+            "ocr_text": verification_result["ocr_text"],
+            "early_exit": ocr_result.get("early_exit", False),
+            "preprocessing": ocr_result.get("preprocessing")
+        }
+        if "registry" in verification_result:
+            response["registry"] = verification_result["registry"]
+        return jsonify(response), 200  # 200 = Success status code
+
+    except DeadlineExceeded as e:
+        # 504 = Gateway Timeout: we gave up waiting on OCR
+        deadline_policy.record_timeout(e.stage)
         return jsonify({
             "success": False,
-            "error": "No file selected. Please choose an image file."
-        }), 400
+            "timed_out": True,
+            "stage": e.stage,
+            "deadline_seconds": deadline.seconds,
+            "error": f"Verification did not finish within {deadline.seconds:g} seconds"
+        }), 504
 
-    # Validate file extension
-    if not allowed_file(file.filename):
+    except Exception as e:
+        # Catch any unexpected errors
         return jsonify({
             "success": False,
-            "error": f"Invalid file type. Allowed types: {', '.join(ALLOWED_EXTENSIONS)}"
-        }), 400
+            "error": f"Server error: {str(e)}"
+        }), 500
 
-    # Step 2: Get form data
-    # request.form contains the text fields from the form
-    form_data = {
-        "brand_name": request.form.get('brand_name', '').strip(),
-        "product_type": request.form.get('product_type', '').strip(),
-        "abv": request.form.get('abv', '').strip(),
-        "net_contents": request.form.get('net_contents', '').strip()
+
+@app.route('/verify/batch', methods=['POST'])
+def verify_batch():
+    """
+    Verify many labels in one request.
+
+    Route: POST /verify/batch
+    Content-Type: multipart/form-data
+
+    Expected Request Data (either style):
+    -------------------------------------
+    - images: several image files + manifest: JSON/CSV file or text
+    - archive: one ZIP of images (+ manifest.json/manifest.csv inside)
+
+    The manifest gives brand_name, product_type, abv and net_contents per
+    image filename (see batch_service.py for the format).
+
+    Response:
+    ---------
+    {
+        "success": true,
+        "results": {
+            "label1.jpg": {same body as POST /verify},
+            ...
+        },
+        "summary": {
+            "labels", "verified", "matched", "failed",
+            "wall_seconds", "processing_seconds", "labels_per_second"
+        }
     }
 
-    # Validate required fields
-    required_fields = ['brand_name', 'product_type', 'abv']
-    missing_fields = [field for field in required_fields if not form_data[field]]
+    Labels are OCR'd in parallel on the background process pool, so a batch
+    finishes much faster than the same labels sent one at a time.
 
-    if missing_fields:
+    Add ?stream=ndjson or ?stream=sse to receive each label's result as soon
+    as it finishes (see stream_batch()).
+    """
+    try:
+        images, manifest = collect_batch_upload()
+        items, errors = batch_service.build_items(images, manifest)
+    except BatchRequestError as e:
         return jsonify({
             "success": False,
-            "error": f"Missing required fields: {', '.join(missing_fields)}"
+            "error": str(e)
         }), 400
 
-    # Step 3: Save uploaded image temporarily
-    # We need to save it to disk because pytesseract reads from file path
-    #
-    # secure_filename() cleans the filename to prevent security issues
-    # Example: "../../etc/passwd" becomes "etc_passwd"
-    filename = secure_filename(file.filename)
+    stream_format = requested_stream_format()
+    if stream_format:
+        return stream_batch(items, errors, stream_format)
+
+    try:
+        return jsonify(batch_service.run(items, errors)), 200
+    except Exception as e:
+        return jsonify({
+            "success": False,
+            "error": f"Server error: {str(e)}"
+        }), 500
+
+
+def requested_stream_format():
+    """
+    Decide whether a batch response should stream, and in which format.
+
+    The client asks for streaming with ?stream=ndjson / ?stream=sse, or with
+    an Accept header of application/x-ndjson / text/event-stream.
+
+    Returns:
+    --------
+    str or None
+        'ndjson', 'sse', or None for a single JSON response
+    """
+    stream = request.args.get('stream', '').lower()
+    if stream in ('ndjson', 'sse'):
+        return stream
 
-    # Use system temp directory (automatically cleaned up by OS)
-    # This is better than creating our own uploads folder
-    temp_dir = tempfile.gettempdir()
-    temp_filepath = os.path.join(temp_dir, filename)
+    accept = request.headers.get('Accept', '')
+    if 'application/x-ndjson' in accept:
+        return 'ndjson'
+    if 'text/event-stream' in accept:
+        return 'sse'
+    return None
+
+
+def stream_batch(items, errors, stream_format):
+    """
+    Send batch results as they finish instead of all at the end.
+
+    Formats:
+    --------
+    ndjson: one JSON object per line (newline-delimited JSON)
+        {"type": "result", "filename": "label1.jpg", "result": {...}, "seconds": 2.1}
+        {"type": "summary", "summary": {...}}
+
+    sse: Server-Sent Events, the browser's built-in streaming format
+        event: result
+        data: {"type": "result", ...}
+
+    Why Stream?
+    -----------
+    In a batch of 200 labels, the first result is ready after one OCR run,
+    but a normal JSON response can't be sent until the slowest label is
+    done. Streaming lets the page fill in rows while the rest are working.
+    """
+    def generate():
+        try:
+            for record in batch_service.iter_records(items, errors):
+                yield format_stream_record(record, stream_format)
+        except Exception as e:
+            # Headers are already sent, so report the failure in-band
+            yield format_stream_record({
+                "type": "error",
+                "error": f"Server error: {str(e)}"
+            }, stream_format)
+
+    mimetype = 'text/event-stream' if stream_format == 'sse' else 'application/x-ndjson'
+    response = Response(stream_with_context(generate()), mimetype=mimetype)
+
+    # Ask proxies (nginx, Render's load balancer) not to buffer the stream
+    response.headers['Cache-Control'] = 'no-cache'
+    response.headers['X-Accel-Buffering'] = 'no'
+    return response
+
+
+def format_stream_record(record, stream_format):
+    """
+    Encode one batch record for the chosen streaming format.
+    """
+    data = json.dumps(record)
+    if stream_format == 'sse':
+        return f"event: {record['type']}\ndata: {data}\n\n"
+    return data + "\n"
+
+
+@app.route('/jobs', methods=['POST'])
+def create_job():
+    """
+    Queue a label verification to run in the background.
+
+    Route: POST /jobs
+    Content-Type: multipart/form-data (same fields as POST /verify)
+
+    Response:
+    ---------
+    202 Accepted:
+    {
+        "success": true,
+        "job_id": string,
+        "status": "queued",
+        "status_url": "/jobs/<job_id>"
+    }
+
+    429 Too Many Requests if the queue is full (see JOB_QUEUE_MAX).
+    The Retry-After header suggests how many seconds to wait.
+
+    Why 202 Instead of 200?
+    -----------------------
+    202 means "accepted for processing, not finished yet". The client polls
+    status_url until the job's status is done, failed or timeout.
+    """
+    file, form_data, error_response = parse_verification_request()
+    if error_response:
+        return error_response
 
     try:
-        # Save the uploaded file
-        file.save(temp_filepath)
+        job_id = job_service.submit(file.read(), form_data)
+    except JobQueueFullError as e:
+        response = jsonify({
+            "success": False,
+            "error": str(e)
+        })
+        response.headers['Retry-After'] = '5'
+        return response, 429
 
-        # Step 4: Extract text with OCR
-        ocr_result = ocr_service.extract_text_from_image(temp_filepath)
+    return jsonify({
+        "success": True,
+        "job_id": job_id,
+        "status": "queued",
+        "status_url": f"/jobs/{job_id}"
+    }), 202
 
-        # Check if OCR succeeded
-        if not ocr_result["success"]:
-            return jsonify({
-                "success": False,
-                "error": ocr_result["error"]
-            }), 500  # 500 = Internal Server Error
 
-        # Step 5: Verify the extracted text against form data
-        verification_result = verification_service.verify_label(
-            form_data,
-            ocr_result["text"]
-        )
+@app.route('/jobs/<job_id>', methods=['GET'])
+def get_job(job_id):
+    """
+    Check on a queued verification job.
+
+    Route: GET /jobs/<job_id>
 
-        # Step 6: Clean up - delete temporary file
-        # Always clean up, even if there was an error
-        if os.path.exists(temp_filepath):
-            os.remove(temp_filepath)
+    Response:
+    ---------
+    {
+        "success": true,
+        "job_id": string,
+        "status": "queued" | "running" | "done" | "failed" | "timeout",
+        "submitted_at": float,
+        "result": {...} or null     # same body as POST /verify once finished
+    }
 
-        # Step 7: Return success response
+    404 if the job id is unknown or its result has expired
+    (see JOB_RESULT_TTL_SECONDS).
+    """
+    job = job_service.get(job_id)
+    if job is None:
         return jsonify({
-            "success": True,
-            "overall_match": verification_result["overall_match"],
-            "details": verification_result["details"],
-            "ocr_text": verification_result["ocr_text"]
-        }), 200  # 200 = Success status code
+            "success": False,
+            "error": "Job not found. It may have expired."
+        }), 404
+
+    return jsonify({"success": True, **job}), 200
 
-    except Exception as e:
-        # Catch any unexpected errors
-        # Always clean up temp file before returning error
-        if os.path.exists(temp_filepath):
-            os.remove(temp_filepath)
 
+@app.route('/registry/brands', methods=['GET'])
+def lookup_brand():
+    """
+    Look a brand up in the brand catalog.
+
+    Route: GET /registry/brands?name=Old+Tom+Distillery
+
+    Response:
+    ---------
+    {
+        "success": true,
+        "registered": bool,
+        "brand": string or null,          # the catalog's spelling
+        "product_types": [string],        # registered for this brand
+        "similar_brands": [{"brand": string, "similarity": float}]
+    }
+
+    400 without a name, 404 if no catalog is loaded (BRAND_REGISTRY_PATH).
+
+    Lets the form confirm a brand (or suggest the intended one) while the
+    user types, before any image is uploaded.
+    """
+    name = request.args.get('name', '').strip()
+    if not name:
         return jsonify({
             "success": False,
-            "error": f"Server error: {str(e)}"
-        }), 500
+            "error": "Query parameter 'name' is required"
+        }), 400
+
+    result = verification_service.registry.lookup(name)
+    if result is None:
+        return jsonify({
+            "success": False,
+            "error": "No brand catalog is loaded"
+        }), 404
+
+    return jsonify({"success": True, **result}), 200
+
+
+@app.route('/registry/reload', methods=['POST'])
+def reload_registry():
+    """
+    Reload the brand catalog from BRAND_REGISTRY_PATH.
+
+    Route: POST /registry/reload
+
+    Response:
+    ---------
+    202 Accepted: {"success": true, "reloading": bool}
+        reloading is false if a reload was already running
+
+    The new catalog is built in the background and swapped in when ready;
+    verifications keep using the old one until then (see brand_registry.py).
+    GET /stats shows when it finished and whether it failed.
+
+    404 if no catalog is configured.
+    """
+    registry = verification_service.registry
+    if not registry.enabled:
+        return jsonify({
+            "success": False,
+            "error": "No brand catalog is configured (BRAND_REGISTRY_PATH)"
+        }), 404
+
+    return jsonify({
+        "success": True,
+        "reloading": registry.reload_async()
+    }), 202
+
+
+@app.route('/synonyms/reload', methods=['POST'])
+def reload_synonyms():
+    """
+    Reload the product type synonym table from PRODUCT_SYNONYMS_PATH.
+
+    Route: POST /synonyms/reload
+
+    Response:
+    ---------
+    202 Accepted: {"success": true, "reloading": bool}
+        reloading is false if a reload was already running
+
+    Like POST /registry/reload: the new table is compiled in the background
+    and swapped in when ready (see product_synonyms.py).
+
+    404 if synonyms are turned off.
+    """
+    synonyms = verification_service.synonyms
+    if not synonyms.enabled:
+        return jsonify({
+            "success": False,
+            "error": "Product type synonyms are turned off (PRODUCT_SYNONYMS_PATH)"
+        }), 404
+
+    return jsonify({
+        "success": True,
+        "reloading": synonyms.reload_async()
+    }), 202
 
 
 @app.route('/health', methods=['GET'])
@@ -242,6 +766,68 @@ def health():
     return jsonify({"status": "ok"}), 200
 
 
+@app.route('/stats', methods=['GET'])
+def stats():
+    """
+    Runtime counters for this server process.
+
+    Route: GET /stats
+    Returns:
+    {
+        "ocr_cache": {"hits", "misses", "evictions", "hit_rate", ...},
+        "shared_ocr_cache": {"available", "hits", "misses", "errors", ...},
+        "near_duplicates": {"lookups", "hits", "ocr_seconds_saved", ...},
+        "text_regions": {"images", "whole_image_fallbacks", "area_read", ...},
+        "tiled_ocr": {"images", "strips", "duplicate_lines_dropped", ...},
+        "preprocessing_ladder": {"rungs", "wins", "exhausted", ...},
+        "field_ocr": {"passes", "lines_read", "rechecked", "recovered"},
+        "orientation": {"images", "rotated", "avg_detection_ms", "retry_seconds_avoided", ...},
+        "deadlines": {"requests", "timeouts", "timeouts_by_stage", ...},
+        "tracing": {"enabled", "traces", "dropped", "export_errors", ...},
+        "compiled_forms": {"entries", "hits", "misses", "hit_rate", ...},
+        "brand_registry": {"enabled", "brands", "loads", "load_failures", ...},
+        "product_synonyms": {"enabled", "rows", "names", "loads", ...}
+    }
+
+    Usage: curl http://localhost:5000/stats
+    """
+    shared_cache = ocr_service.shared_cache
+    return jsonify({
+        "ocr_cache": ocr_service.cache.stats(),
+        "shared_ocr_cache": shared_cache.stats() if shared_cache else {"enabled": False},
+        "near_duplicates": ocr_service.near_duplicates.stats(),
+        "text_regions": ocr_service.regions.stats(),
+        "tiled_ocr": ocr_service.tiles.stats(),
+        "preprocessing_ladder": ocr_service.ladder.stats(),
+        "field_ocr": ocr_service.fields.stats(),
+        "orientation": ocr_service.orientation.stats(),
+        "deadlines": deadline_policy.stats(),
+        "tracing": tracer.stats(),
+        "compiled_forms": verification_service.compiled_forms.stats(),
+        "brand_registry": verification_service.registry.stats(),
+        "product_synonyms": verification_service.synonyms.stats()
+    }), 200
+
+
+@app.route('/metrics', methods=['GET'])
+def metrics():
+    """
+    Counters and latency histograms in Prometheus text format.
+
+    Route: GET /metrics
+    Returns: text/plain exposition format (see metrics.py), e.g.
+
+        label_http_requests_total{endpoint="verify",status="200"} 41
+        label_stage_duration_seconds_bucket{stage="ocr",le="2.5"} 38
+        label_http_requests_in_flight{endpoint="verify"} 3
+        label_job_queue_depth 0
+
+    Point a Prometheus scrape job at it; GET /stats has the same kind of
+    information as JSON, for people.
+    """
+    return Response(registry.render(), content_type=CONTENT_TYPE)
+
+
 # Error handlers
 @app.errorhandler(413)
 def file_too_large(e):
@@ -249,11 +835,17 @@ def file_too_large(e):
     Handle file size exceeded error.
 
     413 = Request Entity Too Large
-    This is triggered when uploaded file exceeds MAX_CONTENT_LENGTH
+    This is triggered when an upload exceeds MAX_CONTENT_LENGTH, or a
+    batch upload exceeds MAX_BATCH_BYTES
     """
+    if request.path == '/verify/batch':
+        message = f"Batch too large. Maximum size is {MAX_BATCH_BYTES // (1024 * 1024)} MB."
+    else:
+        message = "File too large. Maximum size is 16 MB."
+
     return jsonify({
         "success": False,
-        "error": "File too large. Maximum size is 16 MB."
+        "error": message
     }), 413
 
 
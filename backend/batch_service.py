@@ -0,0 +1,445 @@
+"""
+Batch Service - Verifies many labels in one request
+
+Compliance reviews often cover hundreds of labels at once. Sending them one
+by one to /verify pays for an HTTP round trip and multipart parsing each
+time, and runs OCR one image after another. A batch request sends every
+label together and OCRs them in parallel on all CPU cores:
+
+    POST /verify/batch
+        images[]  + manifest (JSON or CSV)      ─┐
+        or                                       ├─► one item per image
+        archive (ZIP of images + manifest)      ─┘
+                                                      │
+                              process pool (one OCR per core at a time)
+                                                      │
+                                   results keyed by filename + summary
+
+Manifest Format:
+----------------
+The manifest says what each image should contain. It uses the same fields
+as the /verify form, plus the image's filename.
+
+CSV:
+    filename,brand_name,product_type,abv,net_contents
+    label1.jpg,Old Tom Distillery,Bourbon Whiskey,45,750 mL
+
+JSON (either a list or an object keyed by filename):
+    [{"filename": "label1.jpg", "brand_name": "Old Tom Distillery", ...}]
+    {"label1.jpg": {"brand_name": "Old Tom Distillery", ...}}
+"""
+
+from concurrent.futures import FIRST_COMPLETED, wait
+import csv
+import io
+import json
+import os
+import time
+import zipfile
+import zlib
+
+from werkzeug.utils import secure_filename
+
+from deadline import deadline_policy
+from job_service import job_service, run_verification_job
+
+
+# Fields copied from the manifest into each label's form data
+FORM_FIELDS = ['brand_name', 'product_type', 'abv', 'net_contents']
+REQUIRED_FIELDS = ['brand_name', 'product_type', 'abv']
+
+# Manifest names recognized inside a ZIP archive
+MANIFEST_NAMES = ('manifest.json', 'manifest.csv')
+
+
+class BatchRequestError(Exception):
+    """
+    Raised when a batch request as a whole is invalid (HTTP 400).
+
+    Problems with a single label (e.g. missing from the manifest) don't
+    raise - they are reported in that label's result instead.
+    """
+    pass
+
+
+def label_filename(name):
+    """
+    The name a label image is known by, wherever it came from.
+
+    Uploaded files, ZIP members and manifest entries all go through this,
+    so they agree: "scans/My Label.jpg" → "My_Label.jpg" on every side.
+    secure_filename() also cleans names like "../../etc/passwd".
+    """
+    return secure_filename(os.path.basename(str(name or '').strip()))
+
+
+def decode_manifest(content):
+    """
+    Manifest bytes → text, or BatchRequestError if they aren't UTF-8.
+    """
+    try:
+        return content.decode('utf-8')
+    except UnicodeDecodeError:
+        raise BatchRequestError("Manifest is not UTF-8 text")
+
+
+def parse_manifest(content, name=None):
+    """
+    Parse a JSON or CSV manifest into {filename: form_data}.
+
+    Parameters:
+    -----------
+    content : str
+        Manifest text
+    name : str, optional
+        Manifest filename, used to tell JSON from CSV by extension.
+        Without it, text starting with '[' or '{' is treated as JSON.
+
+    Returns:
+    --------
+    dict
+        {"label1.jpg": {"brand_name": ..., "product_type": ..., ...}, ...}
+    """
+    content = content.lstrip('\ufeff')  # Excel adds a byte-order mark to CSV files
+    stripped = content.strip()
+
+    if name:
+        is_json = name.lower().endswith('.json')
+    else:
+        is_json = stripped.startswith(('[', '{'))
+
+    if is_json:
+        try:
+            data = json.loads(stripped)
+        except ValueError as e:
+            raise BatchRequestError(f"Manifest is not valid JSON: {str(e)}")
+
+        if isinstance(data, dict):
+            rows = [dict(fields, filename=filename) for filename, fields in data.items()
+                    if isinstance(fields, dict)]
+        elif isinstance(data, list):
+            rows = [row for row in data if isinstance(row, dict)]
+        else:
+            raise BatchRequestError("JSON manifest must be a list or an object keyed by filename")
+    else:
+        rows = list(csv.DictReader(io.StringIO(content)))
+
+    manifest = {}
+    for row in rows:
+        filename = label_filename(row.get('filename'))
+        if not filename:
+            raise BatchRequestError("Every manifest entry needs a 'filename'")
+        if filename in manifest:
+            raise BatchRequestError(f"Manifest lists '{filename}' more than once")
+        manifest[filename] = {
+            field: str(row.get(field) or '').strip() for field in FORM_FIELDS
+        }
+
+    return manifest
+
+
+def read_zip_archive(archive_bytes, is_allowed, max_labels, max_image_bytes, max_total_bytes):
+    """
+    Pull label images (and a manifest, if present) out of a ZIP file.
+
+    Parameters:
+    -----------
+    archive_bytes : bytes
+        The uploaded ZIP file
+    is_allowed : callable
+        Returns True for filenames with an allowed image extension
+    max_labels : int
+        Most images the archive may contain
+    max_image_bytes : int
+        Largest allowed uncompressed image
+    max_total_bytes : int
+        Most the images and manifest may add up to, uncompressed
+
+    Returns:
+    --------
+    tuple
+        (images, manifest) where images is {filename: bytes} and manifest
+        is parse_manifest() output, or None if the ZIP has no manifest
+
+    Safety:
+    -------
+    A small ZIP can expand to gigabytes ("zip bomb"). We check each member's
+    declared uncompressed size, and the running total, BEFORE extracting it.
+    A member that is corrupt or bigger than declared fails the request.
+    """
+    try:
+        archive = zipfile.ZipFile(io.BytesIO(archive_bytes))
+    except zipfile.BadZipFile:
+        raise BatchRequestError("Archive is not a valid ZIP file")
+
+    images = {}
+    manifest = None
+    total_bytes = 0
+
+    def read(member):
+        nonlocal total_bytes
+        total_bytes += member.file_size
+        if total_bytes > max_total_bytes:
+            raise BatchRequestError(
+                f"Archive expands to more than {max_total_bytes // (1024 * 1024)} MB"
+            )
+        try:
+            return archive.read(member)
+        except (zipfile.BadZipFile, zlib.error, EOFError, NotImplementedError, RuntimeError) as e:
+            # Bad CRC, unsupported compression, encrypted member, ...
+            raise BatchRequestError(f"Can't read '{member.filename}' from the archive: {e}")
+
+    with archive:
+        for member in archive.infolist():
+            filename = os.path.basename(member.filename)
+
+            # Skip folders and macOS metadata ("__MACOSX/._label.jpg")
+            if member.is_dir() or not filename or filename.startswith('.') \
+                    or '__MACOSX' in member.filename:
+                continue
+
+            if filename.lower() in MANIFEST_NAMES:
+                manifest = parse_manifest(decode_manifest(read(member)), filename)
+                continue
+
+            filename = label_filename(filename)
+            if not filename or not is_allowed(filename):
+                continue
+
+            if member.file_size > max_image_bytes:
+                raise BatchRequestError(
+                    f"'{filename}' is larger than {max_image_bytes // (1024 * 1024)} MB"
+                )
+            if filename in images:
+                raise BatchRequestError(f"Archive contains '{filename}' more than once")
+            if len(images) >= max_labels:
+                raise BatchRequestError(f"Batch has more than {max_labels} images")
+
+            images[filename] = read(member)
+
+    return images, manifest
+
+
+def run_batch_item(filename, image_bytes, form_data, timeout_seconds=None):
+    """
+    Verify one label of a batch. Runs in a worker process.
+
+    Returns:
+    --------
+    tuple
+        (filename, /verify-shaped result, seconds spent in the worker)
+    """
+    started = time.perf_counter()
+    result = run_verification_job(image_bytes, form_data, timeout_seconds)
+    return filename, result, time.perf_counter() - started
+
+
+class BatchService:
+    """
+    Fans a batch of labels out over the shared OCR process pool.
+    """
+
+    def __init__(self, job_service, max_labels=None, max_in_flight=None):
+        """
+        Parameters:
+        -----------
+        job_service : JobService
+            Owner of the worker process pool (shared with POST /jobs)
+        max_labels : int, optional
+            Most labels per batch. Default: BATCH_MAX_LABELS or 500
+        max_in_flight : int, optional
+            Most labels of one batch handed to the pool at once (see
+            iter_results). Default: BATCH_MAX_IN_FLIGHT or the pool's
+            worker count
+        """
+        self.job_service = job_service
+        self.max_labels = max_labels or int(os.environ.get('BATCH_MAX_LABELS', 500))
+        self.max_in_flight = max_in_flight or int(
+            os.environ.get('BATCH_MAX_IN_FLIGHT', job_service.max_workers)
+        )
+
+    def build_items(self, images, manifest):
+        """
+        Match every image with its manifest entry.
+
+        Parameters:
+        -----------
+        images : dict
+            {filename: image bytes}
+        manifest : dict
+            parse_manifest() output
+
+        Returns:
+        --------
+        tuple
+            (items, errors) where items is a list of (filename, bytes, form_data)
+            ready to verify, and errors is {filename: error result} for
+            labels that can't be verified (no manifest entry, missing fields)
+        """
+        if not images:
+            raise BatchRequestError("No label images provided")
+        if len(images) > self.max_labels:
+            raise BatchRequestError(f"Batch has more than {self.max_labels} images")
+
+        items = []
+        errors = {}
+
+        for filename, image_bytes in images.items():
+            form_data = manifest.get(filename)
+            if form_data is None:
+                errors[filename] = {
+                    "success": False,
+                    "error": f"No manifest entry for '{filename}'"
+                }
+                continue
+
+            missing_fields = [field for field in REQUIRED_FIELDS if not form_data[field]]
+            if missing_fields:
+                errors[filename] = {
+                    "success": False,
+                    "error": f"Missing required fields: {', '.join(missing_fields)}"
+                }
+                continue
+
+            items.append((filename, image_bytes, form_data))
+
+        return items, errors
+
+    def iter_results(self, items):
+        """
+        Verify items in parallel, yielding each result as soon as it's ready.
+
+        Yields:
+        -------
+        tuple
+            (filename, result, seconds) in completion order - a fast label
+            doesn't wait behind a slow one
+
+        Why a Window?
+        -------------
+        The pool is shared with POST /jobs. Handing it all 500 labels at once
+        would put every job submitted meanwhile behind the whole batch, where
+        it times out. Only max_in_flight labels are in the pool at a time; the
+        next one goes in as one finishes, so a job waits for at most a few
+        labels.
+        """
+        timeout = self.job_service.job_timeout
+
+        remaining = iter(items)
+        futures = {}
+
+        def submit_next():
+            for filename, image_bytes, form_data in remaining:
+                future = self.job_service.submit_task(run_batch_item, filename, image_bytes, form_data, timeout)
+                futures[future] = filename
+                return
+
+        try:
+            for _ in range(self.max_in_flight):
+                submit_next()
+
+            while futures:
+                done, _ = wait(futures, return_when=FIRST_COMPLETED)
+                for future in done:
+                    filename = futures.pop(future)
+                    submit_next()
+                    try:
+                        filename, result, seconds = future.result()
+                    except Exception as e:
+                        # The worker process crashed while handling this label
+                        yield filename, {
+                            "success": False,
+                            "error": f"Server error: {str(e)}"
+                        }, 0.0
+                        continue
+
+                    # Counted here, as /verify counts its own: the worker's
+                    # counters never reach /stats
+                    if result.get("timed_out"):
+                        deadline_policy.record_timeout(result.get("stage", "job"))
+                    yield filename, result, seconds
+        finally:
+            # If the caller stops early (e.g. client disconnected), don't
+            # leave the rest of the window queued in the pool
+            for future in futures:
+                future.cancel()
+
+    def iter_records(self, items, errors):
+        """
+        Stream a batch as a sequence of records, one per label plus a summary.
+
+        Used for streaming responses (NDJSON / Server-Sent Events): each
+        record can be sent to the client the moment it exists.
+
+        Yields:
+        -------
+        dict
+            {"type": "result", "filename": str, "result": {...}, "seconds": float}
+            ... one per label, labels that couldn't be verified first, then
+            the rest in the order their OCR finishes ...
+            {"type": "summary", "summary": {...}}
+        """
+        started = time.perf_counter()
+        results = []
+        processing_seconds = 0.0
+
+        for filename, result in errors.items():
+            results.append(result)
+            yield {"type": "result", "filename": filename, "result": result, "seconds": 0.0}
+
+        for filename, result, seconds in self.iter_results(items):
+            results.append(result)
+            processing_seconds += seconds
+            yield {"type": "result", "filename": filename, "result": result, "seconds": round(seconds, 3)}
+
+        yield {
+            "type": "summary",
+            "summary": self.summarize(results, time.perf_counter() - started, processing_seconds)
+        }
+
+    def run(self, items, errors):
+        """
+        Verify a whole batch and return every result at once.
+
+        Returns:
+        --------
+        dict
+            {
+                "success": true,
+                "results": {filename: /verify-shaped result, ...},
+                "summary": {...}     # see summarize()
+            }
+        """
+        response = {"success": True, "results": {}, "summary": None}
+
+        for record in self.iter_records(items, errors):
+            if record["type"] == "result":
+                response["results"][record["filename"]] = record["result"]
+            else:
+                response["summary"] = record["summary"]
+
+        return response
+
+    def summarize(self, results, wall_seconds, processing_seconds):
+        """
+        Aggregate counts and timing for a finished batch.
+
+        wall_seconds is how long the caller waited; processing_seconds adds up
+        each label's time in a worker. With N cores busy, processing_seconds
+        can be up to N times wall_seconds - that's the parallel speedup.
+        """
+        results = list(results)
+        labels = len(results)
+        return {
+            "labels": labels,
+            "verified": sum(1 for r in results if r["success"]),
+            "matched": sum(1 for r in results if r.get("overall_match")),
+            "failed": sum(1 for r in results if not r["success"]),
+            "wall_seconds": round(wall_seconds, 3),
+            "processing_seconds": round(processing_seconds, 3),
+            "labels_per_second": round(labels / wall_seconds, 2) if wall_seconds else None
+        }
+
+
+# Create singleton instance (shares the job service's process pool)
+batch_service = BatchService(job_service)
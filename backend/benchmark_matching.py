@@ -0,0 +1,455 @@
+"""
+Matching Benchmark - Cost of the form field checks, fuzzy brand and product
+type synonym matching
+
+Fuzzy matching
+--------------
+
+Times one search for a brand name in OCR text of growing length:
+
+- exact    The exact check (compiled substring pattern) - what runs first,
+           and all that runs when the field matches exactly
+- myers    The approximate search (fuzzy_match.py) at 1 and 2 edits - what
+           runs when the exact check finds nothing and
+           VERIFY_BRAND_MAX_EDITS / VERIFY_PRODUCT_TYPE_MAX_EDITS allow it
+- table    The textbook edit distance table (pattern length × text length
+           cells), for reference
+
+The brand sits at the END of the text, misread by one character, so every
+method has to scan everything. Exact and myers should grow no faster than
+the text (myers mostly pays a fixed cost for the few stretches of text it
+checks closely); the table grows with pattern length × text length.
+
+Product type synonyms
+---------------------
+Builds synthetic synonym tables of growing size (product_synonyms.py) and
+times, for one product type whose last synonym sits at the end of the
+label:
+
+- load      Reading a table of that many rows into a SynonymIndex
+- compile   The first lookup of a product type (builds its row's pattern)
+- trie      One scan with the row's compiled pattern - what a check costs
+- per name  One whole-word pattern per synonym, each searched to find the
+            leftmost match, for comparison
+
+Load grows with the table; compile, trie and per name don't. Both searches
+grow with the names in a row, per name faster: it is a little quicker with
+a handful of names, trie with a few dozen (--synonym-names 30).
+
+Single pass vs per field
+------------------------
+CompiledForm.find (form_matcher.py) searches the OCR text once per field,
+each with its own compiled pattern. This times that against finding every
+field in ONE pass, for a typical form whose fields sit at the end of the
+label:
+
+- per field     re.search with each field's pattern - what find() does
+- combined      One regex: a lookahead per field, all tried at each
+                position where any field could start
+- aho-corasick  An Aho-Corasick automaton for the fields that are plain
+                text (brand name, product type) plus one combined regex for
+                the rest (ABV, net contents, government warning)
+
+Before timing, every method is run on --pairs random forms and label texts
+and must find each field at the same place as per field; a difference is
+printed and fails the run.
+
+Usage:
+------
+    cd backend
+    python benchmark_matching.py
+    python benchmark_matching.py --brand "creekwood cellars" --lengths 500,2000,8000 --repeat 200
+    python benchmark_matching.py --synonym-rows 1000,50000 --synonym-names 12
+    python benchmark_matching.py --pairs 100000
+"""
+
+import argparse
+from collections import deque
+import random
+import re
+import string
+import sys
+import time
+
+from fuzzy_match import ApproximatePattern
+from product_synonyms import SynonymIndex, names_pattern
+from verification_service import VerificationService
+
+
+# Filler label text the brand is hidden behind
+FILLER = (
+    "kentucky straight bourbon whiskey aged four years bottled in bond 45% alc/vol 750 ml "
+    "government warning: (1) according to the surgeon general, women should not drink "
+    "alcoholic beverages during pregnancy because of the risk of birth defects. "
+)
+
+
+def misread(text):
+    """
+    The text with one character misread, as OCR might ("o" → "0").
+    """
+    for position, char in enumerate(text):
+        if char.isalpha():
+            return text[:position] + ("0" if char != "o" else "c") + text[position + 1:]
+    return text + "x"
+
+
+def make_text(brand, length):
+    """
+    Label text of about length characters ending in the misread brand.
+    """
+    filler = (FILLER * (length // len(FILLER) + 1))[:max(0, length - len(brand) - 1)]
+    return filler + " " + misread(brand)
+
+
+def table_search(pattern, text):
+    """
+    Best edit distance of pattern against any piece of text, one table
+    column at a time.
+    """
+    column = list(range(len(pattern) + 1))
+    best = column[-1]
+    for text_char in text:
+        previous_diagonal, column[0] = column[0], 0
+        for i, pattern_char in enumerate(pattern, 1):
+            value = min(
+                previous_diagonal + (pattern_char != text_char),
+                column[i] + 1,
+                column[i - 1] + 1
+            )
+            previous_diagonal, column[i] = column[i], value
+        best = min(best, column[-1])
+    return best
+
+
+def time_per_call(function, repeat):
+    """
+    Average seconds per call over repeat calls.
+    """
+    started = time.perf_counter()
+    for _ in range(repeat):
+        function()
+    return (time.perf_counter() - started) / repeat
+
+
+def run(brand, lengths, repeat):
+    exact = re.compile(re.escape(brand))
+    approximate = ApproximatePattern(brand)
+
+    print(f"Brand: '{brand}' ({len(brand)} characters), misread once at the end of the text")
+    print(f"{'text chars':>10}  {'method':<9} {'µs / search':>12} {'ns / char':>10}  result")
+
+    for length in lengths:
+        text = make_text(brand, length)
+        methods = [
+            ("exact", lambda: exact.search(text), repeat),
+            ("myers k=1", lambda: approximate.search(text, 1), repeat),
+            ("myers k=2", lambda: approximate.search(text, 2), repeat),
+            # The table is slow; fewer rounds give the same average
+            ("table", lambda: table_search(brand, text), max(1, repeat // 20))
+        ]
+        for name, function, rounds in methods:
+            result = function()
+            if name == "exact":
+                outcome = "found" if result else "not found"
+            elif name == "table":
+                outcome = f"distance {result}"
+            else:
+                outcome = f"distance {result.distance}" if result else "not found"
+
+            seconds = time_per_call(function, rounds)
+            print(f"{len(text):>10}  {name:<9} {seconds * 1e6:>12.1f} {seconds * 1e9 / len(text):>10.1f}  {outcome}")
+        print()
+
+
+def synonym_rows(count, names_per_row):
+    """
+    A synthetic synonym table: count rows of made-up names of one to three
+    words (the same every run).
+    """
+    generator = random.Random(count)
+
+    def word():
+        return ''.join(generator.choice(string.ascii_lowercase) for _ in range(generator.randint(3, 9)))
+
+    return [
+        [' '.join(word() for _ in range(generator.randint(1, 3))) for _ in range(names_per_row)]
+        for _ in range(count)
+    ]
+
+
+def run_synonyms(row_counts, names_per_row, repeat, sample=20):
+    print(f"Synonym tables with {names_per_row} names per row; the product type's last synonym ends the label")
+    print(f"(compile, trie and per name: average over {sample} product types)")
+    print(f"{'rows':>10}  {'method':<9} {'µs':>12}  result")
+
+    for count in row_counts:
+        rows = synonym_rows(count, names_per_row)
+        started = time.perf_counter()
+        index = SynonymIndex(rows)
+        load_seconds = time.perf_counter() - started
+        print(f"{count:>10}  {'load':<9} {load_seconds * 1e6:>12.1f}  {len(index)} names")
+
+        totals = {"compile": 0.0, "trie": 0.0, "per name": 0.0}
+        found = {"trie": 0, "per name": 0}
+        # Rows spread over the table, each typed as its first name
+        for row in rows[::max(1, count // sample)][:sample]:
+            text = (FILLER * 4)[:1000] + " " + row[-1]
+
+            started = time.perf_counter()
+            pattern = index.pattern_for(row[0])
+            totals["compile"] += time.perf_counter() - started
+
+            per_name = [re.compile(names_pattern([synonym])) for synonym in sorted(set(row))]
+
+            def search_per_name():
+                # Every name must be tried: the leftmost match wins
+                best = None
+                for synonym_pattern in per_name:
+                    match = synonym_pattern.search(text)
+                    if match and (best is None or match.start() < best.start()):
+                        best = match
+                return best
+
+            for method, function in (("trie", lambda: pattern.search(text)), ("per name", search_per_name)):
+                found[method] += function() is not None
+                totals[method] += time_per_call(function, repeat)
+
+        rounds = min(sample, count)
+        for method, seconds in totals.items():
+            outcome = f"found {found[method]} of {rounds}" if method in found else ""
+            print(f"{count:>10}  {method:<9} {seconds / rounds * 1e6:>12.1f}  {outcome}".rstrip())
+        print()
+
+
+# Forms and label words the single-pass check is run on
+FORM_VALUES = {
+    "brand_name": ["Old Tom Distillery", "Old Tom", "Tom", "Creekwood Cellars", "O'Brien & Sons", ""],
+    "product_type": ["Bourbon Whiskey", "Whiskey", "Bourbon", "IPA", "Cabernet Sauvignon", ""],
+    "abv": ["45", "45%", "4.5", "40", "13.5", ""],
+    "net_contents": ["750 mL", "12 fl oz", "1.75 L", "750", ""]
+}
+LABEL_WORDS = [
+    "old", "tom", "distillery", "old tom", "creekwood", "cellars", "o'brien", "&", "sons", "bourbon", "whiskey",
+    "ipa", "cabernet", "sauvignon", "45%", "45.0 %", "4.5%", "145%", "40%", "13.5%", "750ml", "750 ml",
+    "12 fl. oz", "1.75 l", "alc/vol", "government warning", "gov't warning", "govermnent warnlng", "(1)",
+    "\n", "municipal", "tomato"
+]
+
+
+def searched_separately(patterns, text):
+    """
+    Field → (start, end) of its first match, one search per field.
+    """
+    found = {}
+    for field, pattern in patterns.items():
+        match = pattern.search(text)
+        if match:
+            found[field] = (match.start(), match.end())
+    return found
+
+
+def combined_pattern(patterns):
+    """
+    One regex trying every field's pattern at each position where one of
+    them matches: a lookahead per field, each in its own named group.
+    """
+    sources = {
+        field: ('(?i:' if pattern.flags & re.IGNORECASE else '(?:') + pattern.pattern + ')'
+        for field, pattern in patterns.items()
+    }
+    return re.compile(
+        '(?=' + '|'.join(sources.values()) + ')'
+        + ''.join(f'(?:(?=(?P<{field}>{source})))?' for field, source in sources.items())
+    )
+
+
+def searched_combined(pattern, text):
+    """
+    Field → (start, end) of its first match, in one pass of pattern (see
+    combined_pattern).
+    """
+    fields = pattern.groupindex
+    found = {}
+    for match in pattern.finditer(text):
+        for field in fields:
+            if field not in found and match.start(field) >= 0:
+                found[field] = match.span(field)
+        if len(found) == len(fields):
+            break
+    return found
+
+
+class AhoCorasick:
+    """
+    The textbook automaton finding any of several strings in one pass of
+    the text, one state change per character.
+    """
+
+    def __init__(self, strings):
+        """
+        Parameters:
+        -----------
+        strings : dict
+            Name → string to find
+        """
+        # State: transitions, failure link, names of strings ending here
+        self.goto = [{}]
+        self.fail = [0]
+        self.ends = [[]]
+        self.lengths = {name: len(text) for name, text in strings.items()}
+
+        for name, text in strings.items():
+            state = 0
+            for char in text:
+                if char not in self.goto[state]:
+                    self.goto.append({})
+                    self.fail.append(0)
+                    self.ends.append([])
+                    self.goto[state][char] = len(self.goto) - 1
+                state = self.goto[state][char]
+            self.ends[state].append(name)
+
+        # Failure links, breadth first: the longest proper suffix of a
+        # state's text that is also a state (states one deep fall back to 0)
+        queue = deque(self.goto[0].values())
+        while queue:
+            state = queue.popleft()
+            for char, child in self.goto[state].items():
+                queue.append(child)
+                fallback = self.fail[state]
+                while fallback and char not in self.goto[fallback]:
+                    fallback = self.fail[fallback]
+                if state:
+                    self.fail[child] = self.goto[fallback].get(char, 0)
+                self.ends[child] = self.ends[child] + self.ends[self.fail[child]]
+
+    def first(self, text):
+        """
+        Name → (start, end) of each string's first occurrence.
+        """
+        goto, fail, ends = self.goto, self.fail, self.ends
+        found = {}
+        state = 0
+        for position, char in enumerate(text):
+            while state and char not in goto[state]:
+                state = fail[state]
+            state = goto[state].get(char, 0)
+            for name in ends[state]:
+                if name not in found:
+                    found[name] = (position + 1 - self.lengths[name], position + 1)
+            if len(found) == len(self.lengths):
+                break
+        return found
+
+
+def single_pass_methods(compiled):
+    """
+    (name, function of text) for each way of finding a compiled form's
+    fields; every function returns field → (start, end).
+    """
+    patterns = compiled.patterns
+    combined = combined_pattern(patterns)
+
+    # Brand name and product type are escaped plain text (see
+    # VerificationService._compile_form)
+    literal = {
+        field: re.sub(r'\\(.)', r'\1', patterns[field].pattern)
+        for field in ("brand_name", "product_type") if field in patterns
+    }
+    automaton = AhoCorasick(literal)
+    rest = {field: pattern for field, pattern in patterns.items() if field not in literal}
+    rest_combined = combined_pattern(rest) if rest else None
+
+    def aho_corasick(text):
+        found = automaton.first(text)
+        if rest_combined is not None:
+            found.update(searched_combined(rest_combined, text))
+        return found
+
+    return [
+        ("per field", lambda text: searched_separately(patterns, text)),
+        ("combined", lambda text: searched_combined(combined, text)),
+        ("aho-corasick", aho_corasick)
+    ]
+
+
+def check_single_pass(service, pairs):
+    """
+    Run every single-pass method on random forms and texts; each must find
+    the same fields at the same places as per field. Returns the number of
+    differences (the first few are printed).
+    """
+    generator = random.Random(21)
+    differences = 0
+    for _ in range(pairs):
+        form = {field: generator.choice(values) for field, values in FORM_VALUES.items()}
+        text = service._normalize_text(
+            " ".join(generator.choice(LABEL_WORDS) for _ in range(generator.randint(0, 30)))
+        )
+        methods = single_pass_methods(service.compile_form(form))
+        expected = methods[0][1](text)
+        for name, function in methods[1:]:
+            result = function(text)
+            if result != expected:
+                differences += 1
+                if differences <= 5:
+                    print(f"  {name} differs: {form} {text!r}: {result} != {expected}")
+    return differences
+
+
+def run_single_pass(lengths, repeat, pairs):
+    service = VerificationService(compile_cache_size=0)
+
+    print(f"Single pass vs per field: {pairs} random form/text pairs ... ", end="", flush=True)
+    differences = check_single_pass(service, pairs)
+    print("same results" if not differences else f"{differences} DIFFERENT")
+    if differences:
+        sys.exit(1)
+
+    form = {"brand_name": "Old Tom Distillery", "product_type": "Bourbon Whiskey", "abv": "45",
+            "net_contents": "750 mL"}
+    methods = single_pass_methods(service.compile_form(form))
+    fields = "old tom distillery bourbon whiskey 45% alc/vol 750 ml government warning"
+
+    print(f"Form fields at the end of the label")
+    print(f"{'text chars':>10}  {'method':<13} {'µs / form':>10}  fields found")
+    for length in lengths:
+        filler = (FILLER * (length // len(FILLER) + 1))[:max(0, length - len(fields) - 1)]
+        text = service._normalize_text(filler.replace("bourbon", "corn").replace("45%", "40%")
+                                       .replace("750 ml", "1 l").replace("government warning", "warning")
+                                       + " " + fields)
+        for name, function in methods:
+            found = len(function(text))
+            seconds = time_per_call(lambda: function(text), repeat)
+            print(f"{len(text):>10}  {name:<13} {seconds * 1e6:>10.1f}  {found}")
+        print()
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Benchmark form field checks, fuzzy brand and product type synonym matching")
+    parser.add_argument('--brand', default="old tom distillery",
+                        help="Normalized brand name to search for")
+    parser.add_argument('--lengths', default="250,1000,4000,16000",
+                        help="Comma-separated OCR text lengths in characters")
+    parser.add_argument('--repeat', type=int, default=100,
+                        help="Searches per method and length")
+    parser.add_argument('--synonym-rows', default="1000,20000",
+                        help="Comma-separated synonym table sizes in rows")
+    parser.add_argument('--synonym-names', type=int, default=6,
+                        help="Names per synonym table row")
+    parser.add_argument('--pairs', type=int, default=30000,
+                        help="Random form/text pairs the single-pass methods are checked on")
+    args = parser.parse_args()
+
+    lengths = [int(length) for length in args.lengths.split(',')]
+    run_single_pass([550] + lengths, args.repeat, args.pairs)
+
+    run(args.brand.lower(), lengths, args.repeat)
+
+    row_counts = [int(count) for count in args.synonym_rows.split(',')]
+    run_synonyms(row_counts, args.synonym_names, args.repeat)
+
+
+if __name__ == '__main__':
+    main()
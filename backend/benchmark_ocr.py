@@ -0,0 +1,309 @@
+"""
+OCR Engine Benchmark - Compare OCR engines on real label images
+
+Runs every image in a folder through each OCR engine and reports:
+- p50 / p95 latency per image (milliseconds)
+- Throughput (images per second)
+- Peak memory (resident set size) of the benchmark process and of any
+  child processes it started (the subprocess engine's tesseract runs)
+- With --manifest: how many expected fields / whole labels verified, so a
+  faster setting can be checked for lost accuracy
+
+Usage:
+------
+    cd backend
+    python benchmark_ocr.py /path/to/label/images
+    python benchmark_ocr.py /path/to/label/images --engines subprocess,inprocess --repeat 3
+
+    # Before/after report for resolution normalization (resolution.py)
+    python benchmark_ocr.py /path/to/label/images --manifest labels.csv --compare-resize
+
+    # Text-region OCR (region_ocr.py) versus whole-image OCR
+    python benchmark_ocr.py /path/to/label/images --manifest labels.csv --compare-regions
+
+    # Orientation detection (orientation.py): its cost per image versus the
+    # labels it rescues. Include some sideways/upside-down photos.
+    python benchmark_ocr.py /path/to/label/images --manifest labels.csv --compare-orientation
+
+The manifest uses the batch format (see batch_service.py):
+    filename,brand_name,product_type,abv,net_contents
+
+Why a Separate Process per Engine?
+----------------------------------
+Peak memory is a "high-water mark": once a process has used 500 MB it
+reports 500 MB forever. Running each engine in its own fresh process keeps
+one engine's memory use from showing up in another engine's numbers.
+"""
+
+import argparse
+import math
+import multiprocessing
+import os
+import resource
+import sys
+import time
+
+from batch_service import parse_manifest
+from ocr_engines import ENGINES
+
+
+IMAGE_EXTENSIONS = ('.png', '.jpg', '.jpeg', '.gif')
+
+
+def load_images(folder):
+    """
+    Read every label image in a folder into memory.
+
+    Returns:
+    --------
+    list of (str, bytes)
+        (filename, file contents) pairs, sorted by filename
+    """
+    images = []
+    for filename in sorted(os.listdir(folder)):
+        if filename.lower().endswith(IMAGE_EXTENSIONS):
+            with open(os.path.join(folder, filename), 'rb') as image_file:
+                images.append((filename, image_file.read()))
+    return images
+
+
+def percentile(sorted_values, pct):
+    """
+    Nearest-rank percentile of an already sorted list.
+
+    Example: percentile([10, 20, 30, 40], 50) → 20
+    """
+    if not sorted_values:
+        return 0.0
+    rank = max(1, math.ceil(pct / 100.0 * len(sorted_values)))
+    return sorted_values[rank - 1]
+
+
+def peak_rss_mb(who):
+    """
+    Peak resident memory in MB for this process or its finished children.
+
+    ru_maxrss is reported in kilobytes on Linux and bytes on macOS.
+    """
+    max_rss = resource.getrusage(who).ru_maxrss
+    if sys.platform == 'darwin':
+        return max_rss / (1024 * 1024)
+    return max_rss / 1024
+
+
+def run_engine(engine_name, images, repeat, warmup, variant=None, manifest=None):
+    """
+    Benchmark one engine. Runs inside a fresh child process.
+
+    Parameters:
+    -----------
+    variant : dict, optional
+        Pipeline stages to force on or off, e.g. {"resize": False}.
+        Stages not mentioned follow their environment settings.
+    manifest : dict, optional
+        {filename: form_data} - expected values for the field-match rate
+
+    Returns:
+    --------
+    dict
+        Raw measurements for report()
+    """
+    # Import here so the OCR service (and its engine) is created inside
+    # the child process, not inherited from the parent
+    from ocr_cache import OCRResultCache
+    from ocr_service import OCRService
+    from orientation import OrientationDetector
+    from perceptual_hash import NearDuplicateIndex
+    from region_ocr import RegionOCR
+    from resolution import ResolutionPolicy
+    from verification_service import verification_service
+
+    variant = variant or {}
+    resolution = ResolutionPolicy.from_env()
+    regions = RegionOCR.from_env()
+    if 'resize' in variant:
+        resolution.enabled = variant['resize']
+    if 'regions' in variant:
+        regions.enabled = variant['regions']
+    orientation = OrientationDetector.from_env()
+    if 'orientation' in variant:
+        # "On" uses the configured mode, or the free projection heuristic
+        mode = orientation.mode if orientation.enabled else 'projection'
+        orientation = OrientationDetector(mode=mode if variant['orientation'] else 'off')
+
+    # Caching is off so repeated runs measure OCR, not cache lookups
+    service = OCRService(
+        engine=engine_name,
+        cache=OCRResultCache(max_entries=0),
+        shared_cache=False,
+        near_duplicates=NearDuplicateIndex(max_distance=None),
+        resolution=resolution,
+        regions=regions,
+        orientation=orientation
+    )
+
+    # Warm-up runs let the engine load its model before we start timing
+    for _, image_bytes in images[:warmup]:
+        service.extract_text_from_bytes(image_bytes)
+
+    latencies = []
+    failures = 0
+    texts = {}
+    started = time.perf_counter()
+
+    for _ in range(repeat):
+        for filename, image_bytes in images:
+            t0 = time.perf_counter()
+            result = service.extract_text_from_bytes(image_bytes)
+            latencies.append(time.perf_counter() - t0)
+            if not result["success"]:
+                failures += 1
+            texts[filename] = result["text"]
+
+    elapsed = time.perf_counter() - started
+
+    # Verification is not timed - it takes microseconds next to OCR
+    fields_checked = fields_matched = labels_checked = labels_matched = 0
+    for filename, form_data in (manifest or {}).items():
+        if filename not in texts:
+            continue
+        verification = verification_service.verify_label(form_data, texts[filename])
+        checked = [field for field in ('brand_name', 'product_type', 'abv', 'net_contents')
+                   if form_data.get(field)]
+        fields_checked += len(checked)
+        fields_matched += sum(1 for field in checked if verification["details"][field]["match"])
+        labels_checked += 1
+        labels_matched += verification["overall_match"]
+
+    # e.g. "inprocess-resize", "inprocess+regions"
+    label = engine_name + ''.join(
+        ('+' if enabled else '-') + stage for stage, enabled in variant.items()
+    )
+
+    return {
+        "engine": label,
+        "fields_checked": fields_checked,
+        "fields_matched": fields_matched,
+        "labels_checked": labels_checked,
+        "labels_matched": labels_matched,
+        "latencies": latencies,
+        "failures": failures,
+        "elapsed": elapsed,
+        "peak_rss_mb": peak_rss_mb(resource.RUSAGE_SELF),
+        "peak_child_rss_mb": peak_rss_mb(resource.RUSAGE_CHILDREN),
+        "orientation": service.orientation.stats(),
+    }
+
+
+def report(results):
+    """
+    Print one row per engine.
+    """
+    header = (
+        f"{'engine':<20}{'images':>8}{'failed':>8}{'p50 ms':>10}{'p95 ms':>10}{'img/s':>9}"
+        f"{'rss MB':>9}{'child MB':>10}{'fields %':>10}{'labels %':>10}"
+    )
+    print(header)
+    print('-' * len(header))
+
+    for result in results:
+        latencies = sorted(result["latencies"])
+        count = len(latencies)
+        throughput = count / result["elapsed"] if result["elapsed"] else 0.0
+        print(
+            f"{result['engine']:<20}"
+            f"{count:>8}"
+            f"{result['failures']:>8}"
+            f"{percentile(latencies, 50) * 1000:>10.1f}"
+            f"{percentile(latencies, 95) * 1000:>10.1f}"
+            f"{throughput:>9.2f}"
+            f"{result['peak_rss_mb']:>9.1f}"
+            f"{result['peak_child_rss_mb']:>10.1f}"
+            f"{format_rate(result['fields_matched'], result['fields_checked']):>10}"
+            f"{format_rate(result['labels_matched'], result['labels_checked']):>10}"
+        )
+
+    # What orientation detection cost, next to what it rotated. Compare
+    # the labels % of the -orientation and +orientation rows for its benefit.
+    detecting = [result for result in results if result["orientation"]["images"]]
+    if detecting:
+        print()
+        for result in detecting:
+            orientation = result["orientation"]
+            print(
+                f"{result['engine']:<20}orientation={orientation['mode']}: "
+                f"{orientation['avg_detection_ms']:.1f} ms/image to detect, "
+                f"rotated {orientation['rotated']}, "
+                f"~{orientation['retry_seconds_avoided']:.1f} s of retry OCR avoided"
+            )
+
+
+def format_rate(matched, checked):
+    """
+    Percentage for the report, or '-' when there was nothing to check.
+    """
+    if not checked:
+        return '-'
+    return f"{100.0 * matched / checked:.1f}"
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Benchmark OCR engines on a folder of label images")
+    parser.add_argument('folder', help="Folder containing PNG/JPEG/GIF label images")
+    parser.add_argument('--engines', default=','.join(ENGINES),
+                        help="Comma-separated engine names (default: all)")
+    parser.add_argument('--repeat', type=int, default=1,
+                        help="How many times to run through the folder per engine")
+    parser.add_argument('--warmup', type=int, default=1,
+                        help="Images to run before timing starts")
+    parser.add_argument('--manifest',
+                        help="CSV/JSON of expected values per image, to report field-match rates")
+    parser.add_argument('--compare-resize', action='store_true',
+                        help="Run each engine with resolution normalization off, then on")
+    parser.add_argument('--compare-regions', action='store_true',
+                        help="Run each engine on the whole image, then on detected text regions")
+    parser.add_argument('--compare-orientation', action='store_true',
+                        help="Run each engine without, then with orientation detection")
+    args = parser.parse_args()
+
+    images = load_images(args.folder)
+    if not images:
+        parser.error(f"No images found in {args.folder}")
+
+    manifest = None
+    if args.manifest:
+        with open(args.manifest, encoding='utf-8') as manifest_file:
+            manifest = parse_manifest(manifest_file.read(), args.manifest)
+
+    engine_names = [name.strip() for name in args.engines.split(',') if name.strip()]
+    unknown = [name for name in engine_names if name not in ENGINES]
+    if unknown:
+        parser.error(f"Unknown engine(s): {', '.join(unknown)}")
+
+    print(f"Benchmarking {len(images)} image(s) x {args.repeat} run(s)\n")
+
+    # 'spawn' starts each engine in a clean interpreter, so memory numbers
+    # aren't inflated by whatever the parent or a previous engine loaded
+    context = multiprocessing.get_context('spawn')
+    variants = [{}]
+    if args.compare_resize:
+        variants = [dict(variant, resize=enabled) for variant in variants for enabled in (False, True)]
+    if args.compare_regions:
+        variants = [dict(variant, regions=enabled) for variant in variants for enabled in (False, True)]
+    if args.compare_orientation:
+        variants = [dict(variant, orientation=enabled) for variant in variants for enabled in (False, True)]
+
+    results = []
+    for engine_name in engine_names:
+        for variant in variants:
+            with context.Pool(processes=1) as pool:
+                results.append(pool.apply(
+                    run_engine,
+                    (engine_name, images, args.repeat, args.warmup, variant, manifest)
+                ))
+
+    report(results)
+
+
+if __name__ == '__main__':
+    main()
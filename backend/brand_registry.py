@@ -0,0 +1,360 @@
+"""
+Brand Registry - Check labels against a catalog of registered brands
+
+Reviewers verify labels of products that are already registered: the
+catalog knows every brand (tens of thousands of them) and which product
+types each brand sells. With a catalog loaded, every verification also
+reports:
+
+- whether the brand typed into the form is a registered one, and if not,
+  which registered brands are spelled most like it (a typo in the form)
+- which registered brands actually appear in the label's OCR text, so the
+  reviewer can pick the brand instead of typing it
+
+Catalog Format:
+---------------
+CSV with a header row. brand_name is required; product_type is optional,
+and a brand selling several product types has one row per type:
+
+    brand_name,product_type
+    Old Tom Distillery,Bourbon Whiskey
+    Old Tom Distillery,Rye Whiskey
+    Creekwood Cellars,Cabernet Sauvignon
+
+How Is It Fast?
+---------------
+Names are compared as sequences of words ("tokens"), lowercase, with
+punctuation dropped: "Jack Daniel's" is (jack, daniel, s).
+
+    Brands on the label   A trie of token sequences. Each word of the OCR
+                          text is a possible start; following the trie
+                          from there costs one dictionary lookup per word,
+                          however many brands the catalog has:
+
+                              old ─► tom ─► distillery ●
+                                       └─► cat ●
+                                              ● = a registered brand
+
+    Similar brands        Each brand's three-letter pieces ("trigrams":
+                          "old tom" → " ol", "old", "ld ", "d t", ...) are
+                          indexed. Brands sharing the most trigrams with
+                          the typed name are the most similar. The name's
+                          rarest trigrams pick the candidates; common ones
+                          ("ery", " co") are skipped once enough brands
+                          are counted, so the cost doesn't grow with the
+                          catalog.
+
+Both answer in under a millisecond per label with tens of thousands of
+brands.
+
+Reloading:
+----------
+A loaded catalog is never changed. A reload builds a complete new index on
+a background thread while requests keep using the old one, then swaps it
+in with a single assignment - requests see either the old catalog or the
+new one, never half of each, and never wait. A catalog that fails to load
+leaves the old one in place.
+
+Reloads happen on POST /registry/reload, or by themselves when the file's
+modification time changes (checked at most every
+BRAND_REGISTRY_CHECK_SECONDS, which also keeps background job workers up
+to date).
+
+Configuration:
+--------------
+BRAND_REGISTRY_PATH           CSV catalog (default unset = no registry)
+BRAND_REGISTRY_CHECK_SECONDS  How often to look for a changed file
+                              (default 30, 0 = only reload on request)
+"""
+
+from collections import Counter
+import csv
+import os
+import re
+
+from reloadable import ReloadableFile
+
+
+# Words of a name or of OCR text
+TOKEN_PATTERN = re.compile(r'\w+')
+
+# Trie key marking "a registered brand ends here" (tokens are never empty)
+_END = ''
+
+# Similar brands must share at least this share of trigrams (Dice
+# coefficient: 1.0 = same trigrams, 0.0 = none in common)
+MIN_SIMILARITY = 0.5
+
+# Most similar brands reported
+MAX_SIMILAR = 5
+
+# Similar-brand search: brand ids counted per lookup, and the best-counted
+# candidates scored exactly (see RegistryIndex.similar)
+CANDIDATE_BUDGET = 5000
+MAX_CANDIDATES = 50
+
+
+def _tokens(text):
+    return TOKEN_PATTERN.findall(text.lower())
+
+
+def _key(name):
+    """
+    The form of a name used for comparisons: "Jack Daniel's" → "jack daniel s".
+    """
+    return " ".join(_tokens(name))
+
+
+def _trigrams(key):
+    padded = f" {key} "
+    return {padded[i:i + 3] for i in range(len(padded) - 2)}
+
+
+class RegistryIndex:
+    """
+    One loaded catalog, indexed for lookups. Never changed after it's built.
+    """
+
+    def __init__(self, rows):
+        """
+        Parameters:
+        -----------
+        rows : iterable of (str, str)
+            (brand name, product type) pairs; product type may be empty
+        """
+        # Brand key → the name as listed, and its product type keys
+        self.names = {}
+        self.product_types = {}
+
+        # Token trie: nested dicts, _END holds the brand key
+        self._trie = {}
+
+        for name, product_type in rows:
+            key = _key(name)
+            if not key:
+                continue
+            if key not in self.names:
+                self.names[key] = name.strip()
+                self.product_types[key] = set()
+                node = self._trie
+                for token in key.split(" "):
+                    node = node.setdefault(token, {})
+                node[_END] = key
+            if product_type and _key(product_type):
+                self.product_types[key].add(_key(product_type))
+
+        # Trigram → ids (positions in self._keys) of brands containing it
+        self._keys = list(self.names)
+        self._trigram_counts = []
+        postings = {}
+        for brand_id, key in enumerate(self._keys):
+            grams = _trigrams(key)
+            self._trigram_counts.append(len(grams))
+            for gram in grams:
+                postings.setdefault(gram, []).append(brand_id)
+        self._postings = postings
+
+    def __len__(self):
+        return len(self.names)
+
+    def lookup(self, name):
+        """
+        The registered brand key for a name, or None.
+        """
+        key = _key(name)
+        return key if key in self.names else None
+
+    def similar(self, name, limit=MAX_SIMILAR):
+        """
+        Registered brands spelled most like name.
+
+        Suggestions, not a guarantee: a brand that shares only common
+        trigrams with the name may be missed.
+
+        Returns:
+        --------
+        list of (str, float)
+            (brand key, similarity 0-1), most similar first, at least
+            MIN_SIMILARITY
+        """
+        grams = _trigrams(_key(name))
+        if not grams:
+            return []
+
+        # Count shared trigrams, rarest first, until CANDIDATE_BUDGET brand
+        # ids have been counted: a trigram in half the catalog ("ery",
+        # " co") says little about which brand is meant, and counting it
+        # would cost more than all the others together
+        counts = Counter()
+        counted = 0
+        for gram in sorted(grams, key=lambda gram: len(self._postings.get(gram, ()))):
+            brand_ids = self._postings.get(gram)
+            if not brand_ids:
+                continue
+            if counted and counted + len(brand_ids) > CANDIDATE_BUDGET:
+                break
+            counts.update(brand_ids)  # counts the whole list in C
+            counted += len(brand_ids)
+
+        # The best-counted candidates get an exact score
+        scored = []
+        for brand_id, _ in counts.most_common(MAX_CANDIDATES):
+            key = self._keys[brand_id]
+            shared = len(grams & _trigrams(key))
+            similarity = 2 * shared / (len(grams) + self._trigram_counts[brand_id])
+            if similarity >= MIN_SIMILARITY:
+                scored.append((similarity, key))
+        scored.sort(key=lambda item: (-item[0], item[1]))
+        return [(key, round(similarity, 3)) for similarity, key in scored[:limit]]
+
+    def brands_in(self, text):
+        """
+        Registered brands that appear in text, as whole words.
+
+        Returns:
+        --------
+        list of (str, int, int)
+            (brand key, start, end) with start/end a character range of
+            text, in reading order. Where two brands start at the same word
+            ("old tom" and "old tom distillery"), the longer one wins.
+        """
+        tokens = list(TOKEN_PATTERN.finditer(text.lower()))
+        found = []
+        i = 0
+        while i < len(tokens):
+            node = self._trie
+            longest = None
+            j = i
+            while j < len(tokens):
+                node = node.get(tokens[j].group())
+                if node is None:
+                    break
+                if _END in node:
+                    longest = (node[_END], j)
+                j += 1
+
+            if longest is None:
+                i += 1
+                continue
+            key, last = longest
+            found.append((key, tokens[i].start(), tokens[last].end()))
+            i = last + 1
+        return found
+
+
+class BrandRegistry(ReloadableFile):
+    """
+    The current catalog index, and the loading and reloading of it (see
+    "Reloading" above and reloadable.py).
+    """
+
+    description = "brand registry"
+    load_errors = (OSError, ValueError, csv.Error)
+
+    @classmethod
+    def from_env(cls):
+        """
+        Build from BRAND_REGISTRY_* environment variables and load the
+        catalog, if one is configured.
+        """
+        registry = cls(
+            path=os.environ.get('BRAND_REGISTRY_PATH') or None,
+            check_seconds=float(os.environ.get('BRAND_REGISTRY_CHECK_SECONDS', 30))
+        )
+        if registry.enabled:
+            registry.load()
+        return registry
+
+    def read_index(self, path):
+        """
+        Read and index the catalog (see "Catalog Format" above).
+        """
+        with open(path, newline='', encoding='utf-8-sig') as catalog:
+            reader = csv.DictReader(catalog)
+            if 'brand_name' not in (reader.fieldnames or []):
+                raise ValueError("Catalog needs a brand_name column")
+            return RegistryIndex(
+                (row.get('brand_name') or '', row.get('product_type') or '') for row in reader
+            )
+
+    def check(self, brand_name, product_type, normalized_ocr):
+        """
+        What the catalog says about one verification.
+
+        Parameters:
+        -----------
+        brand_name, product_type : str
+            As typed into the form
+        normalized_ocr : str
+            The label's normalized OCR text
+
+        Returns:
+        --------
+        dict or None
+            None when no catalog is loaded, else:
+            {
+                "brand_registered": bool,
+                "registered_name": str or None,      # the catalog's spelling
+                "product_type_registered": bool or None,  # None: the catalog
+                                                     # lists no types for it
+                "similar_brands": [{"brand", "similarity"}],  # if not registered
+                "brands_on_label": [{"brand", "span"}]
+            }
+        """
+        index = self.index
+        if index is None:
+            return None
+
+        key = index.lookup(brand_name or '')
+        product_types = index.product_types.get(key) if key else None
+        result = {
+            "brand_registered": key is not None,
+            "registered_name": index.names[key] if key else None,
+            "product_type_registered": _key(product_type or '') in product_types if product_types else None,
+            "similar_brands": [],
+            "brands_on_label": [
+                {"brand": index.names[found_key], "span": [start, end]}
+                for found_key, start, end in index.brands_in(normalized_ocr)
+            ]
+        }
+        if key is None and brand_name:
+            result["similar_brands"] = [
+                {"brand": index.names[similar_key], "similarity": similarity}
+                for similar_key, similarity in index.similar(brand_name)
+            ]
+        return result
+
+    def lookup(self, name):
+        """
+        Look a brand up by name (for GET /registry/brands).
+
+        Returns:
+        --------
+        dict or None
+            None when no catalog is loaded, else
+            {"registered", "brand", "product_types", "similar_brands"}
+        """
+        index = self.index
+        if index is None:
+            return None
+
+        key = index.lookup(name)
+        return {
+            "registered": key is not None,
+            "brand": index.names[key] if key else None,
+            "product_types": sorted(index.product_types[key]) if key else [],
+            "similar_brands": [
+                {"brand": index.names[similar_key], "similarity": similarity}
+                for similar_key, similarity in index.similar(name)
+                if similar_key != key
+            ]
+        }
+
+    def stats(self):
+        """
+        Counters for monitoring (exposed on GET /stats).
+        """
+        index = self._index
+        stats = super().stats()
+        stats["brands"] = len(index) if index is not None else 0
+        return stats
@@ -0,0 +1,197 @@
+"""
+Deadlines - An end-to-end time limit for each verification
+
+One pathological upload (a huge, noisy photo Tesseract can't make sense of)
+can keep OCR busy for minutes. The browser gave up long before that, but the
+gunicorn thread serving it is still stuck and can't take other requests.
+
+Every /verify request therefore gets a deadline when it arrives. It is
+passed down through OCRService to the engines, and every slow step respects
+it:
+
+    /verify ──► OCRService ──► RegionOCR / TiledOCR ──► engine
+       │            │               │                     │
+       │        skip further    stop waiting on       tesseract process
+       │        ladder rungs    crops / strips        killed (subprocess),
+       │                                              recognition cancelled
+       │                                              (inprocess)
+       ▼
+    504 {"success": false, "timed_out": true, "error": "..."}
+
+Work that can't be stopped (a crop already inside tesserocr without a
+timeout) finishes in the background, but nobody waits for it.
+
+Configuration:
+--------------
+VERIFY_DEADLINE_SECONDS      Default time limit per request (default 30,
+                             0 = no limit)
+VERIFY_MAX_DEADLINE_SECONDS  Largest limit a client may ask for (default 120)
+
+A client can ask for a different limit with the X-Deadline-Seconds request
+header, e.g. a batch script that prefers to wait, or a UI that would rather
+fail fast.
+"""
+
+import os
+import threading
+import time
+
+
+# Request header carrying a per-request deadline in seconds
+DEADLINE_HEADER = 'X-Deadline-Seconds'
+
+
+class DeadlineExceeded(Exception):
+    """
+    Raised when a request runs out of time.
+
+    stage names the step that noticed: "preprocessing", "ocr" or
+    "field_ocr". Background jobs and batch labels may also time out as a
+    whole: "job" (the worker's own timer) or "queue" (never started).
+    """
+
+    def __init__(self, stage='ocr'):
+        # Passed to Exception so the error survives the trip back from a
+        # worker process (exceptions are pickled with their args)
+        super().__init__(stage)
+        self.stage = stage
+
+
+class Deadline:
+    """
+    The moment a request must be finished by.
+
+    Measured on the monotonic clock, so changes to the system time don't
+    move it. The monotonic clock isn't shared between processes, so work
+    sent to another process carries the deadline as a wall-clock time
+    (wall_clock / from_wall_clock, see tiled_ocr.ocr_strip) - time spent
+    waiting in a queue then still counts.
+    """
+
+    def __init__(self, seconds):
+        self.seconds = seconds
+        self.expires_at = time.monotonic() + seconds
+
+    def wall_clock(self):
+        """
+        When the deadline passes, as a time.time() timestamp.
+        """
+        return time.time() + self.remaining()
+
+    @classmethod
+    def from_wall_clock(cls, expires_at):
+        """
+        The deadline ending at a wall_clock() timestamp, in this process.
+        """
+        return cls(max(0.0, expires_at - time.time()))
+
+    def remaining(self):
+        """
+        Seconds left, never negative.
+        """
+        return max(0.0, self.expires_at - time.monotonic())
+
+    @property
+    def expired(self):
+        return time.monotonic() >= self.expires_at
+
+    def check(self, stage):
+        """
+        Raise DeadlineExceeded if time is up.
+        """
+        if self.expired:
+            raise DeadlineExceeded(stage)
+
+
+class DeadlinePolicy:
+    """
+    Hands out per-request deadlines and counts the ones that expired.
+    """
+
+    def __init__(self, default_seconds=30.0, max_seconds=120.0):
+        """
+        Parameters:
+        -----------
+        default_seconds : float
+            Limit for requests that don't ask for one. 0 = no limit.
+        max_seconds : float
+            Largest limit a client may request
+        """
+        self.default_seconds = default_seconds
+        self.max_seconds = max_seconds
+
+        self._lock = threading.Lock()
+        self.requests = 0
+        self.timeouts = 0
+        self.timeouts_by_stage = {}
+
+    @classmethod
+    def from_env(cls):
+        """
+        Build from VERIFY_*DEADLINE_SECONDS (see module docstring).
+        """
+        return cls(
+            default_seconds=float(os.environ.get('VERIFY_DEADLINE_SECONDS', 30)),
+            max_seconds=float(os.environ.get('VERIFY_MAX_DEADLINE_SECONDS', 120))
+        )
+
+    def start(self, header_value=None):
+        """
+        Create the deadline of a request that just arrived.
+
+        Parameters:
+        -----------
+        header_value : str, optional
+            The X-Deadline-Seconds header, if the client sent one
+
+        Returns:
+        --------
+        Deadline or None
+            None if there is no limit
+
+        Raises:
+        -------
+        ValueError
+            If the header isn't a positive number
+        """
+        seconds = self.default_seconds
+        if header_value:
+            try:
+                seconds = float(header_value)
+            except ValueError:
+                seconds = 0.0
+            if not seconds > 0:
+                raise ValueError(f"{DEADLINE_HEADER} must be a positive number of seconds")
+            seconds = min(seconds, self.max_seconds)
+
+        with self._lock:
+            self.requests += 1
+
+        if not seconds:
+            return None
+        return Deadline(seconds)
+
+    def record_timeout(self, stage):
+        """
+        Count a request that ran out of time.
+        """
+        with self._lock:
+            self.timeouts += 1
+            self.timeouts_by_stage[stage] = self.timeouts_by_stage.get(stage, 0) + 1
+
+    def stats(self):
+        """
+        Counters for monitoring (exposed on GET /stats).
+        """
+        with self._lock:
+            return {
+                "default_seconds": self.default_seconds,
+                "max_seconds": self.max_seconds,
+                "requests": self.requests,
+                "timeouts": self.timeouts,
+                "timeouts_by_stage": dict(self.timeouts_by_stage)
+            }
+
+
+# Create singleton instance
+deadline_policy = DeadlinePolicy.from_env()
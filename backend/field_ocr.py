@@ -0,0 +1,223 @@
+"""
+Field OCR - A second, targeted look at short numeric fields
+
+ABV and net contents are short, digit-heavy strings ("45% ALC/VOL",
+"750 mL"). Full-page OCR reads them worst of everything on the label: it
+has to guess the layout first, and then "4S%" or "75O mL" are just as
+plausible to it as the real thing. A failed ABV check means the user
+resubmits the same label.
+
+When one of those checks fails, we read the label again - but only its
+individual text lines, and with two hints that make Tesseract far more
+accurate on them:
+
+1. Page segmentation mode 7: "this image is ONE line of text". No layout
+   analysis, no guessing where columns or paragraphs are.
+2. A character whitelist: Tesseract may only answer with characters the
+   field can contain, so "S" can't be read where "5" is printed.
+
+    full page:   "OLD TOM ... 4S% ALC/VOL ... 75O mL"   ✗ abv, ✗ net contents
+    line pass:   "45%"  "750 mL"                        ✓ abv, ✓ net contents
+
+Lines are tiny, so reading even several of them costs a fraction of a
+full-page pass.
+
+A whitelist also makes Tesseract answer with digits where there are none
+(artwork, a barcode). A field found in a re-read line therefore only
+counts if the full-page text shows the same figure, however garbled, and
+only that field's result is replaced (see
+VerificationService.recheck_fields).
+
+Which Lines?
+------------
+We can't know which line holds the ABV before reading it. The shortest
+lines are the best bet - ABV and volume statements are short, while the
+brand name is tall and the government warning is long - so we read up to
+OCR_FIELD_MAX_LINES of them, shortest first.
+
+Configuration:
+--------------
+OCR_FIELD_PASS       on | off (default)
+OCR_FIELD_MAX_LINES  Most lines re-read per request (default 8)
+"""
+
+from concurrent.futures import TimeoutError as FuturesTimeoutError
+import os
+import threading
+
+from deadline import DeadlineExceeded
+from layout_analysis import find_text_lines
+from ocr_words import combine_words, words_to_text
+
+
+# Characters each field can contain. No space: Tesseract still puts spaces
+# between words, and a space would break pytesseract's config string.
+# The ABV letters spell "proof" so "90 Proof" survives the whitelist.
+FIELD_WHITELISTS = {
+    'abv': '0123456789.%pPrRoOfF',
+    'net_contents': '0123456789.mMlLfFoOzZcCgGaApPtTqQ',
+}
+
+
+class FieldOCR:
+    """
+    Re-reads likely text lines with single-line OCR and character whitelists.
+    """
+
+    # Tesseract page segmentation mode: "treat the image as a single text line"
+    LINE_PSM = 7
+
+    def __init__(self, enabled=False, max_lines=8):
+        """
+        Parameters:
+        -----------
+        enabled : bool
+            False never runs the field pass
+        max_lines : int
+            Most lines re-read per request
+        """
+        self.enabled = enabled
+        self.max_lines = max_lines
+
+        self._lock = threading.Lock()
+        self.passes = 0
+        self.lines_read = 0
+        self.rechecked = {field: 0 for field in FIELD_WHITELISTS}
+        self.recovered = {field: 0 for field in FIELD_WHITELISTS}
+
+    @classmethod
+    def from_env(cls):
+        """
+        Build from OCR_FIELD_* environment variables (see module docstring).
+        """
+        return cls(
+            enabled=os.environ.get('OCR_FIELD_PASS', 'off') == 'on',
+            max_lines=int(os.environ.get('OCR_FIELD_MAX_LINES', 8))
+        )
+
+    @staticmethod
+    def whitelist_for(fields):
+        """
+        All characters any of the given fields can contain.
+
+        One combined whitelist means each line is read once, even when both
+        fields need a second look.
+        """
+        characters = ''.join(FIELD_WHITELISTS[field] for field in fields)
+        return ''.join(sorted(set(characters)))
+
+    def signature(self, fields):
+        """
+        Settings that change this pass's output, for cache keys.
+        """
+        return f"fields={','.join(sorted(fields))}/psm{self.LINE_PSM}/{self.max_lines}"
+
+    def candidate_lines(self, image):
+        """
+        The lines most likely to hold a short field, shortest first.
+        """
+        lines = find_text_lines(image)
+        if not lines:
+            return []
+
+        # Skip unusually tall lines - that's headline text like the brand
+        heights = sorted(bottom - top for _, top, _, bottom in lines)
+        tallest_allowed = heights[len(heights) // 2] * 2
+        lines = [line for line in lines if line[3] - line[1] <= tallest_allowed]
+
+        lines.sort(key=lambda box: box[2] - box[0])
+        return lines[:self.max_lines]
+
+    def extract(self, engine, image, fields, executor, deadline=None):
+        """
+        Read the candidate lines of a preprocessed image for some fields.
+
+        Parameters:
+        -----------
+        engine : OCREngine
+            The engine to run on each line
+        image : PIL.Image
+            Output of OCRService._preprocess_image()
+        fields : list of str
+            Keys of FIELD_WHITELISTS that need a second look
+        executor : concurrent.futures.Executor
+            Runs the lines in parallel (RegionOCR's shared thread pool)
+        deadline : Deadline, optional
+            Raise DeadlineExceeded instead of waiting past it
+
+        Returns:
+        --------
+        dict
+            {"success", "text", "error", "words"} - text holds one line of
+            output per line read, top to bottom
+        """
+        whitelist = self.whitelist_for(fields)
+        lines = sorted(self.candidate_lines(image), key=lambda box: box[1])
+
+        futures = [
+            executor.submit(engine.extract, image.crop(box), self.LINE_PSM, whitelist, deadline)
+            for box in lines
+        ]
+        try:
+            results = [
+                future.result(timeout=deadline.remaining() if deadline else None)
+                for future in futures
+            ]
+        except (FuturesTimeoutError, DeadlineExceeded) as e:
+            for future in futures:
+                future.cancel()
+            raise DeadlineExceeded('field_ocr') from e
+
+        with self._lock:
+            self.passes += 1
+            self.lines_read += len(lines)
+            for field in fields:
+                self.rechecked[field] += 1
+
+        for result in results:
+            if not result["success"] and result["error"] != engine.NO_TEXT_ERROR:
+                return result
+
+        # Word boxes are relative to their line crop - move them into the image
+        read = [(box, result) for box, result in zip(lines, results) if result["success"]]
+        words = combine_words(
+            [result["words"] for _, result in read],
+            [(box[0], box[1]) for box, _ in read]
+        )
+        if not words:
+            return {
+                "success": False,
+                "text": "",
+                "error": engine.NO_TEXT_ERROR
+            }
+
+        return {
+            "success": True,
+            "text": words_to_text(words),
+            "error": None,
+            "words": words
+        }
+
+    def record_recovered(self, fields):
+        """
+        Count fields that failed on the full page but matched after this pass.
+        """
+        with self._lock:
+            for field in fields:
+                self.recovered[field] += 1
+
+    def stats(self):
+        """
+        Counters for monitoring (exposed on GET /stats).
+
+        recovered / rechecked is the share of failed fields this pass
+        rescued - each one is a resubmission the user didn't have to make.
+        """
+        with self._lock:
+            return {
+                "enabled": self.enabled,
+                "passes": self.passes,
+                "lines_read": self.lines_read,
+                "rechecked": dict(self.rechecked),
+                "recovered": dict(self.recovered)
+            }
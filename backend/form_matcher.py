@@ -0,0 +1,216 @@
+"""
+Form Matcher - A form's field checks, compiled once and reused
+
+verify_label compares one form with OCR text. The form is the same every
+time it is compared:
+
+- the early-exit test and the preprocessing ladder's score function compare
+  it with the text read so far, again and again during one request
+- field re-checks verify it a second time
+- batch jobs often submit the same form for many images (one product, many
+  photos)
+
+Each check used to normalize its form value and build its regular
+expression on every call. Now the form is compiled ONCE into a CompiledForm:
+
+    form_data ──► CompiledForm ──► find(normalized_ocr) ──► {field: Found}
+                    brand_name          where each field was found, and
+                    product_type        with how many edits (fuzzy_match.py)
+                    abv
+                    net_contents
+                    government_warning
+
+and compiled forms are kept in a small LRU cache keyed by the form values,
+so a repeated form isn't compiled at all.
+
+Why Not One Combined Pattern?
+-----------------------------
+Finding every field in ONE scan (Aho-Corasick for the names, one combined
+regex for the rest) is the textbook answer, but in CPython it is the
+slower one. Python's re module has no multi-pattern prefilter: a combined
+pattern tries every alternative at every position of the text, while a
+single compiled pattern jumps between candidate positions in C using its
+literal prefix; and an Aho-Corasick automaton written in Python pays
+interpreter time for every character. With a typical form's five fields
+at the end of a ~520-character label (benchmark_matching.py, which first
+checks on 30,000 random forms and texts that all three find the same
+fields at the same places):
+
+    per-field compiled patterns                 ~9 µs
+    one combined lookahead regex               ~24 µs
+    Aho-Corasick + combined regex for the rest ~83 µs
+
+and the gap holds as labels grow (~31, ~64 and ~372 µs at 1,900
+characters). So each field keeps its own compiled pattern; what is shared
+is the compilation. Aho-Corasick pays off with thousands of patterns (a
+brand catalog), not five.
+
+Fields may also have fallback patterns, only searched when the exact
+pattern finds nothing, so an exact match always wins and costs no more
+than before:
+
+- a synonym pattern (product type): any other name for the same product
+  type, in one scan (product_synonyms.py)
+- a numeric matcher (ABV, net contents): the same quantity in other words
+  or units, "90 proof" for 45% or "75 cl" for 750 mL (quantities.py). The
+  label's quantities are read in one scan, shared by both fields
+- an approximate pattern (brand name, product type): the value with a few
+  misread characters (fuzzy_match.py)
+"""
+
+from collections import OrderedDict
+import threading
+
+from fuzzy_match import Found
+from quantities import extract
+
+
+class CompiledForm:
+    """
+    One form's checks, ready to run against any OCR text.
+    """
+
+    def __init__(self, values, patterns, fixed, approximate=None, synonyms=None, numeric=None):
+        """
+        Parameters:
+        -----------
+        values : dict
+            The form values as typed, for "expected" and error messages
+        patterns : dict
+            Field name → compiled pattern, for fields whose result depends
+            on the OCR text
+        fixed : dict
+            Field name → result dict, for fields whose result doesn't
+            (e.g. a brand name left empty)
+        approximate : dict, optional
+            Field name → (ApproximatePattern, max edits), tried when the
+            field's exact pattern finds nothing
+        synonyms : dict, optional
+            Field name → compiled pattern finding the value's synonyms,
+            tried before the approximate pattern
+        numeric : dict, optional
+            Field name → quantities.QuantityMatcher, tried when the field's
+            exact pattern finds nothing
+        """
+        self.values = values
+        self.patterns = patterns
+        self.fixed = fixed
+        self.approximate = approximate or {}
+        self.synonyms = synonyms or {}
+        self.numeric = numeric or {}
+
+    def find(self, normalized_ocr, fields=None):
+        """
+        Find the first occurrence of each field in the OCR text.
+
+        Parameters:
+        -----------
+        normalized_ocr : str
+            OCR text after VerificationService._normalize_text
+        fields : iterable of str, optional
+            Only look for these (e.g. the required fields); default all
+
+        Returns:
+        --------
+        dict
+            Field name → Found, for the fields found. An exact match is the
+            same one re.search with the pattern finds (distance 0), so
+            results don't depend on which other fields the form has. A
+            synonym or numeric match also has distance 0, and text other
+            than the value.
+        """
+        found = {}
+        # Read on first use, then shared by the numeric fields
+        quantities = None
+        for field in (self.patterns if fields is None else fields):
+            pattern = self.patterns.get(field)
+            if pattern is None:
+                continue
+            match = pattern.search(normalized_ocr)
+            if not match and field in self.synonyms:
+                match = self.synonyms[field].search(normalized_ocr)
+            if match:
+                found[field] = Found(match.start(), match.end(), match.group(0), 0)
+            elif field in self.numeric:
+                if quantities is None:
+                    quantities = extract(normalized_ocr)
+                quantity = self.numeric[field].first(quantities)
+                if quantity:
+                    found[field] = Found(quantity.start, quantity.end, quantity.text, 0)
+            elif field in self.approximate:
+                approximate, max_distance = self.approximate[field]
+                near = approximate.search(normalized_ocr, max_distance)
+                if near:
+                    found[field] = near
+        return found
+
+
+class CompiledFormCache:
+    """
+    Thread-safe LRU cache of CompiledForms, keyed by form values.
+    """
+
+    def __init__(self, max_entries=256):
+        """
+        Parameters:
+        -----------
+        max_entries : int
+            Most compiled forms kept at once. 0 disables the cache.
+        """
+        self.max_entries = max_entries
+
+        # OrderedDict keeps keys in use order: oldest first, newest last
+        self._entries = OrderedDict()
+        self._lock = threading.Lock()
+
+        self.hits = 0
+        self.misses = 0
+        self.evictions = 0
+
+    def get(self, key, compile_form):
+        """
+        Return the CompiledForm for key, compiling it on a miss.
+
+        Parameters:
+        -----------
+        key : tuple
+            The form values the compiled form depends on
+        compile_form : callable
+            Builds the CompiledForm; called outside the lock, so two threads
+            missing on the same form may both compile it (harmless)
+        """
+        if self.max_entries <= 0:
+            return compile_form()
+
+        with self._lock:
+            compiled = self._entries.get(key)
+            if compiled is not None:
+                self._entries.move_to_end(key)
+                self.hits += 1
+                return compiled
+            self.misses += 1
+
+        compiled = compile_form()
+
+        with self._lock:
+            self._entries[key] = compiled
+            self._entries.move_to_end(key)
+            while len(self._entries) > self.max_entries:
+                self._entries.popitem(last=False)
+                self.evictions += 1
+        return compiled
+
+    def stats(self):
+        """
+        Counters for monitoring (exposed on GET /stats).
+        """
+        with self._lock:
+            lookups = self.hits + self.misses
+            return {
+                "entries": len(self._entries),
+                "max_entries": self.max_entries,
+                "hits": self.hits,
+                "misses": self.misses,
+                "evictions": self.evictions,
+                "hit_rate": round(self.hits / lookups, 4) if lookups else 0.0
+            }
@@ -0,0 +1,329 @@
+"""
+Fuzzy Match - Find a name in OCR text despite a few misread characters
+
+OCR misreads single characters all the time: "OLD TOM" comes back as
+"0LD TOM", "Creekwood" as "Creekw00d", "Bourbon" as "Bourb0n". An exact
+substring search fails the whole label for one wrong character.
+
+Approximate substring matching asks instead: where in the text is there a
+piece that can be turned into the pattern with at most k edits (a changed,
+missing or extra character)? The number of edits is the "edit distance"
+(Levenshtein distance).
+
+    pattern   old tom distillery
+    text      ... 0ld tom distillery ...
+                  ^
+                  1 edit (0 → o): distance 1
+
+How Is It Fast?
+---------------
+The textbook dynamic programming table is pattern length × text length
+cells. Myers' bit-vector algorithm (1999) keeps a whole column of that
+table in two integers, one bit per pattern character, and updates it with
+a handful of AND / OR / XOR / shift operations per text character - so the
+cost grows linearly with the text, like the exact search. Python integers
+have no fixed width, so any pattern length works.
+
+Only the END of the best match falls out of the column updates. The start
+is found afterwards by running the same updates backwards from that end,
+over the few characters a match can span (pattern length + k at most).
+
+Filtering First
+---------------
+Even so, Python runs the column updates one character at a time - most of
+a microsecond per character, where the exact search takes a nanosecond.
+Most of the text can be skipped: cut the pattern into k + 1 pieces, and k
+edits can touch at most k of them, so every match contains at least one
+piece exactly:
+
+    pattern   old to|m dist|illery        (k = 2, three pieces)
+    text      ... 0ld t0m distillery ...
+                        ^^^^^^^^^^^^ two of the pieces, found by str.find
+
+str.find locates the pieces at C speed; the bit-vector search only runs
+on the few characters around them.
+
+Why a Minimum Length per Edit?
+------------------------------
+One edit in a 3-letter name ("IPA" → "IA", "PA", "APA") matches almost
+anything. A pattern gets at most one edit per MIN_CHARS_PER_EDIT
+characters, whatever the configured limit.
+
+Look-Alike Characters
+---------------------
+Edit distance treats every wrong character alike; for short figures that
+is far too loose ("45%" is one edit from "46%"). lookalike_pattern() only
+allows the characters OCR actually confuses - "4S%" for "45%", "75O ml"
+for "750 ml" - so a figure read some other way (field_ocr.py) can be
+checked against the page it came from.
+"""
+
+from collections import namedtuple
+import re
+
+
+# A pattern gets at most one edit per this many characters
+MIN_CHARS_PER_EDIT = 5
+
+
+# Where a pattern was found: character range [start, end) of the text,
+# the matched text and the number of edits
+Found = namedtuple('Found', ['start', 'end', 'text', 'distance'])
+
+# Characters OCR confuses (lowercase): each may be read as any of these
+LOOKALIKES = {
+    '0': ('0', 'o'),
+    '1': ('1', 'l', 'i', '|', '!'),
+    '2': ('2', 'z'),
+    '5': ('5', 's'),
+    '6': ('6', 'b'),
+    '8': ('8', 'b', '&'),
+    '9': ('9', 'g', 'q'),
+    'o': ('o', '0'),
+    'l': ('l', '1', 'i', '|'),
+    'i': ('i', '1', 'l', '|'),
+    's': ('s', '5'),
+    'z': ('z', '2'),
+    '%': ('%', '96', '9o', 'o/o'),
+    '.': ('.', ','),
+    ',': (',', '.'),
+}
+
+
+def lookalike_pattern(text):
+    """
+    A compiled pattern finding text as OCR might have misread it: each
+    character or any of its LOOKALIKES, with a space gained or lost
+    between characters.
+
+    Example: lookalike_pattern("45%") finds "45%", "4s %" and "45 96",
+             but not "46%" or "145%"
+    """
+    pieces = []
+    for char in text.replace(' ', ''):
+        options = LOOKALIKES.get(char, (char,))
+        pieces.append('(?:' + '|'.join(re.escape(option) for option in options) + ')')
+    # Not the tail of a longer number
+    return re.compile(r'(?<![0-9])' + r'\s?'.join(pieces))
+
+
+def allowed_distance(pattern, max_distance):
+    """
+    Edits allowed for a pattern: max_distance, capped by its length.
+
+    Example: allowed_distance("old tom distillery", 2) → 2
+             allowed_distance("ipa", 2) → 0
+    """
+    return max(0, min(max_distance, len(pattern) // MIN_CHARS_PER_EDIT))
+
+
+class ApproximatePattern:
+    """
+    A pattern prepared for Myers' bit-vector approximate search.
+    """
+
+    def __init__(self, pattern):
+        """
+        Parameters:
+        -----------
+        pattern : str
+            Text to look for, already normalized like the text it will be
+            searched in. Must not be empty.
+        """
+        if not pattern:
+            raise ValueError("Pattern must not be empty")
+        self.pattern = pattern
+
+        # For each character: a bit mask of the pattern positions holding it
+        self._char_masks = {}
+        for position, char in enumerate(pattern):
+            self._char_masks[char] = self._char_masks.get(char, 0) | (1 << position)
+
+        # The same for the pattern read backwards (see _match_start)
+        self._reversed_char_masks = {}
+        for position, char in enumerate(reversed(pattern)):
+            self._reversed_char_masks[char] = self._reversed_char_masks.get(char, 0) | (1 << position)
+
+        self._all_bits = (1 << len(pattern)) - 1
+        self._last_bit = 1 << (len(pattern) - 1)
+
+        # max_distance → pattern pieces (see _pieces_for)
+        self._pieces = {}
+
+    def search(self, text, max_distance):
+        """
+        Find the closest occurrence of the pattern in text.
+
+        Parameters:
+        -----------
+        text : str
+            Text to search
+        max_distance : int
+            Most edits a match may need
+
+        Returns:
+        --------
+        Found or None
+            The match with the fewest edits (the leftmost one if several
+            tie); None if every piece of text needs more than max_distance
+        """
+        best = None
+        for window_start, window_end in self._candidate_windows(text, max_distance):
+            limit = max_distance if best is None else best[0] - 1
+            if limit < 0:
+                break
+            near = self._scan(text, window_start, window_end, limit)
+            if near is not None:
+                # Windows come left to right: a later one only wins with
+                # fewer edits
+                best = near
+                if best[0] == 0:
+                    break
+
+        if best is None:
+            return None
+
+        distance, end = best
+        start = self._match_start(text, end, distance)
+        return Found(start, end, text[start:end], distance)
+
+    def _candidate_windows(self, text, max_distance):
+        """
+        Stretches of text that may hold a match, left to right, as
+        [start, end] pairs.
+
+        Around every exact occurrence of a piece: as far as the rest of the
+        pattern (plus max_distance extra characters) could reach. Windows
+        that overlap are merged.
+        """
+        length = len(self.pattern)
+
+        # Each piece is searched for separately, so windows don't come in
+        # order - sort, then merge
+        windows = []
+        for offset, piece in self._pieces_for(max_distance):
+            position = text.find(piece)
+            while position >= 0:
+                windows.append((
+                    max(0, position - offset - max_distance),
+                    min(len(text), position - offset + length + max_distance)
+                ))
+                position = text.find(piece, position + 1)
+        windows.sort()
+
+        merged = []
+        for start, end in windows:
+            if merged and start <= merged[-1][1]:
+                merged[-1][1] = max(merged[-1][1], end)
+            else:
+                merged.append([start, end])
+        return merged
+
+    def _pieces_for(self, max_distance):
+        """
+        The pattern cut into max_distance + 1 pieces, as (offset, text)
+        pairs (computed once per distance).
+        """
+        pieces = self._pieces.get(max_distance)
+        if pieces is None:
+            count = min(max_distance + 1, len(self.pattern))
+            size = len(self.pattern) // count
+            bounds = [i * size for i in range(count)] + [len(self.pattern)]
+            pieces = self._pieces[max_distance] = [
+                (bounds[i], self.pattern[bounds[i]:bounds[i + 1]]) for i in range(count)
+            ]
+        return pieces
+
+    def _scan(self, text, window_start, window_end, max_distance):
+        """
+        Myers' bit-vector search over text[window_start:window_end].
+
+        Returns:
+        --------
+        tuple or None
+            (distance, end) of the best match in the window, the leftmost
+            end if several tie; None if none is within max_distance
+        """
+        best_distance = max_distance + 1
+        best_end = None
+
+        # Column of the edit distance table, as vertical +1 / -1 deltas.
+        # The top row is all zeros (a match may start anywhere), so the
+        # bottom cell starts at the pattern length.
+        all_bits = self._all_bits
+        last_bit = self._last_bit
+        char_masks = self._char_masks
+        plus = all_bits
+        minus = 0
+        distance = len(self.pattern)
+
+        for position in range(window_start, window_end):
+            char = text[position]
+            equal = char_masks.get(char, 0)
+            x_vertical = equal | minus
+            x_horizontal = ((((equal & plus) + plus) & all_bits) ^ plus) | equal
+            horizontal_plus = minus | (~(x_horizontal | plus) & all_bits)
+            horizontal_minus = plus & x_horizontal
+
+            # The bottom cell is the distance of the best match ending here
+            if horizontal_plus & last_bit:
+                distance += 1
+            elif horizontal_minus & last_bit:
+                distance -= 1
+
+            if distance < best_distance:
+                best_distance = distance
+                best_end = position + 1
+                if distance == 0:
+                    break
+
+            horizontal_plus = (horizontal_plus << 1) & all_bits
+            horizontal_minus = (horizontal_minus << 1) & all_bits
+            plus = horizontal_minus | (~(x_vertical | horizontal_plus) & all_bits)
+            minus = horizontal_plus & x_vertical
+
+        if best_end is None:
+            return None
+        return best_distance, best_end
+
+    def _match_start(self, text, end, distance):
+        """
+        Where the best match ending at end begins.
+
+        The same bit-vector updates, run backwards from end with the
+        reversed pattern, give the edits between the whole pattern and the
+        last j characters before end, for every j. Of the starts that give
+        the match's distance, the one making the match closest to the
+        pattern's own length wins ("0ld tom", not "ld tom").
+        """
+        all_bits = self._all_bits
+        last_bit = self._last_bit
+        char_masks = self._reversed_char_masks
+        plus = all_bits
+        minus = 0
+        edits = len(self.pattern)
+
+        # lengths[j] = edits needed if the match is the last j characters
+        lengths = [edits]
+        for position in range(end - 1, max(0, end - len(self.pattern) - distance) - 1, -1):
+            equal = char_masks.get(text[position], 0)
+            x_vertical = equal | minus
+            x_horizontal = ((((equal & plus) + plus) & all_bits) ^ plus) | equal
+            horizontal_plus = minus | (~(x_horizontal | plus) & all_bits)
+            horizontal_minus = plus & x_horizontal
+
+            if horizontal_plus & last_bit:
+                edits += 1
+            elif horizontal_minus & last_bit:
+                edits -= 1
+            lengths.append(edits)
+
+            # Anchored at end: the top row grows by one per character
+            horizontal_plus = ((horizontal_plus << 1) | 1) & all_bits
+            horizontal_minus = (horizontal_minus << 1) & all_bits
+            plus = horizontal_minus | (~(x_vertical | horizontal_plus) & all_bits)
+            minus = horizontal_plus & x_vertical
+
+        candidates = [length for length, length_edits in enumerate(lengths) if length_edits == distance]
+        length = min(candidates, key=lambda length: (abs(length - len(self.pattern)), -length))
+        return end - length
@@ -0,0 +1,409 @@
+"""
+Job Service - Runs label verifications in the background
+
+POST /verify makes the browser wait while OCR runs, and the web worker that
+handles the request can't do anything else for those seconds. With a job
+queue, the web worker only hands the work off and answers immediately:
+
+    POST /jobs ──► JobService.submit() ──► process pool (OCR + verification)
+        │                                          │
+        └─► {"job_id": "..."}                      ▼
+                                              result stored
+    GET /jobs/<id> ──► JobService.get() ──► {"status": "done", "result": {...}}
+
+Why Processes Instead of Threads?
+---------------------------------
+Image preprocessing is pure Python/Pillow work that holds Python's global
+interpreter lock (GIL), so threads can't run it in parallel. Separate
+processes each have their own interpreter and can use every CPU core.
+
+Why a Bounded Queue?
+--------------------
+Every queued job holds its uploaded image in memory. If uploads arrive faster
+than OCR can finish them, an unbounded queue grows until the server runs out
+of memory. Instead we refuse new jobs (HTTP 429 Too Many Requests) once
+JOB_QUEUE_MAX jobs are waiting or running, and the client retries later.
+
+Note: job state lives in the memory of the web process. Run gunicorn with a
+single worker process (and several threads) so every GET /jobs/<id> reaches
+the process that accepted the job.
+"""
+
+from concurrent.futures import ProcessPoolExecutor
+from functools import partial
+import multiprocessing
+import os
+import signal
+import threading
+import time
+import uuid
+
+from deadline import deadline_policy
+
+
+class JobQueueFullError(Exception):
+    """
+    Raised by JobService.submit() when JOB_QUEUE_MAX jobs are already pending.
+    """
+    pass
+
+
+class JobTimeoutError(Exception):
+    """
+    Raised inside a worker process when a job runs longer than its timeout.
+    """
+    pass
+
+
+def _raise_job_timeout(signum, frame):
+    raise JobTimeoutError()
+
+
+def run_verification_job(image_bytes, form_data, timeout_seconds=None):
+    """
+    OCR an image and verify it against form data. Runs in a worker process.
+
+    Parameters:
+    -----------
+    image_bytes : bytes
+        The uploaded image file contents
+    form_data : dict
+        brand_name, product_type, abv, net_contents (same as /verify)
+    timeout_seconds : float, optional
+        Abort the job if it runs longer than this
+
+    Returns:
+    --------
+    dict
+        Same body as a /verify response:
+        {"success", "overall_match", "details", "ocr_text", "early_exit", "preprocessing"} or {"success", "error"},
+        or {"success": False, "timed_out": True, "stage", "error"} when time ran out
+
+    Why Imports Inside the Function?
+    --------------------------------
+    Worker processes are started fresh ('spawn'), so each one creates its own
+    OCR and verification service singletons on first use.
+    """
+    from deadline import Deadline, DeadlineExceeded
+    from ocr_service import ocr_service
+    from verification_service import verification_service
+
+    # Best-effort time limit: SIGALRM interrupts Python code in this worker
+    # once the timeout passes. Worker processes run jobs on their main
+    # thread, which is the only thread allowed to handle signals.
+    # The same limit also goes to OCR as a deadline, so a tesseract
+    # process still running when time is up gets killed, not orphaned
+    deadline = None
+    if timeout_seconds:
+        signal.signal(signal.SIGALRM, _raise_job_timeout)
+        signal.setitimer(signal.ITIMER_REAL, timeout_seconds)
+        deadline = Deadline(timeout_seconds)
+
+    try:
+        ocr_result = ocr_service.extract_text_from_bytes(
+            image_bytes,
+            stop_when=verification_service.early_exit_check(form_data),
+            score_text=verification_service.required_field_score(form_data),
+            deadline=deadline
+        )
+        if not ocr_result["success"]:
+            return {
+                "success": False,
+                "error": ocr_result["error"]
+            }
+
+        verification_result = verification_service.verify_label(
+            form_data,
+            ocr_result["text"],
+            ocr_result.get("words")
+        )
+
+        if ocr_service.fields.enabled:
+            verification_result, recovered = verification_service.recheck_fields(
+                form_data,
+                ocr_result["text"],
+                verification_result,
+                lambda fields: ocr_service.extract_field_text(image_bytes, fields, deadline),
+                ocr_result.get("words")
+            )
+            ocr_service.fields.record_recovered(recovered)
+
+        result = {
+            "success": True,
+            "overall_match": verification_result["overall_match"],
+            "details": verification_result["details"],
+            "ocr_text": verification_result["ocr_text"],
+            "early_exit": ocr_result.get("early_exit", False),
+            "preprocessing": ocr_result.get("preprocessing")
+        }
+        if "registry" in verification_result:
+            result["registry"] = verification_result["registry"]
+        return result
+
+    except (JobTimeoutError, DeadlineExceeded) as e:
+        # The worker can't count it: deadline_policy lives in the web
+        # process, which records the timeout when this result comes back
+        return {
+            "success": False,
+            "timed_out": True,
+            "stage": getattr(e, "stage", "job"),
+            "error": f"Verification did not finish within {timeout_seconds} seconds"
+        }
+
+    finally:
+        if timeout_seconds:
+            signal.setitimer(signal.ITIMER_REAL, 0)
+
+
+class JobService:
+    """
+    Owns the worker process pool and the table of submitted jobs.
+    """
+
+    def __init__(self, max_workers=None, max_queue=None, job_timeout=None, result_ttl=None):
+        """
+        Parameters:
+        -----------
+        max_workers : int, optional
+            Worker processes running OCR. Default: JOB_WORKERS or CPU count
+        max_queue : int, optional
+            Jobs allowed to be waiting or running at once. Default: JOB_QUEUE_MAX or 32
+        job_timeout : float, optional
+            Seconds a job may take from submission to result. Default: JOB_TIMEOUT_SECONDS or 60
+        result_ttl : float, optional
+            Seconds a finished job's result stays available. Default: JOB_RESULT_TTL_SECONDS or 600
+        """
+        self.max_workers = max_workers or int(os.environ.get('JOB_WORKERS', os.cpu_count() or 1))
+        self.max_queue = max_queue or int(os.environ.get('JOB_QUEUE_MAX', 32))
+        self.job_timeout = job_timeout or float(os.environ.get('JOB_TIMEOUT_SECONDS', 60))
+        self.result_ttl = result_ttl or float(os.environ.get('JOB_RESULT_TTL_SECONDS', 600))
+
+        self._jobs = {}
+        self._lock = threading.Lock()
+
+        self._executor = None
+
+        # Batch labels in the pool (see submit_task)
+        self._tasks_pending = 0
+
+    @property
+    def executor(self):
+        """
+        The worker process pool, created on first use.
+
+        Creating it lazily means importing this module (e.g. in a gunicorn
+        master process or a script) doesn't start any processes.
+        """
+        with self._lock:
+            if self._executor is None:
+                # 'spawn' starts workers as clean interpreters. Forking a
+                # multi-threaded web server process can copy locks in a
+                # held state and deadlock the child.
+                self._executor = ProcessPoolExecutor(
+                    max_workers=self.max_workers,
+                    mp_context=multiprocessing.get_context('spawn')
+                )
+            return self._executor
+
+    def pending_count(self):
+        """
+        Number of jobs and batch labels queued or running right now.
+        """
+        with self._lock:
+            return self._count_pending() + self._tasks_pending
+
+    def submit_task(self, function, *args):
+        """
+        Run function(*args) in the worker pool for a caller that keeps the
+        future itself (BatchService). Not a job: it has no id and doesn't
+        count against max_queue, but pending_count includes it until it
+        finishes.
+
+        Returns:
+        --------
+        concurrent.futures.Future
+        """
+        executor = self.executor
+        with self._lock:
+            self._tasks_pending += 1
+        try:
+            future = executor.submit(function, *args)
+        except Exception:
+            with self._lock:
+                self._tasks_pending -= 1
+            raise
+        future.add_done_callback(self._task_done)
+        return future
+
+    def _task_done(self, future):
+        with self._lock:
+            self._tasks_pending -= 1
+
+    def submit(self, image_bytes, form_data):
+        """
+        Queue a verification job.
+
+        Returns:
+        --------
+        str
+            The new job's id
+
+        Raises:
+        -------
+        JobQueueFullError
+            If max_queue jobs are already waiting or running
+        """
+        executor = self.executor
+
+        with self._lock:
+            self._prune_expired()
+
+            if self._count_pending() >= self.max_queue:
+                raise JobQueueFullError(
+                    f"Verification queue is full ({self.max_queue} jobs). Please retry shortly."
+                )
+
+            job_id = uuid.uuid4().hex
+            future = executor.submit(
+                run_verification_job, image_bytes, form_data, self.job_timeout
+            )
+            job = self._jobs[job_id] = {
+                "future": future,
+                "submitted_at": time.time(),
+                "deadline": time.monotonic() + self.job_timeout,
+                "expires_at": None,
+                "timed_out": False,
+                "timeout_recorded": False,
+            }
+
+        # Outside the lock: a future that is already done runs the
+        # callback right here
+        future.add_done_callback(partial(self._job_done, job))
+        return job_id
+
+    def _job_done(self, job, future):
+        """
+        Count a job that timed out in its worker, whether or not anyone
+        polls for it. Runs in this process once the worker returns.
+        """
+        # A cancelled job is counted by _status, which cancels it while
+        # holding the lock
+        if future.cancelled():
+            return
+        try:
+            result = future.result()
+        except Exception:
+            return
+        if result.get("timed_out"):
+            with self._lock:
+                self._record_timeout(job, result.get("stage", "job"))
+
+    def _record_timeout(self, job, stage):
+        """
+        Count a job's timeout in deadline_policy, once. Caller holds the lock.
+        """
+        if not job["timeout_recorded"]:
+            job["timeout_recorded"] = True
+            deadline_policy.record_timeout(stage)
+
+    def get(self, job_id):
+        """
+        Look up a job's status and, once finished, its result.
+
+        Returns:
+        --------
+        dict or None
+            None if the job id is unknown (or its result expired), otherwise
+            {
+                "job_id": str,
+                "status": "queued" | "running" | "done" | "failed" | "timeout",
+                "submitted_at": float,     # Unix timestamp
+                "result": dict or None     # /verify response body once done
+            }
+        """
+        with self._lock:
+            self._prune_expired()
+            job = self._jobs.get(job_id)
+            if job is None:
+                return None
+
+            status, result = self._status(job)
+
+            # Start the result's time-to-live once it's final
+            if status in ("done", "failed", "timeout") and job["expires_at"] is None:
+                job["expires_at"] = time.monotonic() + self.result_ttl
+
+            return {
+                "job_id": job_id,
+                "status": status,
+                "submitted_at": job["submitted_at"],
+                "result": result
+            }
+
+    def _status(self, job):
+        """
+        Work out (status, result) for a job record. Caller holds the lock.
+        """
+        future = job["future"]
+
+        # Once a client has been told a job timed out, keep saying so even
+        # if the worker finishes later
+        if job["timed_out"]:
+            return "timeout", self._timeout_result()
+
+        if future.done():
+            if future.cancelled():
+                return "timeout", self._timeout_result()
+            try:
+                result = future.result()
+            except Exception as e:
+                # The worker process crashed or the job raised
+                return "failed", {"success": False, "error": f"Server error: {str(e)}"}
+            if result.get("timed_out"):
+                return "timeout", result
+            return ("done" if result["success"] else "failed"), result
+
+        if time.monotonic() > job["deadline"]:
+            # Still waiting for a worker after the whole timeout has passed.
+            # cancel() only succeeds for jobs that haven't started yet; a
+            # running job is stopped by its own timer in the worker.
+            stage = "queue" if future.cancel() else "job"
+            job["timed_out"] = True
+            self._record_timeout(job, stage)
+            return "timeout", self._timeout_result()
+
+        return ("running" if future.running() else "queued"), None
+
+    def _timeout_result(self):
+        return {
+            "success": False,
+            "timed_out": True,
+            "error": f"Verification did not finish within {self.job_timeout:g} seconds"
+        }
+
+    def _count_pending(self):
+        """
+        Jobs not yet finished (queued or running). Caller holds the lock.
+        """
+        return sum(1 for job in self._jobs.values() if not job["future"].done())
+
+    def _prune_expired(self):
+        """
+        Forget finished jobs whose result time-to-live has passed.
+        Caller holds the lock.
+        """
+        now = time.monotonic()
+        expired = [
+            job_id for job_id, job in self._jobs.items()
+            if job["future"].done() and (
+                (job["expires_at"] is not None and job["expires_at"] < now) or
+                # Finished jobs nobody polled still get cleaned up eventually
+                job["deadline"] + self.result_ttl < now
+            )
+        ]
+        for job_id in expired:
+            del self._jobs[job_id]
+
+
+# Create singleton instance
+job_service = JobService()
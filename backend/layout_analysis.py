@@ -0,0 +1,305 @@
+"""
+Layout Analysis - Cheap measurements of where and how big the text is
+
+These helpers look at a small, low-detail copy of the label to answer
+questions like "how tall are the text lines?" in a few milliseconds, long
+before Tesseract runs.
+
+The Key Trick - Projection Profiles:
+------------------------------------
+1. Find edges (text is full of sharp light/dark transitions; smooth artwork
+   and backgrounds are not)
+2. Squash the edge image to ONE pixel wide. Pillow's BOX resize averages
+   each row, so every remaining pixel says "how much edge is in this row"
+3. Rows of text light up, gaps between lines go dark:
+
+       row profile        image
+       ▇▇▇▇▇▇▇            OLD TOM DISTILLERY
+       ▁                  (gap)
+       ▇▇▇▇▇              BOURBON WHISKEY
+
+Pillow does the averaging in C, so this is fast even in pure Python.
+"""
+
+from PIL import Image, ImageFilter
+
+
+# Edge strength (0-255) that counts as "ink"
+EDGE_THRESHOLD = 40
+
+# Width of the downscaled copy used for analysis
+ANALYSIS_WIDTH = 800
+
+
+def edge_map(grayscale_image, width=ANALYSIS_WIDTH):
+    """
+    Downscale a grayscale image and mark its strong edges.
+
+    Returns:
+    --------
+    tuple
+        (binary edge image, scale) where scale converts analysis pixels back
+        to original pixels (original = analysis * scale)
+    """
+    scale = 1.0
+    image = grayscale_image
+    if image.width > width:
+        scale = image.width / width
+        image = image.resize((width, max(1, round(image.height / scale))), Image.BILINEAR)
+
+    edges = image.filter(ImageFilter.FIND_EDGES)
+    binary = edges.point(lambda value: 255 if value > EDGE_THRESHOLD else 0)
+    return binary, scale
+
+
+def row_profile(binary_image):
+    """
+    Average ink per row (0-255), one value per row of the image.
+    """
+    return list(binary_image.resize((1, binary_image.height), Image.BOX).tobytes())
+
+
+def column_profile(binary_image):
+    """
+    Average ink per column (0-255), one value per column of the image.
+    """
+    return list(binary_image.resize((binary_image.width, 1), Image.BOX).tobytes())
+
+
+def find_runs(profile, threshold, min_length=1, max_gap=0):
+    """
+    Find stretches of a profile that are above a threshold.
+
+    Parameters:
+    -----------
+    profile : list of int
+        Row or column profile
+    threshold : int
+        Values above this count as "ink"
+    min_length : int
+        Ignore runs shorter than this (specks, underlines)
+    max_gap : int
+        Merge runs separated by at most this many empty positions
+
+    Returns:
+    --------
+    list of (start, end)
+        Half-open ranges [start, end) of ink
+    """
+    runs = []
+    start = None
+    for index, value in enumerate(profile):
+        if value > threshold:
+            if start is None:
+                start = index
+        elif start is not None:
+            runs.append([start, index])
+            start = None
+    if start is not None:
+        runs.append([start, len(profile)])
+
+    merged = []
+    for run in runs:
+        if merged and run[0] - merged[-1][1] <= max_gap:
+            merged[-1][1] = run[1]
+        else:
+            merged.append(run)
+
+    return [(start, end) for start, end in merged if end - start >= min_length]
+
+
+def estimate_text_height(grayscale_image):
+    """
+    Estimate the typical height of a text line, in original image pixels.
+
+    Returns:
+    --------
+    float or None
+        Median line height, or None if fewer than two lines could be found
+        (mostly artwork, blank image, etc.)
+
+    Why the Median?
+    ---------------
+    A label has a huge brand name and small fine print. The median ignores
+    the extremes and tracks the body text most fields are printed in.
+    """
+    binary, scale = edge_map(grayscale_image)
+    profile = row_profile(binary)
+    if not profile:
+        return None
+
+    # A row needs a bit of ink above the image's average to count as text
+    threshold = max(8, sum(profile) / len(profile) * 0.5)
+    lines = find_runs(profile, threshold, min_length=3)
+    if len(lines) < 2:
+        return None
+
+    heights = sorted(end - start for start, end in lines)
+    return heights[len(heights) // 2] * scale
+
+
+def find_text_regions(grayscale_image, padding=6):
+    """
+    Find rectangular blocks of the image that look like text.
+
+    Parameters:
+    -----------
+    grayscale_image : PIL.Image
+        For example the output of OCRService._preprocess_image()
+    padding : int
+        Margin added around each block, in analysis pixels, so letters at
+        the edge of a block aren't clipped
+
+    Returns:
+    --------
+    list of (left, top, right, bottom)
+        Blocks in original image pixels, in reading order (top to bottom,
+        then left to right). Empty if no text-like areas were found.
+
+    How It Works:
+    -------------
+    1. Edge map, then "dilate" it (MaxFilter): every ink pixel grows, so the
+       letters of a word - and the words of a line - melt into one blob.
+       This is the morphological closing step of classic text detectors.
+    2. Row profile → horizontal bands of ink. Lines closer together than
+       about one line height are merged into the same band (a paragraph).
+    3. Column profile of each band → where along the band the ink is. Wide
+       gaps split a band into separate blocks (e.g. two columns of text).
+    """
+    binary, scale = edge_map(grayscale_image)
+    if binary.width < 2 or binary.height < 2:
+        return []
+
+    blobs = binary.filter(ImageFilter.MaxFilter(5))
+
+    profile = row_profile(blobs)
+    threshold = max(4, sum(profile) / len(profile) * 0.25)
+    lines = find_runs(profile, threshold, min_length=3)
+    if not lines:
+        return []
+
+    # Merge lines separated by less than a typical line height
+    heights = sorted(end - start for start, end in lines)
+    line_height = heights[len(heights) // 2]
+    bands = find_runs(profile, threshold, min_length=3, max_gap=line_height)
+
+    regions = []
+    for top, bottom in bands:
+        band = blobs.crop((0, top, blobs.width, bottom))
+        columns = column_profile(band)
+        spans = find_runs(columns, 8, min_length=line_height, max_gap=max(line_height * 2, blobs.width // 20))
+        for left, right in spans:
+            regions.append((
+                max(0, round((left - padding) * scale)),
+                max(0, round((top - padding) * scale)),
+                min(grayscale_image.width, round((right + padding) * scale)),
+                min(grayscale_image.height, round((bottom + padding) * scale))
+            ))
+
+    return sorted(regions, key=lambda box: (box[1], box[0]))
+
+
+def estimate_skew(grayscale_image, max_angle=5.0, step=0.5):
+    """
+    Estimate how many degrees the text lines are tilted.
+
+    Returns:
+    --------
+    float
+        Angle to pass to Image.rotate() to level the text (0.0 if level)
+
+    How It Works:
+    -------------
+    Level text gives a row profile of sharp peaks (lines) and deep valleys
+    (gaps). Tilted text smears lines across rows and the profile flattens.
+    We rotate the small edge map through a range of angles and keep the one
+    whose profile is "peakiest" - the largest sum of squared differences
+    between neighboring rows.
+    """
+    binary, _ = edge_map(grayscale_image, width=400)
+
+    def sharpness(angle):
+        return profile_sharpness(row_profile(binary.rotate(angle, resample=Image.NEAREST, fillcolor=0)))
+
+    steps = int(max_angle / step)
+    angles = [i * step for i in range(-steps, steps + 1)]
+    return max(angles, key=lambda angle: (sharpness(angle), -abs(angle)))
+
+
+def find_text_lines(grayscale_image, padding=3):
+    """
+    Find individual text lines.
+
+    Like find_text_regions(), but lines are never merged into paragraphs,
+    and each line is trimmed to where its ink starts and ends.
+
+    Returns:
+    --------
+    list of (left, top, right, bottom)
+        Line boxes in original image pixels, top to bottom
+    """
+    binary, scale = edge_map(grayscale_image)
+    if binary.width < 2 or binary.height < 2:
+        return []
+
+    # A light dilation joins letters into words without joining lines
+    blobs = binary.filter(ImageFilter.MaxFilter(3))
+
+    profile = row_profile(blobs)
+    threshold = max(4, sum(profile) / len(profile) * 0.25)
+
+    lines = []
+    for top, bottom in find_runs(profile, threshold, min_length=3):
+        columns = column_profile(blobs.crop((0, top, blobs.width, bottom)))
+        ink = find_runs(columns, 8, min_length=2)
+        if not ink:
+            continue
+        left, right = ink[0][0], ink[-1][1]
+        lines.append((
+            max(0, round((left - padding) * scale)),
+            max(0, round((top - padding) * scale)),
+            min(grayscale_image.width, round((right + padding) * scale)),
+            min(grayscale_image.height, round((bottom + padding) * scale))
+        ))
+
+    return lines
+
+
+def profile_sharpness(profile):
+    """
+    How "peaky" a profile is: the sum of squared differences between
+    neighbors. Text lines running across the profile make it high.
+    """
+    return sum((b - a) ** 2 for a, b in zip(profile, profile[1:]))
+
+
+def line_asymmetry(binary_image):
+    """
+    Compare ink in the top and bottom quarter of each text line.
+
+    Returns:
+    --------
+    float
+        Between -1 and 1. Positive means more ink at the tops of lines.
+
+    Why This Tells Up From Down:
+    ----------------------------
+    In mixed-case Latin text, far more letters reach up (b d f h k l t and
+    capitals) than hang down (g j p q y). Upright lines carry more ink at
+    the top; upside-down lines at the bottom. ALL CAPS text fills lines
+    evenly and scores near 0 - no reliable answer, which callers treat as
+    "leave it upright".
+    """
+    profile = row_profile(binary_image)
+    if not profile:
+        return 0.0
+
+    threshold = max(8, sum(profile) / len(profile) * 0.5)
+    top_ink = bottom_ink = 0
+    for start, end in find_runs(profile, threshold, min_length=4):
+        quarter = max(1, (end - start) // 4)
+        top_ink += sum(profile[start:start + quarter])
+        bottom_ink += sum(profile[end - quarter:end])
+
+    total = top_ink + bottom_ink
+    return (top_ink - bottom_ink) / total if total else 0.0
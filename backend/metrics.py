@@ -0,0 +1,295 @@
+"""
+Metrics - Prometheus-format counters and histograms for GET /metrics
+
+GET /stats answers "what has this feature done so far?" for a person
+reading JSON. Under load we need something a monitoring system can scrape
+every few seconds and graph over time: how many requests, how slow, and
+WHERE the time goes. That is what /metrics exports, in Prometheus's plain
+text format:
+
+    # TYPE label_stage_duration_seconds histogram
+    label_stage_duration_seconds_bucket{stage="ocr",le="1"} 37
+    label_stage_duration_seconds_bucket{stage="ocr",le="2.5"} 52
+    ...
+    label_stage_duration_seconds_sum{stage="ocr"} 61.4
+    label_stage_duration_seconds_count{stage="ocr"} 55
+
+What Is a Histogram?
+--------------------
+Instead of remembering every duration, a histogram counts how many fell
+under each of a few fixed limits ("buckets"). Prometheus turns bucket
+counts into percentiles (p50, p95) across any time window, and recording a
+value costs one lookup and one addition - cheap enough to leave on in
+production.
+
+Why Low-Cardinality Labels?
+---------------------------
+Every distinct label combination is a separate time series. Labels here
+only take a handful of fixed values (stage names, route names, status
+codes) - never filenames, brand names or anything a user typed.
+
+Stages:
+-------
+upload_parse   Reading and validating the multipart upload
+decode         Decoding the image bytes (Pillow)
+normalize      Grayscale, resize and orientation - once per request
+preprocess     The preprocessing ladder rung's cleanup - once per rung tried
+ocr            The OCR engine (whole image, regions or strips)
+verify         Comparing OCR text with the form (verify_label)
+field_recheck  The targeted re-read of failed numeric fields
+
+Note: background jobs and batches run in worker processes, whose stage
+timings aren't visible here; their queue depth is.
+"""
+
+from bisect import bisect_left
+from contextlib import contextmanager
+import threading
+import time
+
+
+# Content type of the Prometheus text exposition format
+CONTENT_TYPE = 'text/plain; version=0.0.4; charset=utf-8'
+
+# Seconds - from fast cache hits to a slow OCR pass
+DURATION_BUCKETS = (0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+
+# Upload sizes in bytes: 50 KB ... 16 MB (the upload limit)
+BYTES_BUCKETS = (50_000, 100_000, 250_000, 500_000, 1_000_000, 2_000_000, 4_000_000, 8_000_000, 16_000_000)
+
+# Decoded image sizes in megapixels
+MEGAPIXEL_BUCKETS = (0.5, 1, 2, 4, 8, 12, 16, 24, 48)
+
+
+def _format_value(value):
+    if value == float('inf'):
+        return '+Inf'
+    if float(value).is_integer():
+        return str(int(value))
+    return repr(float(value))
+
+
+def _escape(value):
+    # Backslash, double quote and newline must be escaped in label values
+    return str(value).replace('\\', '\\\\').replace('"', '\\"').replace('\n', '\\n')
+
+
+def _format_labels(names, values, extra=()):
+    pairs = list(zip(names, values)) + list(extra)
+    if not pairs:
+        return ''
+    return '{' + ','.join(f'{name}="{_escape(value)}"' for name, value in pairs) + '}'
+
+
+class Metric:
+    """
+    Base class: a named metric with optional labels.
+
+    Label values are passed as keyword arguments, e.g.
+    REQUESTS.inc(endpoint='verify', status='200').
+    """
+
+    type = None
+
+    def __init__(self, name, documentation, labelnames=()):
+        self.name = name
+        self.documentation = documentation
+        self.labelnames = tuple(labelnames)
+        self._lock = threading.Lock()
+        self._values = {}
+
+    def _key(self, labels):
+        return tuple(str(labels.get(name, '')) for name in self.labelnames)
+
+    def render(self):
+        """
+        Exposition-format lines for this metric.
+        """
+        lines = [
+            f"# HELP {self.name} {self.documentation}",
+            f"# TYPE {self.name} {self.type}"
+        ]
+        with self._lock:
+            items = sorted(self._values.items())
+        for key, value in items:
+            lines.append(f"{self.name}{_format_labels(self.labelnames, key)} {_format_value(value)}")
+        return lines
+
+
+class Counter(Metric):
+    """
+    A count that only goes up (requests served, timeouts).
+    """
+
+    type = 'counter'
+
+    def inc(self, amount=1, **labels):
+        key = self._key(labels)
+        with self._lock:
+            self._values[key] = self._values.get(key, 0) + amount
+
+
+class Gauge(Metric):
+    """
+    A value that goes up and down (requests in flight).
+    """
+
+    type = 'gauge'
+
+    def inc(self, amount=1, **labels):
+        key = self._key(labels)
+        with self._lock:
+            self._values[key] = self._values.get(key, 0) + amount
+
+    def dec(self, amount=1, **labels):
+        self.inc(-amount, **labels)
+
+
+class CallbackMetric(Metric):
+    """
+    A value read from somewhere else at scrape time, e.g. the job queue
+    length. Nothing is recorded in between, so it costs nothing per request.
+    """
+
+    def __init__(self, name, documentation, metric_type, read, labelnames=()):
+        """
+        Parameters:
+        -----------
+        metric_type : str
+            'gauge' or 'counter'
+        read : callable
+            Returns a number, or {label values tuple: number} when the
+            metric has labels
+        """
+        super().__init__(name, documentation, labelnames)
+        self.type = metric_type
+        self._read = read
+
+    def render(self):
+        value = self._read()
+        with self._lock:
+            self._values = value if self.labelnames else {(): value}
+        return super().render()
+
+
+class Histogram(Metric):
+    """
+    Counts observations per bucket, plus their sum and count.
+    """
+
+    type = 'histogram'
+
+    def __init__(self, name, documentation, labelnames=(), buckets=DURATION_BUCKETS):
+        super().__init__(name, documentation, labelnames)
+        self.buckets = tuple(sorted(buckets))
+
+    def observe(self, value, **labels):
+        key = self._key(labels)
+        # Index of the first bucket the value fits under (len = only +Inf)
+        index = bisect_left(self.buckets, value)
+        with self._lock:
+            entry = self._values.get(key)
+            if entry is None:
+                entry = self._values[key] = [[0] * (len(self.buckets) + 1), 0.0, 0]
+            entry[0][index] += 1
+            entry[1] += value
+            entry[2] += 1
+
+    @contextmanager
+    def time(self, **labels):
+        """
+        Observe how long the with-block took, in seconds.
+        """
+        started = time.perf_counter()
+        try:
+            yield
+        finally:
+            self.observe(time.perf_counter() - started, **labels)
+
+    def render(self):
+        lines = [
+            f"# HELP {self.name} {self.documentation}",
+            f"# TYPE {self.name} {self.type}"
+        ]
+        with self._lock:
+            items = sorted((key, (list(counts), total, count))
+                           for key, (counts, total, count) in self._values.items())
+        for key, (counts, total, count) in items:
+            # Prometheus buckets are cumulative: "how many were <= le"
+            cumulative = 0
+            for limit, bucket_count in zip(self.buckets + (float('inf'),), counts):
+                cumulative += bucket_count
+                labels = _format_labels(self.labelnames, key, [('le', _format_value(limit))])
+                lines.append(f"{self.name}_bucket{labels} {cumulative}")
+            labels = _format_labels(self.labelnames, key)
+            lines.append(f"{self.name}_sum{labels} {_format_value(total)}")
+            lines.append(f"{self.name}_count{labels} {count}")
+        return lines
+
+
+class MetricsRegistry:
+    """
+    Every metric of this process, rendered together for GET /metrics.
+    """
+
+    def __init__(self):
+        self._metrics = []
+        self._lock = threading.Lock()
+
+    def register(self, metric):
+        with self._lock:
+            self._metrics.append(metric)
+        return metric
+
+    def counter(self, name, documentation, labelnames=()):
+        return self.register(Counter(name, documentation, labelnames))
+
+    def gauge(self, name, documentation, labelnames=()):
+        return self.register(Gauge(name, documentation, labelnames))
+
+    def histogram(self, name, documentation, labelnames=(), buckets=DURATION_BUCKETS):
+        return self.register(Histogram(name, documentation, labelnames, buckets))
+
+    def callback(self, name, documentation, metric_type, read, labelnames=()):
+        return self.register(CallbackMetric(name, documentation, metric_type, read, labelnames))
+
+    def render(self):
+        """
+        The whole registry in Prometheus text format.
+        """
+        with self._lock:
+            metrics = list(self._metrics)
+        lines = []
+        for metric in metrics:
+            lines.extend(metric.render())
+        return "\n".join(lines) + "\n"
+
+
+# Create singleton instance, with the metrics every module records into
+registry = MetricsRegistry()
+
+REQUESTS = registry.counter(
+    'label_http_requests_total',
+    'HTTP requests by route and status code',
+    ['endpoint', 'status']
+)
+IN_FLIGHT = registry.gauge(
+    'label_http_requests_in_flight',
+    'HTTP requests being processed right now',
+    ['endpoint']
+)
+STAGE_SECONDS = registry.histogram(
+    'label_stage_duration_seconds',
+    'Time spent in each stage of a verification',
+    ['stage']
+)
+UPLOAD_BYTES = registry.histogram(
+    'label_upload_image_bytes',
+    'Size of uploaded label images in bytes',
+    buckets=BYTES_BUCKETS
+)
+IMAGE_MEGAPIXELS = registry.histogram(
+    'label_image_megapixels',
+    'Size of decoded label images in megapixels, before resizing',
+    buckets=MEGAPIXEL_BUCKETS
+)
@@ -0,0 +1,198 @@
+"""
+OCR Cache - Remembers OCR results for images we've already read
+
+Users often submit the same label image several times while fixing typos in
+the form fields. The image hasn't changed, so the OCR text won't either -
+only the (very fast) verification step needs to run again.
+
+How It Works:
+-------------
+1. Hash the uploaded file's bytes (SHA-256) together with the OCR settings
+   (engine, language, preprocessing). Same bytes + same settings = same key.
+2. Look the key up before running OCR. Found → reuse the text (a "hit").
+3. Otherwise run OCR and store the result under the key (a "miss").
+
+Why LRU (Least Recently Used)?
+------------------------------
+Memory is limited, so the cache has a maximum size. When it's full we drop
+the entry that hasn't been used for the longest time - recent uploads are
+the ones most likely to be re-submitted.
+
+Why a TTL (Time To Live)?
+-------------------------
+Entries also expire after a while so an idle server doesn't hold on to
+old label text forever.
+"""
+
+from collections import OrderedDict
+import hashlib
+import os
+import threading
+import time
+
+from ocr_words import copy_result
+
+
+class OCRResultCache:
+    """
+    Thread-safe, size-bounded LRU cache of OCR results with expiry.
+    """
+
+    # Rough memory cost of one entry besides its text (dict, key, bookkeeping)
+    ENTRY_OVERHEAD_BYTES = 256
+
+    # Rough memory cost of one word entry (dict, box list, confidence)
+    WORD_OVERHEAD_BYTES = 400
+
+    def __init__(self, max_entries=256, max_bytes=16 * 1024 * 1024, ttl_seconds=3600):
+        """
+        Parameters:
+        -----------
+        max_entries : int
+            Most results kept at once. 0 disables the cache.
+        max_bytes : int
+            Approximate memory budget for cached text
+        ttl_seconds : float
+            Seconds an entry stays valid after it was stored
+        """
+        self.max_entries = max_entries
+        self.max_bytes = max_bytes
+        self.ttl_seconds = ttl_seconds
+
+        # OrderedDict keeps keys in use order: oldest first, newest last
+        self._entries = OrderedDict()
+        self._bytes = 0
+        self._lock = threading.Lock()
+
+        self.hits = 0
+        self.misses = 0
+        self.evictions = 0
+        self.expirations = 0
+
+    @classmethod
+    def from_env(cls):
+        """
+        Build a cache from environment variables.
+
+        OCR_CACHE_MAX_ENTRIES  Most cached results (default 256, 0 disables)
+        OCR_CACHE_MAX_MB       Memory budget in MB (default 16)
+        OCR_CACHE_TTL_SECONDS  Entry lifetime (default 3600)
+        """
+        return cls(
+            max_entries=int(os.environ.get('OCR_CACHE_MAX_ENTRIES', 256)),
+            max_bytes=int(float(os.environ.get('OCR_CACHE_MAX_MB', 16)) * 1024 * 1024),
+            ttl_seconds=float(os.environ.get('OCR_CACHE_TTL_SECONDS', 3600))
+        )
+
+    @property
+    def enabled(self):
+        return self.max_entries > 0
+
+    @staticmethod
+    def make_key(image_bytes, settings):
+        """
+        Build a cache key from the image contents and the OCR settings.
+
+        Parameters:
+        -----------
+        image_bytes : bytes
+            The uploaded file, exactly as received
+        settings : str
+            Everything else that changes the OCR output (engine, language,
+            preprocessing). Changing a setting must change the key, or we'd
+            serve text produced under the old settings.
+        """
+        digest = hashlib.sha256(image_bytes)
+        digest.update(b'\0')
+        digest.update(settings.encode('utf-8'))
+        return digest.hexdigest()
+
+    def get(self, key):
+        """
+        Return the cached result for a key, or None.
+
+        A returned result counts as a hit and becomes the most recently used
+        entry. The caller gets its own copy, so changing it can't corrupt
+        the cache.
+        """
+        if not self.enabled:
+            return None
+
+        with self._lock:
+            entry = self._entries.get(key)
+            if entry is None:
+                self.misses += 1
+                return None
+
+            result, size, expires_at = entry
+            if expires_at < time.monotonic():
+                self._remove(key)
+                self.expirations += 1
+                self.misses += 1
+                return None
+
+            self._entries.move_to_end(key)
+            self.hits += 1
+            return copy_result(result)
+
+    def put(self, key, result):
+        """
+        Store a result, evicting least recently used entries if needed.
+        """
+        if not self.enabled:
+            return
+
+        size = self._estimate_size(result)
+        if size > self.max_bytes:
+            # A single huge result would flush the whole cache - skip it
+            return
+
+        with self._lock:
+            if key in self._entries:
+                self._remove(key)
+
+            self._entries[key] = (copy_result(result), size, time.monotonic() + self.ttl_seconds)
+            self._bytes += size
+
+            # Evict from the least recently used end until within limits
+            while len(self._entries) > self.max_entries or self._bytes > self.max_bytes:
+                oldest_key = next(iter(self._entries))
+                self._remove(oldest_key)
+                self.evictions += 1
+
+    def stats(self):
+        """
+        Counters for monitoring (exposed on GET /stats).
+
+        hit_rate tells how much OCR work the cache is saving: 0.25 means one
+        in four lookups skipped Tesseract entirely.
+        """
+        with self._lock:
+            lookups = self.hits + self.misses
+            return {
+                "enabled": self.enabled,
+                "entries": len(self._entries),
+                "bytes": self._bytes,
+                "max_entries": self.max_entries,
+                "max_bytes": self.max_bytes,
+                "ttl_seconds": self.ttl_seconds,
+                "hits": self.hits,
+                "misses": self.misses,
+                "evictions": self.evictions,
+                "expirations": self.expirations,
+                "hit_rate": round(self.hits / lookups, 4) if lookups else 0.0
+            }
+
+    def _remove(self, key):
+        """
+        Drop an entry and release its size. Caller holds the lock.
+        """
+        _, size, _ = self._entries.pop(key)
+        self._bytes -= size
+
+    def _estimate_size(self, result):
+        return (
+            len(result.get("text") or "")
+            + len(result.get("words") or ()) * self.WORD_OVERHEAD_BYTES
+            + self.ENTRY_OVERHEAD_BYTES
+        )
@@ -0,0 +1,421 @@
+"""
+OCR Engines - Interchangeable back ends that turn an image into text
+
+OCRService decides WHAT to read (decoding, preprocessing). An engine decides
+HOW the pixels become text. Keeping them apart means we can swap the engine
+per deployment without touching the rest of the pipeline.
+
+Available Engines:
+------------------
+- subprocess: pytesseract, which starts the `tesseract` program per image.
+              Simplest setup, only needs the tesseract-ocr system package.
+- inprocess:  tesserocr, which keeps Tesseract loaded in memory and reuses it
+              (see tesseract_pool.py). Skips process start-up and model load.
+- noop:       Returns canned text instantly. Not for real use - it lets us
+              load test Flask, verification and the network without OCR
+              dominating the numbers.
+
+Every engine returns the same dictionary:
+    {"success": bool, "text": str, "error": str or None, "words": list}
+
+"words" holds every recognized word with its box and confidence (see
+ocr_words.py); "text" is derived from it, so both come from one OCR run.
+
+Every engine also honors a request Deadline (see deadline.py): when time
+runs out it raises DeadlineExceeded instead of returning a result.
+
+Choosing an Engine:
+-------------------
+Set the OCR_ENGINE environment variable (default: subprocess), then compare
+engines on your own label images with:
+
+    python benchmark_ocr.py /path/to/label/images
+"""
+
+import os
+import time
+
+import pytesseract
+
+from deadline import DeadlineExceeded
+from ocr_words import make_word, words_to_text
+from tesseract_pool import TesseractAPIPool
+
+
+class OCREngine:
+    """
+    Base class for OCR engines.
+
+    Subclasses implement image_to_words(). The base class turns that into
+    the standard result dictionary so every engine reports errors the same way.
+    """
+
+    # Short name used in configuration (OCR_ENGINE) and benchmark reports
+    name = None
+
+    # Reported when OCR ran fine but found nothing to read
+    NO_TEXT_ERROR = "No text could be extracted from the image. The image may be too blurry, too dark, or contain no text."
+
+    def extract(self, image, psm=None, whitelist=None, deadline=None):
+        """
+        Run OCR on a preprocessed image.
+
+        Parameters:
+        -----------
+        image : PIL.Image
+            Image already prepared by OCRService._preprocess_image()
+        psm : int, optional
+            Tesseract page segmentation mode. None = Tesseract's default
+            (3, fully automatic page layout). 6 ("one uniform block of
+            text") suits crops that contain only text (see region_ocr.py).
+        whitelist : str, optional
+            Only recognize these characters, e.g. "0123456789.%" when
+            reading an ABV (see field_ocr.py)
+        deadline : Deadline, optional
+            Stop OCR when the request runs out of time
+
+        Returns:
+        --------
+        dict
+            {"success": bool, "text": str, "error": str or None,
+             "words": list (successful results only)}
+
+        Raises:
+        -------
+        DeadlineExceeded
+            If the deadline passed - not an OCR error, so it isn't turned
+            into an error result
+        """
+        try:
+            words = self.image_to_words(image, psm, whitelist, deadline)
+        except DeadlineExceeded:
+            raise
+        except Exception as e:
+            return {
+                "success": False,
+                "text": "",
+                "error": self.describe_error(e)
+            }
+
+        # Building the text from the words drops the extra whitespace and
+        # blank lines OCR likes to produce
+        text = words_to_text(words)
+
+        # Check if we actually got any text
+        if not text:
+            return {
+                "success": False,
+                "text": "",
+                "error": self.NO_TEXT_ERROR
+            }
+
+        return {
+            "success": True,
+            "text": text,
+            "error": None,
+            "words": words
+        }
+
+    def image_to_words(self, image, psm=None, whitelist=None, deadline=None):
+        """
+        Return the words Tesseract (or a stand-in) reads from the image,
+        in reading order, as ocr_words.make_word() entries.
+
+        Raises DeadlineExceeded if the deadline passes first.
+        """
+        raise NotImplementedError
+
+    def settings(self):
+        """
+        The constructor arguments that build this same engine again, e.g.
+        in a tiled OCR worker process: ENGINES[engine.name](**engine.settings())
+        """
+        return {}
+
+    def detect_orientation(self, image):
+        """
+        Ask Tesseract's orientation and script detection (OSD) which way up
+        the text is.
+
+        Returns:
+        --------
+        tuple
+            (degrees, confidence): how far to turn the image CLOCKWISE to
+            make the text upright (0, 90, 180 or 270), and Tesseract's
+            confidence in that answer
+
+        Requires the osd.traineddata model (tesseract-ocr-osd package).
+        """
+        raise NotImplementedError
+
+    def describe_error(self, error):
+        """
+        Turn an engine exception into a message suitable for the user.
+        """
+        return f"Error processing image: {str(error)}"
+
+
+class SubprocessTesseractEngine(OCREngine):
+    """
+    Runs the `tesseract` command-line program once per image via pytesseract.
+    """
+
+    name = 'subprocess'
+
+    def __init__(self, lang='eng'):
+        self.lang = lang
+
+    def settings(self):
+        return {"lang": self.lang}
+
+    def image_to_words(self, image, psm=None, whitelist=None, deadline=None):
+        # pytesseract.image_to_data() saves the image to a temp file, runs
+        # `tesseract` on it and parses the table it printed: one row per
+        # page, block, paragraph, line and word. Only word rows have text.
+        config = []
+        if psm is not None:
+            config.append(f'--psm {psm}')
+        if whitelist:
+            config.append(f'-c tessedit_char_whitelist={whitelist}')
+
+        # With a timeout, pytesseract kills the tesseract process once it
+        # passes - the CPU is freed, not just the waiting thread
+        timeout = 0
+        if deadline:
+            deadline.check('ocr')
+            timeout = deadline.remaining()
+        try:
+            data = pytesseract.image_to_data(
+                image,
+                lang=self.lang,
+                config=' '.join(config),
+                output_type=pytesseract.Output.DICT,
+                timeout=timeout
+            )
+        except RuntimeError as e:
+            # pytesseract reports "Tesseract process timeout" this way
+            if deadline and deadline.expired:
+                raise DeadlineExceeded('ocr') from e
+            raise
+
+        words = []
+        line_ids = {}
+        for i, text in enumerate(data['text']):
+            text = text.strip()
+            if not text:
+                continue
+            # A line is identified by its block, paragraph and line number
+            line_key = (data['block_num'][i], data['par_num'][i], data['line_num'][i])
+            left, top = data['left'][i], data['top'][i]
+            words.append(make_word(
+                text,
+                data['conf'][i],
+                (left, top, left + data['width'][i], top + data['height'][i]),
+                line_ids.setdefault(line_key, len(line_ids))
+            ))
+        return words
+
+    def detect_orientation(self, image):
+        # "Rotate" in Tesseract's OSD report is the clockwise correction
+        osd = pytesseract.image_to_osd(image, output_type=pytesseract.Output.DICT)
+        return int(osd['rotate']) % 360, float(osd['orientation_conf'])
+
+    def describe_error(self, error):
+        if isinstance(error, pytesseract.TesseractNotFoundError):
+            # This happens if Tesseract OCR engine is not installed on the system
+            return "Tesseract OCR is not installed. Please install it: sudo apt-get install tesseract-ocr"
+        return super().describe_error(error)
+
+
+class InProcessTesseractEngine(OCREngine):
+    """
+    Runs Tesseract inside this process using a pool of warm API handles.
+    """
+
+    name = 'inprocess'
+
+    # Tesseract's own default: automatic page segmentation
+    DEFAULT_PSM = 3
+
+    def __init__(self, lang='eng', pool_size=None):
+        if pool_size is None:
+            pool_size = os.cpu_count() or 1
+        self.lang = lang
+        self._api_pool = TesseractAPIPool(size=pool_size, lang=lang)
+
+    def settings(self):
+        return {"lang": self.lang, "pool_size": self._api_pool.size}
+
+    def image_to_words(self, image, psm=None, whitelist=None, deadline=None):
+        from tesserocr import RIL, iterate_level
+
+        # Recognize() takes its timeout in milliseconds; 0 means no limit
+        timeout_ms = 0
+        if deadline:
+            deadline.check('ocr')
+            timeout_ms = max(1, int(deadline.remaining() * 1000))
+
+        # Borrow an already-initialized engine from the pool
+        # No new process, no model reload, no temp file
+        with self._api_pool.checkout() as api:
+            # Handles are shared, so always set the mode and whitelist -
+            # the previous request may have left different ones behind
+            api.SetPageSegMode(psm if psm is not None else self.DEFAULT_PSM)
+            api.SetVariable('tessedit_char_whitelist', whitelist or '')
+            api.SetImage(image)
+
+            # Tesseract checks the timeout as it goes and abandons the page
+            if not api.Recognize(timeout_ms) and deadline and deadline.expired:
+                raise DeadlineExceeded('ocr')
+
+            # Walk the recognized words; the iterator knows where each
+            # line starts, so no second pass is needed for the layout
+            words = []
+            line = -1
+            iterator = api.GetIterator()
+            if iterator is None:
+                return words
+            for word in iterate_level(iterator, RIL.WORD):
+                text = (word.GetUTF8Text(RIL.WORD) or '').strip()
+                if word.IsAtBeginningOf(RIL.TEXTLINE) or line < 0:
+                    line += 1
+                if not text:
+                    continue
+                words.append(make_word(
+                    text,
+                    word.Confidence(RIL.WORD),
+                    word.BoundingBox(RIL.WORD),
+                    line
+                ))
+            return words
+
+    def detect_orientation(self, image):
+        from tesserocr import PSM
+
+        with self._api_pool.checkout() as api:
+            api.SetPageSegMode(PSM.OSD_ONLY)
+            api.SetImage(image)
+            osd = api.DetectOrientationScript()
+        if not osd:
+            return 0, 0.0
+
+        # orient_deg is the way the text currently points (counter-clockwise
+        # from upright), so the clockwise correction is the same angle
+        # measured the other way round
+        return (360 - osd['orient_deg']) % 360, float(osd['orient_conf'])
+
+    def describe_error(self, error):
+        if isinstance(error, ImportError):
+            # The in-process engine was selected but tesserocr isn't installed
+            return "The in-process OCR engine requires tesserocr. Please install it: pip install tesserocr"
+        return super().describe_error(error)
+
+
+class NoOpEngine(OCREngine):
+    """
+    Pretends to run OCR. Returns the same text for every image.
+
+    Use it to measure everything EXCEPT OCR: request parsing, image decoding,
+    preprocessing, verification and JSON serialization.
+    """
+
+    name = 'noop'
+
+    # A label that passes verification for the sample values in the README
+    DEFAULT_TEXT = (
+        "OLD TOM DISTILLERY\n"
+        "KENTUCKY STRAIGHT BOURBON WHISKEY\n"
+        "45% ALC/VOL\n"
+        "750 mL\n"
+        "GOVERNMENT WARNING"
+    )
+
+    def __init__(self, text=None, delay_seconds=0.0):
+        """
+        Parameters:
+        -----------
+        text : str, optional
+            Text to "recognize" in every image
+        delay_seconds : float
+            Simulated OCR time, to mimic a slow engine under load
+        """
+        self.text = text or self.DEFAULT_TEXT
+        self.delay_seconds = delay_seconds
+
+    def settings(self):
+        return {"text": self.text, "delay_seconds": self.delay_seconds}
+
+    def detect_orientation(self, image):
+        # Canned text is always upright
+        return 0, 0.0
+
+    def image_to_words(self, image, psm=None, whitelist=None, deadline=None):
+        if self.delay_seconds:
+            # Simulated OCR gives up on time like the real engines do
+            if deadline and deadline.remaining() < self.delay_seconds:
+                time.sleep(deadline.remaining())
+                raise DeadlineExceeded('ocr')
+            time.sleep(self.delay_seconds)
+
+        # Made-up boxes on a simple grid: 40 px per line, 20 px per character
+        words = []
+        for line, line_text in enumerate(self.text.splitlines()):
+            position = 0
+            for text in line_text.split():
+                position = line_text.index(text, position)
+                words.append(make_word(
+                    text, 100.0,
+                    (position * 20, line * 40, (position + len(text)) * 20, line * 40 + 30),
+                    line
+                ))
+                position += len(text)
+        return words
+
+
+# Engine name → class, used by create_engine() and the benchmark
+ENGINES = {
+    SubprocessTesseractEngine.name: SubprocessTesseractEngine,
+    InProcessTesseractEngine.name: InProcessTesseractEngine,
+    NoOpEngine.name: NoOpEngine,
+}
+
+
+def create_engine(name=None):
+    """
+    Build an engine from its name and environment variable settings.
+
+    Parameters:
+    -----------
+    name : str, optional
+        One of ENGINES. Defaults to OCR_ENGINE, or 'subprocess' if unset.
+
+    Environment Variables:
+    ----------------------
+    OCR_ENGINE            subprocess | inprocess | noop
+    OCR_LANG              Tesseract language model (default: eng)
+    OCR_ENGINE_POOL_SIZE  Warm handles for the inprocess engine (default: CPU count)
+    OCR_NOOP_TEXT         Text returned by the noop engine
+    OCR_NOOP_DELAY_MS     Simulated OCR time for the noop engine
+    """
+    name = name or os.environ.get('OCR_ENGINE', 'subprocess')
+    if name not in ENGINES:
+        raise ValueError(
+            f"Unknown OCR engine '{name}'. Choose one of: {', '.join(ENGINES)}"
+        )
+
+    lang = os.environ.get('OCR_LANG', 'eng')
+
+    if name == InProcessTesseractEngine.name:
+        pool_size = os.environ.get('OCR_ENGINE_POOL_SIZE')
+        return InProcessTesseractEngine(
+            lang=lang,
+            pool_size=int(pool_size) if pool_size else None
+        )
+
+    if name == NoOpEngine.name:
+        return NoOpEngine(
+            text=os.environ.get('OCR_NOOP_TEXT'),
+            delay_seconds=float(os.environ.get('OCR_NOOP_DELAY_MS', 0)) / 1000
+        )
+
+    return SubprocessTesseractEngine(lang=lang)
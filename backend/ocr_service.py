@@ -29,9 +29,25 @@ Raw images from cameras/phones often have:
 Preprocessing improves accuracy by 10-20% on average.
 """
 
-import pytesseract
-from PIL import Image, ImageEnhance
+from PIL import Image
+import io
 import os
+import time
+
+from deadline import DeadlineExceeded
+from ocr_cache import OCRResultCache
+from field_ocr import FieldOCR
+from metrics import IMAGE_MEGAPIXELS, STAGE_SECONDS
+from ocr_engines import create_engine
+from ocr_words import scale_words, unrotate_words
+from orientation import OrientationDetector
+from perceptual_hash import NearDuplicateIndex
+from preprocessing import CONTRAST_FACTOR, PreprocessingLadder
+from region_ocr import RegionOCR
+from resolution import ResolutionPolicy
+from shared_cache import SharedOCRCache
+from tiled_ocr import TiledOCR
+from tracing import tracer
 
 
 class OCRService:
@@ -41,21 +57,67 @@ class OCRService:
     Design Decision: Why a class instead of simple functions?
     - Encapsulation: All OCR logic in one place
     - Extensibility: Easy to add config options later (e.g., language settings)
+    - Pluggable engines: the OCR back end is a separate object (OCREngine)
     - Testability: Can mock this class in tests
     """
 
-    def __init__(self):
+    def __init__(self, engine=None, cache=None, shared_cache=None, near_duplicates=None,
+                 resolution=None, regions=None, tiles=None, ladder=None, fields=None,
+                 orientation=None):
         """
         Initialize the OCR service.
 
-        Note: We could add configuration here like:
-        - OCR language (default: English)
-        - Tesseract path (if custom installation)
-        - OCR confidence threshold
-
-        For now, we use defaults to keep it simple.
+        Parameters:
+        -----------
+        engine : OCREngine or str, optional
+            The engine that turns pixels into text (see ocr_engines.py).
+            Either an engine object or its name. Defaults to the
+            OCR_ENGINE environment variable, or 'subprocess' if unset.
+        cache : OCRResultCache, optional
+            Where to remember results by image hash (see ocr_cache.py).
+            Defaults to a cache configured from OCR_CACHE_* variables.
+        shared_cache : SharedOCRCache or False, optional
+            Second-tier cache shared between processes (see shared_cache.py).
+            Defaults to OCR_SHARED_CACHE_URL if set; False turns it off.
+        near_duplicates : NearDuplicateIndex, optional
+            Reuses OCR text for re-photographed labels (see perceptual_hash.py).
+            Defaults to OCR_NEAR_DUPLICATE_* settings (off unless configured).
+        resolution : ResolutionPolicy, optional
+            How images are resized before OCR (see resolution.py).
+            Defaults to OCR_RESIZE / OCR_TARGET_TEXT_HEIGHT / ... settings.
+        regions : RegionOCR, optional
+            Reads only detected text blocks, in parallel (see region_ocr.py).
+            Defaults to OCR_REGION_* settings (off unless configured).
+        tiles : TiledOCR, optional
+            Reads very large images as parallel strips (see tiled_ocr.py).
+            Defaults to OCR_TILE_* settings (off unless configured).
+        ladder : PreprocessingLadder, optional
+            Preprocessing recipes to try, cheapest first (see preprocessing.py).
+            Defaults to OCR_PREPROCESS_LADDER (a single contrast rung).
+        fields : FieldOCR, optional
+            Targeted second look at failed numeric fields (see field_ocr.py).
+            Defaults to OCR_FIELD_* settings.
+        orientation : OrientationDetector, optional
+            Turns sideways and upside-down labels upright (see orientation.py).
+            Defaults to OCR_ORIENTATION (off unless configured).
+
+        Every engine sees the same preprocessed image, so switching between
+        them lets us compare throughput without changing anything else.
         """
-        pass
+        if engine is None or isinstance(engine, str):
+            engine = create_engine(engine)
+        self.engine = engine
+        self.cache = cache if cache is not None else OCRResultCache.from_env()
+        if shared_cache is None:
+            shared_cache = SharedOCRCache.from_env()
+        self.shared_cache = shared_cache or None
+        self.near_duplicates = near_duplicates if near_duplicates is not None else NearDuplicateIndex.from_env()
+        self.resolution = resolution or ResolutionPolicy.from_env()
+        self.regions = regions or RegionOCR.from_env()
+        self.tiles = tiles or TiledOCR.from_env()
+        self.ladder = ladder or PreprocessingLadder.from_env()
+        self.fields = fields or FieldOCR.from_env()
+        self.orientation = orientation or OrientationDetector.from_env()
 
     def extract_text_from_image(self, image_path):
         """
@@ -66,87 +128,389 @@ class OCRService:
         image_path : str
             Full path to the image file (e.g., "/tmp/label.jpg")
 
+        Returns:
+        --------
+        dict
+            Same structure as extract_text_from_bytes()
+
+        This is a thin wrapper kept for callers that already have a file
+        on disk (scripts, tests). The web app uses extract_text_from_stream()
+        so uploads never touch the filesystem.
+        """
+
+        # Validate the image file exists
+        if not os.path.exists(image_path):
+            return {
+                "success": False,
+                "text": "",
+                "error": f"Image file not found: {image_path}"
+            }
+
+        with tracer.span('read_file'), open(image_path, 'rb') as image_file:
+            image_bytes = image_file.read()
+        return self.extract_text_from_bytes(image_bytes)
+
+    def extract_text_from_stream(self, stream, stop_when=None, score_text=None, deadline=None):
+        """
+        Extract all text from a file-like object.
+
+        Parameters:
+        -----------
+        stream : file-like
+            Any object with a read() method, e.g. the werkzeug
+            FileStorage.stream of an uploaded file
+        stop_when, score_text, deadline : optional
+            See extract_text_from_bytes()
+
+        Returns:
+        --------
+        dict
+            Same structure as extract_text_from_bytes()
+        """
+        return self.extract_text_from_bytes(stream.read(), stop_when, score_text, deadline)
+
+    def extract_text_from_bytes(self, image_bytes, stop_when=None, score_text=None, deadline=None):
+        """
+        Extract all text from an encoded image held in memory.
+
+        Parameters:
+        -----------
+        image_bytes : bytes
+            The raw contents of a PNG/JPEG/GIF file
+        stop_when : callable, optional
+            Given the text read so far, returns True once it is enough
+            (e.g. VerificationService.early_exit_check()). Only tiled and
+            region OCR read an image piece by piece, so it is ignored
+            for whole-image OCR.
+        score_text : callable, optional
+            Given OCR text, returns how well it verifies from 0.0 to 1.0
+            (e.g. VerificationService.required_field_score()). Enables the
+            preprocessing ladder: heavier rungs are only tried while the
+            score is below 1.0. Without it only the first rung runs.
+        deadline : Deadline, optional
+            The request's time limit (see deadline.py). If it passes after
+            one rung has already read text, the ladder stops there and the
+            best text so far is returned.
+
         Returns:
         --------
         dict
             {
                 "success": bool,           # True if OCR worked
                 "text": str,               # Extracted text (empty if failed)
-                "error": str or None       # Error message if failed
+                "error": str or None,      # Error message if failed
+                "words": list,             # Words with boxes and confidences
+                                           # (see ocr_words.py), successes only
+                "preprocessing": str       # Ladder rung that produced the text
             }
+            Word boxes are in pixels of the uploaded image, whatever
+            resizing happened before OCR. Text reused from a near-duplicate
+            image comes without "words": its boxes belong to the other
+            upload.
+            plus "early_exit": True if stop_when ended OCR early - the
+            text then only covers part of the label
+
+        Raises:
+        -------
+        DeadlineExceeded
+            If the deadline passes before any text was read
 
         Process Flow:
         -------------
-        1. Validate image exists
-        2. Load image with Pillow
-        3. Preprocess (grayscale + contrast)
-        4. Run Tesseract OCR
-        5. Return extracted text
+        For each rung of the preprocessing ladder (see preprocessing.py):
+        1. Look the image up in the local, then shared, OCR cache
+           (skip everything else on a hit)
+        2. Decode the image from memory with Pillow (once, on first need)
+        3. Preprocess: grayscale + resize, turn upright if orientation
+           detection is on, then the rung's own cleanup
+        4. Reuse OCR text of a near-identical recent image, if enabled
+        5. Run OCR with the configured engine (see ocr_engines.py): in
+           parallel strips for very large images, on the detected text
+           blocks if region OCR is on, else on the whole image
+        6. Remember successful results in the caches
+        Stop at the first rung whose text verifies; otherwise return the
+        best-scoring attempt.
+
+        Why Bytes Instead of a File Path?
+        ---------------------------------
+        Saving every upload to a temp file only for Pillow to read it back
+        costs a disk write and a disk read per request. Pillow can decode
+        straight from a BytesIO buffer, so we skip the filesystem entirely.
         """
+        rungs = self.ladder.rungs if score_text else [self.ladder.first]
+
+        # Decoded on first need and shared by every rung - a cache hit on
+        # the first rung never decodes the image at all
+        decoded = {}
+
+        best = None
+        best_score = None
+        ocr_runs = 0
+
+        for rung in rungs:
+            try:
+                with tracer.span('ocr.rung', rung=rung) as span:
+                    result, ran_ocr = self._extract_with_rung(image_bytes, rung, decoded, stop_when, deadline)
+                    span.set(ran_ocr=ran_ocr, success=result["success"])
+            except DeadlineExceeded:
+                # Out of time while climbing: an earlier rung's text is a
+                # better answer than a timeout
+                if best is None:
+                    raise
+                break
+            ocr_runs += ran_ocr
+
+            # Decoding and engine failures would repeat on every rung.
+            # "No text" might not - e.g. the invert rung reads white text.
+            if not result["success"] and result["error"] != self.engine.NO_TEXT_ERROR:
+                return result
+
+            result["preprocessing"] = rung
+            if score_text is None:
+                return result
+
+            score = score_text(result["text"]) if result["success"] else -1.0
+            if best is None or score > best_score:
+                best, best_score = result, score
+            if score >= 1.0:
+                break
+
+        self.ladder.record(best["preprocessing"], best_score >= 1.0, ocr_runs)
+        return best
+
+    def _extract_with_rung(self, image_bytes, rung, decoded, stop_when, deadline):
+        """
+        Steps 1-6 of extract_text_from_bytes() for one preprocessing rung.
 
-        # Step 1: Validate the image file exists
-        if not os.path.exists(image_path):
+        Returns:
+        --------
+        tuple
+            (result dict, True if the engine actually ran)
+        """
+        settings = self.settings_signature(rung)
+
+        # Step 1: Re-submissions of the same file reuse the earlier OCR text
+        with tracer.span('cache_lookup') as span:
+            cache_key = self.cache.make_key(image_bytes, settings)
+            cached_result = self.cache.get(cache_key)
+            if cached_result is not None:
+                span.set(hit='local')
+                return cached_result, False
+
+            # Another worker or container may already have read this image
+            if self.shared_cache:
+                cached_result = self.shared_cache.get(cache_key)
+                if cached_result is not None:
+                    span.set(hit='shared')
+                    self.cache.put(cache_key, cached_result)
+                    return cached_result, False
+            span.set(hit='miss')
+
+        try:
+            # Step 2: Decode the image using Pillow
+            # Pillow (PIL) reads the encoded bytes and converts them to a Python
+            # object that we can manipulate (resize, change colors, etc.)
+            if 'image' not in decoded:
+                with STAGE_SECONDS.time(stage='decode'), tracer.span('decode') as span:
+                    image = Image.open(io.BytesIO(image_bytes))
+                    original_width, original_height = image.size
+
+                    # Huge JPEGs are decoded straight to a smaller grayscale image
+                    # instead of decoding every pixel and shrinking afterwards
+                    self.resolution.draft(image)
+
+                    # Image.open() only reads the header; load() decodes
+                    image.load()
+                    span.set(format=image.format or '', width=original_width, height=original_height)
+                IMAGE_MEGAPIXELS.observe(original_width * original_height / 1_000_000)
+
+                with STAGE_SECONDS.time(stage='normalize'), tracer.span('normalize') as span:
+                    normalized = self._normalize_image(image)
+
+                    # How much smaller/larger OCR sees the image than the upload
+                    decoded['scale'] = normalized.width / original_width
+
+                    # Detected once and shared by every rung, so a sideways
+                    # label costs one rotation instead of a failed pass per rung
+                    decoded['size'] = normalized.size
+                    decoded['rotation'], decoded['image'] = self._orient(normalized)
+                    span.set(width=normalized.width, height=normalized.height, rotation=decoded['rotation'])
+
+            # Step 3: Preprocess the image with this rung's recipe
+            with STAGE_SECONDS.time(stage='preprocess'), tracer.span('preprocess', rung=rung):
+                processed_image = self.ladder.apply(rung, decoded['image'])
+
+        except Exception as e:
+            # Catch decoding errors (corrupt image, unsupported format, etc.)
             return {
                 "success": False,
                 "text": "",
-                "error": f"Image file not found: {image_path}"
-            }
-
-        try:
-            # Step 2: Load the image using Pillow
-            # Pillow (PIL) reads the image file and converts it to a Python object
-            # that we can manipulate (resize, change colors, etc.)
-            image = Image.open(image_path)
-
-            # Step 3: Preprocess the image
-            # This improves OCR accuracy significantly
-            processed_image = self._preprocess_image(image)
-
-            # Step 4: Run Tesseract OCR
-            # pytesseract.image_to_string() is the main OCR function
-            # It sends the image to Tesseract and returns extracted text
-            #
-            # The 'lang' parameter specifies language (default: 'eng' for English)
-            # For alcohol labels, English is sufficient
-            extracted_text = pytesseract.image_to_string(
-                processed_image,
-                lang='eng'
+                "error": f"Error processing image: {str(e)}"
+            }, False
+
+        # Decoding and preprocessing a huge photo takes time too
+        if deadline:
+            deadline.check('preprocessing')
+
+        # Step 4: A re-photographed or re-saved copy of a recent label has
+        # different bytes but looks the same - reuse its OCR text
+        image_hash = None
+        if self.near_duplicates.enabled:
+            with tracer.span('near_duplicate_lookup') as span:
+                image_hash = self.near_duplicates.hash_image(processed_image)
+                similar_result = self.near_duplicates.find(image_hash, settings)
+                span.set(hit=similar_result is not None)
+            if similar_result is not None:
+                # Only the text carries over. The other upload's word boxes
+                # may be at another size, crop or angle than this one's.
+                similar_result = {key: value for key, value in similar_result.items() if key != "words"}
+                self.cache.put(cache_key, similar_result)
+                return similar_result, False
+
+        # Step 5: Run OCR with the configured engine
+        # The engine strips whitespace and reports "no text" or engine
+        # failures in the same dictionary shape
+        ocr_started = time.perf_counter()
+        with tracer.span('ocr.engine', engine=self.engine.name) as span:
+            result = None
+            if self.tiles.applies_to(processed_image):
+                span.set(mode='tiles')
+                result = self.tiles.extract(self.engine, processed_image, stop_when, deadline)
+            elif self.regions.enabled:
+                span.set(mode='regions')
+                result = self.regions.extract(self.engine, processed_image, stop_when, deadline)
+            if result is None:
+                span.set(mode='whole')
+                result = self.engine.extract(processed_image, deadline=deadline)
+            span.set(success=result["success"], words=len(result.get("words", [])),
+                     early_exit=bool(result.get("early_exit")))
+        ocr_seconds = time.perf_counter() - ocr_started
+        STAGE_SECONDS.observe(ocr_seconds, stage='ocr')
+        self.orientation.note_ocr_time(ocr_seconds)
+
+        # Report word boxes in the uploaded image's pixels (approximate
+        # after the deskew rung, which rotates the image)
+        if result["success"]:
+            result["words"] = self._to_upload_pixels(
+                result["words"], decoded['rotation'], decoded['size'], decoded['scale']
             )
 
-            # Step 5: Clean up the extracted text
-            # OCR often includes extra whitespace and newlines
-            extracted_text = extracted_text.strip()
+        # Step 6: Only cache successes - a failure may be temporary
+        # (e.g. Tesseract missing) and should be retried next time.
+        # Partial text from an early exit was enough for THIS form, but
+        # another form may need the rest of the label, so it isn't cached.
+        if result["success"] and not result.get("early_exit"):
+            self.cache.put(cache_key, result)
+            if self.shared_cache:
+                self.shared_cache.put(cache_key, result)
+            if image_hash is not None:
+                self.near_duplicates.add(image_hash, settings, result, ocr_seconds)
 
-            # Check if we actually got any text
-            if not extracted_text:
-                return {
-                    "success": False,
-                    "text": "",
-                    "error": "No text could be extracted from the image. The image may be too blurry, too dark, or contain no text."
-                }
+        return result, True
 
-            # Success! Return the extracted text
-            return {
-                "success": True,
-                "text": extracted_text,
-                "error": None
-            }
+    def extract_field_text(self, image_bytes, fields, deadline=None):
+        """
+        Re-read short numeric fields line by line (see field_ocr.py).
 
-        except pytesseract.TesseractNotFoundError:
-            # This happens if Tesseract OCR engine is not installed on the system
+        Parameters:
+        -----------
+        image_bytes : bytes
+            The same upload passed to extract_text_from_bytes()
+        fields : list of str
+            Fields whose check failed on the full-page text, e.g. ["abv"]
+        deadline : Deadline, optional
+            The request's time limit. Running out of time here is reported
+            as an unsuccessful result, not raised: the full-page
+            verification is already a complete answer.
+
+        Returns:
+        --------
+        dict
+            {"success", "text", "error", "words"} - one line of text per
+            line re-read, for VerificationService.recheck_fields
+
+        Much cheaper than another full-page pass: only a handful of short
+        lines are read, each with a single-line page segmentation mode and
+        a whitelist of the characters the fields can contain.
+        """
+        cache_key = self.cache.make_key(
+            image_bytes,
+            f"{self.settings_signature()};{self.fields.signature(fields)}"
+        )
+        cached_result = self.cache.get(cache_key)
+        if cached_result is not None:
+            return cached_result
+
+        try:
+            image = Image.open(io.BytesIO(image_bytes))
+            original_width = image.width
+            self.resolution.draft(image)
+            normalized = self._normalize_image(image)
+            rotation, upright = self._orient(normalized)
+            processed_image = self.ladder.apply(self.ladder.first, upright)
+        except Exception as e:
             return {
                 "success": False,
                 "text": "",
-                "error": "Tesseract OCR is not installed. Please install it: sudo apt-get install tesseract-ocr"
+                "error": f"Error processing image: {str(e)}"
             }
 
-        except Exception as e:
-            # Catch any other errors (corrupt image, permission issues, etc.)
+        try:
+            result = self.fields.extract(
+                self.engine, processed_image, fields, self.regions.executor, deadline
+            )
+        except DeadlineExceeded:
             return {
                 "success": False,
                 "text": "",
-                "error": f"Error processing image: {str(e)}"
+                "error": "Not enough time left to re-read fields"
             }
+        if result["success"]:
+            result["words"] = self._to_upload_pixels(
+                result["words"], rotation, normalized.size, normalized.width / original_width
+            )
+            self.cache.put(cache_key, result)
+        return result
+
+    def settings_signature(self, rung=None):
+        """
+        Describe every setting that affects OCR output.
+
+        Part of the cache key: if any of these change, previously cached
+        text no longer applies. Each ladder rung produces different text,
+        so results are cached per rung (default: the first rung).
+        """
+        return (
+            f"engine={self.engine.name};"
+            f"lang={getattr(self.engine, 'lang', '')};"
+            f"output=words;"
+            f"preprocessing={rung or self.ladder.first}/contrast={CONTRAST_FACTOR};"
+            f"{self.resolution.signature()};"
+            f"{self.regions.signature()};"
+            f"{self.tiles.signature()};"
+            f"{self.orientation.signature()}"
+        )
+
+    def _orient(self, grayscale_image):
+        """
+        Turn a normalized image upright (see orientation.py).
+
+        Returns:
+        --------
+        tuple
+            (clockwise degrees it was turned, upright image)
+        """
+        degrees = self.orientation.detect(self.engine, grayscale_image)
+        return degrees, self.orientation.rotate(grayscale_image, degrees)
+
+    @staticmethod
+    def _to_upload_pixels(words, rotation, normalized_size, scale):
+        """
+        Map word boxes from the image OCR read back to the uploaded image:
+        undo the orientation rotation, then the resize.
+        """
+        width, height = normalized_size
+        return scale_words(unrotate_words(words, rotation, width, height), scale)
 
     def _preprocess_image(self, image):
         """
@@ -160,12 +524,22 @@ class OCRService:
         Returns:
         --------
         PIL.Image
-            Processed image optimized for OCR
+            Processed image optimized for OCR, using the first rung of the
+            preprocessing ladder
+        """
+        return self.ladder.apply(self.ladder.first, self._normalize_image(image))
+
+    def _normalize_image(self, image):
+        """
+        The preparation every ladder rung starts from.
 
         Preprocessing Steps:
         -------------------
         1. Convert to grayscale (remove color)
-        2. Enhance contrast (make text stand out)
+        2. Normalize resolution (shrink huge photos, enlarge tiny ones)
+
+        The rung then adds its own cleanup, e.g. enhancing contrast to make
+        text stand out (see preprocessing.py).
 
         Why These Steps?
         ----------------
@@ -173,9 +547,9 @@ class OCRService:
                    depends on brightness differences. Removing color reduces
                    noise and speeds up processing.
 
-        Contrast: Increases the difference between text (usually dark) and
-                  background (usually light). This makes edges sharper and
-                  easier for OCR to detect.
+        Resolution: Tesseract's time grows with pixel count, but its accuracy
+                    doesn't once letters are ~30 px tall. See resolution.py.
+                    Done before the rungs so their filters work on fewer pixels.
         """
 
         # Convert to grayscale
@@ -184,18 +558,10 @@ class OCRService:
         # Color images have 3 values per pixel (Red, Green, Blue)
         grayscale_image = image.convert('L')
 
-        # Enhance contrast
-        # Contrast enhancement makes dark pixels darker and light pixels lighter
-        # Factor of 2.0 means we double the contrast
-        #
-        # Why 2.0? Through experimentation, this value works well for most labels
-        # - Too low (1.0-1.5): Not much improvement
-        # - Too high (3.0+): Can create artifacts and noise
-        # - 2.0: Sweet spot for labels with printed text
-        enhancer = ImageEnhance.Contrast(grayscale_image)
-        enhanced_image = enhancer.enhance(2.0)
-
-        return enhanced_image
+        # Resize so text lines are a comfortable height for Tesseract
+        grayscale_image, _ = self.resolution.apply(grayscale_image)
+
+        return grayscale_image
 
 
 # Create a singleton instance
@@ -0,0 +1,183 @@
+"""
+OCR Words - The structured form of OCR output
+
+Engines don't just return a string. Tesseract knows where every word is and
+how sure it is about it, and that is exactly what we need to explain a
+verification result ("the ABV was read HERE, with 62% confidence"). Each
+engine therefore returns a list of words:
+
+    {
+        "text": "BOURBON",
+        "confidence": 91.5,              # 0-100, Tesseract's certainty
+        "box": [120, 340, 410, 385],     # left, top, right, bottom in pixels
+        "line": 1                        # words with the same id share a line
+    }
+
+and the plain text is derived from them (words joined by spaces, lines by
+newlines), so text and evidence always come from the SAME engine call.
+
+The helpers below keep word lists consistent when images are cut up and
+put back together: crops (region_ocr.py, field_ocr.py) and strips
+(tiled_ocr.py) report boxes relative to the piece they read, resized
+images report boxes in resized pixels, and rotated images (orientation.py)
+in rotated ones.
+"""
+
+
+def make_word(text, confidence, box, line):
+    """
+    Build one word entry (see module docstring).
+    """
+    return {
+        "text": text,
+        "confidence": round(float(confidence), 1),
+        "box": [int(value) for value in box],
+        "line": line
+    }
+
+
+def copy_result(result):
+    """
+    A copy of an OCR result dict that shares nothing changeable with it:
+    the words, and their boxes, are copied too. Caches hand these out so
+    a caller changing its words can't change the cached entry.
+    """
+    copied = dict(result)
+    if result.get("words") is not None:
+        copied["words"] = [dict(word, box=list(word["box"])) for word in result["words"]]
+    return copied
+
+
+def group_lines(words):
+    """
+    Split words into lines, in the order the lines first appear.
+
+    Returns:
+    --------
+    list of list of dict
+    """
+    lines = {}
+    for word in words:
+        lines.setdefault(word["line"], []).append(word)
+    return list(lines.values())
+
+
+def words_to_text(words):
+    """
+    The plain text of a word list: words joined by spaces, lines by newlines.
+    """
+    return "\n".join(
+        " ".join(word["text"] for word in line)
+        for line in group_lines(words)
+    )
+
+
+def combine_words(word_lists, offsets=None):
+    """
+    Join word lists read from separate pieces of one image.
+
+    Parameters:
+    -----------
+    word_lists : list of list of dict
+        Words of each piece, in reading order
+    offsets : list of (x, y), optional
+        Top-left corner of each piece in the full image. Boxes are moved
+        by it so they point into the full image.
+
+    Returns:
+    --------
+    list of dict
+        New word entries; line ids are renumbered so lines of different
+        pieces never share an id.
+    """
+    combined = []
+    next_line = 0
+    for index, words in enumerate(word_lists):
+        dx, dy = offsets[index] if offsets else (0, 0)
+        line_ids = {}
+        for word in words:
+            line = line_ids.setdefault(word["line"], next_line + len(line_ids))
+            left, top, right, bottom = word["box"]
+            combined.append(make_word(
+                word["text"], word["confidence"],
+                (left + dx, top + dy, right + dx, bottom + dy),
+                line
+            ))
+        next_line += len(line_ids)
+    return combined
+
+
+def scale_words(words, factor):
+    """
+    Convert boxes from a resized image back to the original image.
+
+    Parameters:
+    -----------
+    factor : float
+        Resized size / original size (e.g. 0.5 if the image was halved)
+    """
+    if factor == 1.0:
+        return words
+    return [
+        dict(word, box=[round(value / factor) for value in word["box"]])
+        for word in words
+    ]
+
+
+def unrotate_words(words, degrees, width, height):
+    """
+    Convert boxes from a rotated image back to the image before rotation.
+
+    Parameters:
+    -----------
+    degrees : int
+        How far the image was turned CLOCKWISE: 0, 90, 180 or 270
+        (see orientation.py)
+    width, height : int
+        Size of the image BEFORE it was rotated
+    """
+    if not degrees:
+        return words
+
+    def unrotate(left, top, right, bottom):
+        if degrees == 90:
+            return [top, height - right, bottom, height - left]
+        if degrees == 180:
+            return [width - right, height - bottom, width - left, height - top]
+        return [width - bottom, left, width - top, right]
+
+    return [dict(word, box=unrotate(*word["box"])) for word in words]
+
+
+def words_in_span(words, start, end):
+    """
+    The words of a word list covering characters [start, end) of its
+    normalized text (lowercase, single spaces - see
+    VerificationService._normalize_text).
+
+    Returns:
+    --------
+    list of dict
+        Empty if the span can't be mapped (e.g. words and text disagree)
+    """
+    covered = []
+    position = 0
+    for word in words:
+        word_start = position
+        word_end = position + len(word["text"])
+        if word_start < end and word_end > start:
+            covered.append(word)
+        position = word_end + 1  # the single space between words
+    return covered
+
+
+def bounding_box(words):
+    """
+    Smallest box [left, top, right, bottom] around all the given words.
+    """
+    return [
+        min(word["box"][0] for word in words),
+        min(word["box"][1] for word in words),
+        max(word["box"][2] for word in words),
+        max(word["box"][3] for word in words)
+    ]
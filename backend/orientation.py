@@ -0,0 +1,233 @@
+"""
+Orientation - Turn sideways and upside-down labels upright before OCR
+
+Tesseract reads text the right way up. A label photographed sideways or
+upside down comes back as garbage, the checks fail, and the user retries -
+usually after turning the photo by hand - so every such label costs at
+least two full OCR passes.
+
+Trying all four rotations would cost four. Instead we look at the image
+ONCE, cheaply, decide which way up the text is, rotate it, and run the
+normal OCR pass on the upright image.
+
+Detection Modes:
+----------------
+projection  Pure Pillow, a few milliseconds on a 400 px wide edge map
+            (see layout_analysis.py):
+
+            1. Sideways?  Horizontal text makes the ROW profile peaky (lines
+               and gaps alternate); sideways text does the same to the
+               COLUMN profile.
+
+                   upright            sideways
+                   ▇▇▇▇▇▇▇▇ ─          ▇ ▇ ▇
+                                       ▇ ▇ ▇
+                   ▇▇▇▇▇▇ ─            ▇ ▇ ▇
+                                       │ │ │
+
+            2. Upside down?  Mixed-case text has more ink at the top of
+               its lines than at the bottom (layout_analysis.line_asymmetry).
+
+            Labels that are mostly capitals give step 2 no answer; the image
+            is then left as it is, never rotated on a guess.
+
+osd         Tesseract's own orientation detection (needs the
+            tesseract-ocr-osd package). Much more reliable, including on
+            capitals, but it is a Tesseract call of its own - on the
+            subprocess engine that means one more process start.
+
+Cost vs. Benefit:
+-----------------
+GET /stats reports the time spent detecting and an estimate of the OCR time
+it saved: every rotated image would otherwise have needed at least one more
+full OCR pass (the retry), at the average OCR time of this deployment. The
+benchmark compares both directly (benchmark_ocr.py --compare-orientation).
+
+Configuration:
+--------------
+OCR_ORIENTATION  off (default) | projection | osd
+"""
+
+import os
+import threading
+import time
+
+from PIL import Image
+
+from layout_analysis import column_profile, edge_map, line_asymmetry, profile_sharpness, row_profile
+
+
+# Width of the edge map used by the projection heuristic
+ANALYSIS_WIDTH = 400
+
+# The column profile must be this much sharper than the row profile before
+# the text counts as sideways. Square-ish blocks of text score about the same
+# both ways; a clear winner is needed.
+SIDEWAYS_RATIO = 1.5
+
+# |line_asymmetry| below this is too close to call (e.g. all-caps labels)
+FLIP_MARGIN = 0.1
+
+# OSD answers below this confidence are ignored
+OSD_MIN_CONFIDENCE = 2.0
+
+MODES = ('off', 'projection', 'osd')
+
+
+class OrientationDetector:
+    """
+    Decides how far to rotate an image so its text is upright.
+    """
+
+    def __init__(self, mode='off'):
+        """
+        Parameters:
+        -----------
+        mode : str
+            One of MODES (see module docstring)
+        """
+        if mode not in MODES:
+            raise ValueError(
+                f"Unknown orientation mode '{mode}'. Choose one of: {', '.join(MODES)}"
+            )
+        self.mode = mode
+
+        self._lock = threading.Lock()
+        self.images = 0
+        self.rotations = {90: 0, 180: 0, 270: 0}
+        self.failures = 0
+        self.detection_seconds = 0.0
+        self.ocr_passes = 0
+        self.ocr_seconds = 0.0
+
+    @classmethod
+    def from_env(cls):
+        """
+        Build from OCR_ORIENTATION (see module docstring).
+        """
+        return cls(mode=os.environ.get('OCR_ORIENTATION', 'off'))
+
+    @property
+    def enabled(self):
+        return self.mode != 'off'
+
+    def signature(self):
+        """
+        Settings that change OCR output, for cache keys.
+        """
+        return f"orientation={self.mode}"
+
+    def detect(self, engine, grayscale_image):
+        """
+        How far to turn an image clockwise so its text is upright.
+
+        Parameters:
+        -----------
+        engine : OCREngine
+            Used by the osd mode only
+        grayscale_image : PIL.Image
+            The normalized image (see OCRService._normalize_image)
+
+        Returns:
+        --------
+        int
+            0, 90, 180 or 270. 0 whenever detection is off, unsure or failed.
+        """
+        if not self.enabled:
+            return 0
+
+        started = time.perf_counter()
+        failed = False
+        try:
+            if self.mode == 'osd':
+                degrees = self._detect_osd(engine, grayscale_image)
+            else:
+                degrees = self._detect_projection(grayscale_image)
+        except Exception:
+            # A missing OSD model or an image too small to analyze shouldn't
+            # fail the request - OCR just runs on the image as uploaded
+            degrees = 0
+            failed = True
+        elapsed = time.perf_counter() - started
+
+        with self._lock:
+            self.images += 1
+            self.detection_seconds += elapsed
+            if failed:
+                self.failures += 1
+            if degrees:
+                self.rotations[degrees] += 1
+        return degrees
+
+    @staticmethod
+    def rotate(image, degrees):
+        """
+        Turn an image clockwise by a multiple of 90 degrees.
+
+        transpose() only moves pixels around - no resampling, no blur.
+        """
+        if degrees == 90:
+            return image.transpose(Image.ROTATE_270)
+        if degrees == 180:
+            return image.transpose(Image.ROTATE_180)
+        if degrees == 270:
+            return image.transpose(Image.ROTATE_90)
+        return image
+
+    def note_ocr_time(self, seconds):
+        """
+        Record how long one OCR pass took, to estimate what a retry costs.
+        """
+        with self._lock:
+            self.ocr_passes += 1
+            self.ocr_seconds += seconds
+
+    def _detect_osd(self, engine, grayscale_image):
+        degrees, confidence = engine.detect_orientation(grayscale_image)
+        if confidence < OSD_MIN_CONFIDENCE:
+            return 0
+        return degrees
+
+    def _detect_projection(self, grayscale_image):
+        binary, _ = edge_map(grayscale_image, width=ANALYSIS_WIDTH)
+
+        # Per-entry sharpness, so tall and wide images compare fairly
+        rows = row_profile(binary)
+        columns = column_profile(binary)
+        row_sharpness = profile_sharpness(rows) / len(rows)
+        column_sharpness = profile_sharpness(columns) / len(columns)
+
+        sideways = column_sharpness > row_sharpness * SIDEWAYS_RATIO
+        if sideways:
+            # Turn the lines horizontal, then ask which way up they are
+            binary = self.rotate(binary, 90)
+
+        asymmetry = line_asymmetry(binary)
+        if abs(asymmetry) < FLIP_MARGIN:
+            # Lines horizontal but no idea which way up: a sideways guess
+            # is as likely wrong as right, so leave the image alone
+            return 0
+        if sideways:
+            return 90 if asymmetry > 0 else 270
+        return 0 if asymmetry > 0 else 180
+
+    def stats(self):
+        """
+        Counters for monitoring (exposed on GET /stats).
+
+        retry_seconds_avoided assumes each rotated image would have cost
+        one more full OCR pass (the user's retry) - a lower bound, since
+        users may retry more than once.
+        """
+        with self._lock:
+            rotated = sum(self.rotations.values())
+            average_ocr = self.ocr_seconds / self.ocr_passes if self.ocr_passes else 0.0
+            return {
+                "mode": self.mode,
+                "images": self.images,
+                "rotated": {str(degrees): count for degrees, count in self.rotations.items()},
+                "failures": self.failures,
+                "detection_seconds": round(self.detection_seconds, 3),
+                "avg_detection_ms": round(self.detection_seconds / self.images * 1000, 1) if self.images else 0.0,
+                "retry_seconds_avoided": round(rotated * average_ocr, 3)
+            }
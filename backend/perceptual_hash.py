@@ -0,0 +1,194 @@
+"""
+Perceptual Hash - Recognizes the same label in a slightly different image
+
+The OCR cache (ocr_cache.py) matches images byte for byte. Re-photographing a
+label, or re-saving it as a JPEG at a different quality, changes every byte
+even though a person sees the same picture. A perceptual hash instead
+summarizes what the image LOOKS like, so near-identical pictures get
+near-identical hashes.
+
+dHash (Difference Hash):
+------------------------
+1. Shrink the grayscale image to (size + 1) x size pixels. This throws away
+   detail, noise and compression artifacts and keeps the overall layout.
+2. For each pixel, compare it with its right-hand neighbor:
+   brighter on the left → 1, otherwise → 0
+3. The size x size bits form the hash.
+
+Comparing Hashes:
+-----------------
+The Hamming distance (number of bits that differ) says how different two
+images look. 0 = same layout, a few bits = re-photographed, many = different.
+
+Caution:
+--------
+Two labels with the same artwork but a different ABV (e.g. a 40% and a 45%
+version) can hash very close together. That's why reuse is off unless
+OCR_NEAR_DUPLICATE_DISTANCE is set, and why the default hash is 16x16
+(256 bits) - larger hashes keep more detail and separate such labels better.
+"""
+
+from collections import deque
+import os
+import threading
+
+from PIL import Image
+
+from ocr_words import copy_result
+
+
+def dhash(grayscale_image, hash_size=16):
+    """
+    Compute the difference hash of a grayscale ('L' mode) image.
+
+    Parameters:
+    -----------
+    grayscale_image : PIL.Image
+        For example the output of OCRService._preprocess_image()
+    hash_size : int
+        Hash is hash_size x hash_size bits
+
+    Returns:
+    --------
+    int
+        The hash as a hash_size² bit integer
+    """
+    small = grayscale_image.resize((hash_size + 1, hash_size), Image.BILINEAR)
+    pixels = small.tobytes()  # One byte per pixel, row by row
+
+    bits = 0
+    width = hash_size + 1
+    for row in range(hash_size):
+        offset = row * width
+        for col in range(hash_size):
+            bits = (bits << 1) | (pixels[offset + col] > pixels[offset + col + 1])
+    return bits
+
+
+def hamming_distance(hash_a, hash_b):
+    """
+    Number of bits that differ between two hashes.
+    """
+    return (hash_a ^ hash_b).bit_count()
+
+
+class NearDuplicateIndex:
+    """
+    Remembers the perceptual hashes of recent OCR'd images and their text.
+
+    Recent submissions are scanned linearly. With a few hundred entries,
+    XOR + bit count per entry takes well under a millisecond - a tiny cost
+    next to the seconds an OCR run takes.
+    """
+
+    def __init__(self, max_distance=None, capacity=512, hash_size=16):
+        """
+        Parameters:
+        -----------
+        max_distance : int or None
+            Reuse OCR text if hashes differ in at most this many bits.
+            None disables the index.
+        capacity : int
+            How many recent images to remember
+        hash_size : int
+            Hash is hash_size x hash_size bits
+        """
+        self.max_distance = max_distance
+        self.hash_size = hash_size
+
+        # Newest entries on the right; the oldest fall off the left
+        self._entries = deque(maxlen=capacity)
+        self._lock = threading.Lock()
+
+        self.lookups = 0
+        self.hits = 0
+        self.ocr_seconds_saved = 0.0
+
+    @classmethod
+    def from_env(cls):
+        """
+        Build the index from environment variables.
+
+        OCR_NEAR_DUPLICATE_DISTANCE   Max differing bits to reuse OCR text (unset = off)
+        OCR_NEAR_DUPLICATE_CAPACITY   Recent images remembered (default 512)
+        OCR_NEAR_DUPLICATE_HASH_SIZE  Hash width/height in bits (default 16)
+        """
+        max_distance = os.environ.get('OCR_NEAR_DUPLICATE_DISTANCE')
+        return cls(
+            max_distance=int(max_distance) if max_distance else None,
+            capacity=int(os.environ.get('OCR_NEAR_DUPLICATE_CAPACITY', 512)),
+            hash_size=int(os.environ.get('OCR_NEAR_DUPLICATE_HASH_SIZE', 16))
+        )
+
+    @property
+    def enabled(self):
+        return self.max_distance is not None
+
+    def hash_image(self, grayscale_image):
+        return dhash(grayscale_image, self.hash_size)
+
+    def find(self, image_hash, settings):
+        """
+        Find the closest remembered image within max_distance.
+
+        Parameters:
+        -----------
+        image_hash : int
+            hash_image() of the new image
+        settings : str
+            OCRService.settings_signature() - text read under different
+            OCR settings is never reused
+
+        Returns:
+        --------
+        dict or None
+            A copy of the remembered OCR result, or None
+        """
+        with self._lock:
+            self.lookups += 1
+
+            best = None
+            best_distance = self.max_distance + 1
+            for entry_hash, entry_settings, result, ocr_seconds in self._entries:
+                if entry_settings != settings:
+                    continue
+                distance = hamming_distance(image_hash, entry_hash)
+                if distance < best_distance:
+                    best = (result, ocr_seconds)
+                    best_distance = distance
+                    if distance == 0:
+                        break
+
+            if best is None:
+                return None
+
+            result, ocr_seconds = best
+            self.hits += 1
+            self.ocr_seconds_saved += ocr_seconds
+            return copy_result(result)
+
+    def add(self, image_hash, settings, result, ocr_seconds):
+        """
+        Remember an image's OCR result.
+
+        ocr_seconds is how long OCR took, so a later reuse can report
+        the time it saved.
+        """
+        with self._lock:
+            self._entries.append((image_hash, settings, copy_result(result), ocr_seconds))
+
+    def stats(self):
+        """
+        Counters for monitoring (exposed on GET /stats).
+        """
+        with self._lock:
+            return {
+                "enabled": self.enabled,
+                "max_distance": self.max_distance,
+                "hash_bits": self.hash_size * self.hash_size,
+                "entries": len(self._entries),
+                "lookups": self.lookups,
+                "hits": self.hits,
+                "hit_rate": round(self.hits / self.lookups, 4) if self.lookups else 0.0,
+                "ocr_seconds_saved": round(self.ocr_seconds_saved, 3)
+            }
@@ -0,0 +1,233 @@
+"""
+Product Synonyms - The other names a label may use for a product type
+
+The form says "IPA", the label says "INDIA PALE ALE". The form says
+"Cabernet Sauvignon", the label says "CAB SAUV". Both are the same product
+type, but a substring search fails them. A synonym table lists the names
+that mean the same:
+
+    india pale ale,ipa
+    cabernet sauvignon,cab sauv,cab. sauv.
+
+When the product type typed into the form is one of the names in a row and
+isn't on the label as typed, any other name in that row on the label
+matches it.
+
+Table Format:
+-------------
+CSV without a header: one row per product type, one name per column.
+Names are compared like the OCR text (lowercase, whitespace collapsed).
+Lines starting with # are comments. A name in several rows has the
+synonyms of all of them. Synonyms work both ways: "ipa" finds "india pale
+ale" and "india pale ale" finds "ipa".
+
+A name starting with ">" is a narrower class, often a regulated one. The
+label may be more specific than the form, never less:
+
+    bourbon whiskey,bourbon whisky,>straight bourbon whiskey
+
+A form saying "bourbon whiskey" accepts "straight bourbon whiskey" on the
+label, but a form saying "straight bourbon whiskey" doesn't accept plain
+"bourbon whiskey" - that row gives it no synonyms (another row may).
+
+Synonyms must be whole words on the label, so "ipa" doesn't match inside
+"municipal" (the form value as typed keeps plain substring matching).
+
+One Scan per Product Type
+-------------------------
+Searching the label once per synonym repeats the scan for every name of a
+long row. Instead, each row's names become ONE regular expression shaped
+like a trie (an automaton that follows the label text one character at a
+time, sharing common beginnings):
+
+    cabernet sauvignon, cab sauv, cab. sauv.
+        ──►  cab(?: sauv|\\. sauv\\.|ernet sauvignon)    (plus whole-word tests)
+
+so each check is a single scan, and a lookup by typed name is one
+dictionary access, however large the table. On a 1,000-character label a
+check takes ~12 µs with 6 names per row (searching each name separately:
+~8 µs) and ~32 µs with 30 (separately: ~42 µs) - Python's re module only
+skips ahead fast when a pattern starts with one known character, which
+keeps the single scan from winning on short rows. The whole-word test at the
+start of a name is made after its first character: in front, it would stop
+the regex engine from skipping ahead to positions where that character
+occurs (measured: ~2 µs vs ~25 µs on a 740-character label).
+
+A row's pattern is built and compiled the first time a form asks for one
+of its names, then kept. Doing it for every row at load costs ~0.5 ms per
+row - ten seconds for a 20,000-row table, most of whose rows are never
+asked for (see benchmark_matching.py).
+
+Reloading:
+----------
+As for the brand catalog (see reloadable.py): a new table is built on a
+background thread and swapped in whole. Reloads happen on
+POST /synonyms/reload, or by themselves when the file changes.
+
+Configuration:
+--------------
+PRODUCT_SYNONYMS_PATH           Synonym table (default: the bundled
+                                product_type_synonyms.csv; empty = off)
+PRODUCT_SYNONYMS_CHECK_SECONDS  How often to look for a changed file
+                                (default 30, 0 = only reload on request)
+"""
+
+import csv
+import os
+import re
+
+from reloadable import ReloadableFile
+
+
+# The table shipped with the app
+DEFAULT_TABLE_PATH = os.path.join(os.path.dirname(os.path.abspath(__file__)), 'product_type_synonyms.csv')
+
+
+def normalize(name):
+    """
+    A name compared like OCR text (see VerificationService._normalize_text).
+    """
+    return re.sub(r'\s+', ' ', name).lower().strip()
+
+
+def names_pattern(names):
+    """
+    One whole-word regular expression for names, shaped like a trie.
+
+    Example: names_pattern(["india pale ale", "ipa"]) finds "india pale
+             ale" or "ipa", but not the "ipa" in "municipal"
+
+    Where several names start at the same place, the longest wins
+    ("straight bourbon whiskey", not "straight bourbon").
+    """
+    trie = {}
+    for name in names:
+        node = trie
+        for char in name:
+            node = node.setdefault(char, {})
+        node[''] = {}
+
+    def branches(node, first):
+        # first: the node's characters start a name - check that no word
+        # character comes before it (see module docstring)
+        alternatives = [
+            re.escape(char) + (r'(?<!\w.)' if first else '') + branches(child, False)
+            for char, child in sorted(node.items()) if char
+        ]
+        if not alternatives:
+            return ''
+        pattern = alternatives[0] if len(alternatives) == 1 else '(?:' + '|'.join(alternatives) + ')'
+        if '' in node:
+            # A name ends here, but a longer one may go on (greedy: longer first)
+            pattern = '(?:' + pattern + ')?'
+        return pattern
+
+    return branches(trie, True) + r'(?!\w)'
+
+
+class SynonymIndex:
+    """
+    A loaded synonym table: for each name, its synonyms, and the pattern
+    finding any of them. Never changed once built, apart from remembering
+    compiled patterns.
+    """
+
+    def __init__(self, rows):
+        """
+        Parameters:
+        -----------
+        rows : iterable of lists of str
+            One row of names per product type; a name starting with ">"
+            is narrower (see "Table Format" above)
+        """
+        synonyms = {}
+        self.rows = 0
+        for row in rows:
+            names = {normalize(name) for name in row if not name.strip().startswith('>')} - {''}
+            narrower = {normalize(name.strip()[1:]) for name in row if name.strip().startswith('>')}
+            narrower -= names | {''}
+            if not names or len(names) + len(narrower) < 2:
+                continue
+            self.rows += 1
+            # Only the row's own names look for the narrower ones, never
+            # the other way round
+            for name in names:
+                synonyms.setdefault(name, set()).update(names | narrower)
+
+        # Names with the same synonyms (usually: one row) share them
+        shared = {}
+        self._synonyms = {}
+        for name, names in synonyms.items():
+            names = tuple(sorted(names))
+            self._synonyms[name] = shared.setdefault(names, names)
+
+        # Synonyms → compiled pattern, filled in as names are looked up.
+        # Two threads may compile the same one at once (harmless).
+        self._compiled = {}
+
+    def __len__(self):
+        return len(self._synonyms)
+
+    @property
+    def patterns_compiled(self):
+        return len(self._compiled)
+
+    def pattern_for(self, name):
+        """
+        The compiled pattern finding name or any of its synonyms, or None
+        if name has no synonyms.
+
+        Parameters:
+        -----------
+        name : str
+            A normalized product type (see normalize)
+        """
+        names = self._synonyms.get(name)
+        if names is None:
+            return None
+        compiled = self._compiled.get(names)
+        if compiled is None:
+            compiled = self._compiled[names] = re.compile(names_pattern(names))
+        return compiled
+
+
+class SynonymTable(ReloadableFile):
+    """
+    The current synonym index, and the loading and reloading of it.
+    """
+
+    description = "product synonyms"
+    load_errors = (OSError, ValueError, csv.Error)
+
+    @classmethod
+    def from_env(cls):
+        """
+        Build from PRODUCT_SYNONYMS_* environment variables and load the
+        table, unless it is turned off.
+        """
+        table = cls(
+            path=os.environ.get('PRODUCT_SYNONYMS_PATH', DEFAULT_TABLE_PATH) or None,
+            check_seconds=float(os.environ.get('PRODUCT_SYNONYMS_CHECK_SECONDS', 30))
+        )
+        if table.enabled:
+            table.load()
+        return table
+
+    def read_index(self, path):
+        """
+        Read the table (see "Table Format" above).
+        """
+        with open(path, newline='', encoding='utf-8-sig') as table:
+            rows = csv.reader(line for line in table if not line.lstrip().startswith('#'))
+            return SynonymIndex(rows)
+
+    def stats(self):
+        """
+        Counters for monitoring (exposed on GET /stats).
+        """
+        index = self._index
+        stats = super().stats()
+        stats["rows"] = index.rows if index is not None else 0
+        stats["names"] = len(index) if index is not None else 0
+        stats["patterns_compiled"] = index.patterns_compiled if index is not None else 0
+        return stats
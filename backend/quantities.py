@@ -0,0 +1,249 @@
+"""
+Quantities - Alcohol content and volumes read off a label as numbers
+
+The ABV and net contents checks look for the form's digits as typed, so
+the same quantity written another way fails:
+
+    form       label                  same?
+    45         45.00% alc/vol         yes - 45.00 = 45
+    45         90 proof               yes - proof is twice the ABV
+    750 mL     75 cl                  yes - 1 cl = 10 mL
+    750 mL     25.4 fl oz             yes - 750 mL is 25.36 fl oz, printed
+                                      to one decimal
+
+extract() reads every percentage, proof figure and volume in the OCR text
+in ONE scan of a single compiled pattern, into numbers with units.
+QuantityMatcher then compares a form value with them numerically.
+
+Comparing Across Units
+----------------------
+A label prints a converted quantity rounded ("25.4 fl oz" for 750 mL), so
+the form value is converted into the label's unit and rounded to as many
+decimals as the label shows before comparing. A form value with decimals
+("25.4 fl oz") may itself be a rounded conversion, so the label's figure is
+also tried in the form's unit, rounded to the form's decimals; a whole form
+value ("12 fl oz", "40") is taken as exact, or "350 ml" (11.8 fl oz) would
+match "12 fl oz". Rounding may not hide more than MAX_ROUNDING_DIFFERENCE,
+or "1 pint" would match "12 fl oz" (0.75 pint, rounded to whole pints).
+Within one unit nothing is rounded: "45.5" doesn't match "46%".
+
+Tolerances (see VerificationService) allow a little more: ABV in percentage
+points, volume as a fraction of the label's figure. Both default to 0.
+
+Units:
+------
+ABV     %, proof (= 2 × ABV)
+Volume  ml, cl, l, fl oz / oz (US fluid ounces), pint, quart, gallon (US)
+        - in any common spelling ("mL", "fl. oz.", "litres")
+
+Numbers may use a decimal comma ("13,5%"); a comma before exactly three
+digits is a thousands separator ("1,750 ml").
+"""
+
+from collections import namedtuple
+import math
+import re
+
+
+# Unit → (kind, size in the kind's base unit: % ABV or mL)
+UNITS = {
+    "%": ("abv", 1.0),
+    "proof": ("abv", 0.5),
+    "ml": ("volume", 1.0),
+    "cl": ("volume", 10.0),
+    "l": ("volume", 1000.0),
+    "fl oz": ("volume", 29.5735295625),
+    "pint": ("volume", 473.176473),
+    "quart": ("volume", 946.352946),
+    "gallon": ("volume", 3785.411784)
+}
+
+# How each unit may be written on a label (normalized, lowercase)
+UNIT_SPELLINGS = {
+    "%": r'%',
+    "proof": r'(?:°\s*)?proof',
+    "ml": r'ml|mls|millilit(?:er|re)s?',
+    "cl": r'cl|centilit(?:er|re)s?',
+    "l": r'l|lt|ltr|lit(?:er|re)s?',
+    "fl oz": r'fl\.?\s*oz\.?|fluid\s+ounces?|oz\.?|ounces?',
+    "pint": r'pints?|pt',
+    "quart": r'quarts?|qt',
+    "gallon": r'gallons?|gal'
+}
+
+# Most a converted figure may differ from the original after rounding, as a
+# fraction of it ("1.7 fl oz" for 50 mL is 0.6% off; at one decimal, a
+# figure that small may be up to 2.9% off)
+MAX_ROUNDING_DIFFERENCE = 0.03
+
+# Group name in QUANTITY_PATTERN → unit
+_UNIT_GROUPS = {f'unit{i}': unit for i, unit in enumerate(UNIT_SPELLINGS)}
+
+# A number, then one of the units.
+#
+# The number must not continue one before it ("4.5%" is not "5%"). That
+# test comes after the first digit: in front, it would stop the regex
+# engine from skipping ahead to digits (see product_synonyms.py). A unit
+# spelled with letters must end the word ("750 l", not "750 lager"); "%"
+# needn't ("45%alc/vol", "40%vol").
+QUANTITY_PATTERN = re.compile(
+    r'(?P<number>[0-9](?<![0-9.,][0-9])[0-9]*(?:[.,][0-9]+)?)\s*(?:'
+    + '|'.join(
+        f'(?P<{group}>{UNIT_SPELLINGS[unit]})' + ('' if unit == '%' else r'(?![a-z])')
+        for group, unit in _UNIT_GROUPS.items()
+    )
+    + r')'
+)
+
+# A number alone (an ABV typed without "%")
+NUMBER_PATTERN = re.compile(r'\d+(?:[.,]\d+)?')
+
+
+# A quantity found in text: the figure as printed, how many decimals it
+# shows, its unit (a UNITS key), and where it is
+Quantity = namedtuple('Quantity', ['number', 'decimals', 'unit', 'start', 'end', 'text'])
+
+
+def parse_number(text):
+    """
+    A printed number → (value, decimals shown).
+
+    Example: parse_number("13,5") → (13.5, 1)
+             parse_number("1,750") → (1750.0, 0)
+    """
+    whole, separator, fraction = text.replace(',', '.').partition('.')
+    if separator and len(fraction) == 3 and ',' in text:
+        # Thousands separator
+        return float(whole + fraction), 0
+    return float(text.replace(',', '.')), len(fraction)
+
+
+def kind_of(quantity):
+    return UNITS[quantity.unit][0]
+
+
+def value_of(quantity):
+    """
+    The quantity in its kind's base unit (% ABV or mL).
+    """
+    return quantity.number * UNITS[quantity.unit][1]
+
+
+def extract(text):
+    """
+    Every percentage, proof figure and volume in text, in one scan.
+
+    Parameters:
+    -----------
+    text : str
+        Normalized (lowercase) OCR text
+
+    Returns:
+    --------
+    list of Quantity
+        In the order they appear
+
+    Example: extract("45% alc/vol (90 proof) 750 ml")
+             → 45 %, 90 proof, 750 ml
+    """
+    quantities = []
+    for match in QUANTITY_PATTERN.finditer(text):
+        number, decimals = parse_number(match.group('number'))
+        quantities.append(Quantity(
+            number, decimals, _UNIT_GROUPS[match.lastgroup], match.start(), match.end(), match.group(0)
+        ))
+    return quantities
+
+
+def _round_half_up(value, decimals):
+    scale = 10 ** decimals
+    return math.floor(value * scale + 0.5) / scale
+
+
+class QuantityMatcher:
+    """
+    A form value, compared numerically with the quantities on a label.
+    """
+
+    def __init__(self, quantity, tolerance=0.0):
+        """
+        Parameters:
+        -----------
+        quantity : Quantity
+            The form value (see abv_matcher, volume_matcher)
+        tolerance : float
+            ABV: percentage points either way. Volume: fraction of the
+            label's figure either way (0.01 = 1%).
+        """
+        self.kind = kind_of(quantity)
+        self.quantity = quantity
+        self.value = value_of(quantity)
+        self.tolerance = tolerance
+
+    def matches(self, quantity):
+        unit_kind, size = UNITS[quantity.unit]
+        if unit_kind != self.kind:
+            return False
+
+        if self.kind == "abv":
+            allowed = self.tolerance / size
+        else:
+            allowed = self.tolerance * quantity.number
+
+        # The form value in the label's unit (plus a little for floating
+        # point: 0.1 + 0.2 != 0.3)
+        expected = self.value / size
+        if abs(expected - quantity.number) <= allowed + 1e-9:
+            return True
+        if quantity.unit == self.quantity.unit:
+            return False
+        if abs(quantity.number * size - self.value) > MAX_ROUNDING_DIFFERENCE * self.value:
+            return False
+
+        # ... shown the way the label shows it
+        if abs(_round_half_up(expected, quantity.decimals) - quantity.number) <= allowed + 1e-9:
+            return True
+
+        # ... or the label's figure shown the way the form shows it, if the
+        # form's figure looks rounded (see module docstring)
+        if not self.quantity.decimals:
+            return False
+        form_size = UNITS[self.quantity.unit][1]
+        shown = _round_half_up(quantity.number * size / form_size, self.quantity.decimals)
+        return abs(shown - self.quantity.number) <= allowed * size / form_size + 1e-9
+
+    def first(self, quantities):
+        """
+        The first of quantities (see extract) equal to the form value, or None.
+        """
+        for quantity in quantities:
+            if self.matches(quantity):
+                return quantity
+        return None
+
+
+def abv_matcher(abv, tolerance=0.0):
+    """
+    A matcher for an ABV as typed into the form ("45", "45%", "90 proof"),
+    or None if it isn't a number.
+    """
+    for quantity in extract(abv.lower()):
+        if kind_of(quantity) == "abv":
+            return QuantityMatcher(quantity, tolerance)
+
+    match = NUMBER_PATTERN.search(abv)
+    if not match:
+        return None
+    number, decimals = parse_number(match.group(0))
+    return QuantityMatcher(Quantity(number, decimals, "%", 0, 0, match.group(0)), tolerance)
+
+
+def volume_matcher(net_contents, tolerance=0.0):
+    """
+    A matcher for net contents as typed into the form ("750 mL",
+    "12 fl oz"), or None if no volume can be read from it.
+    """
+    for quantity in extract(net_contents.lower()):
+        if kind_of(quantity) == "volume":
+            return QuantityMatcher(quantity, tolerance)
+    return None
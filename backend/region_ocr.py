@@ -0,0 +1,314 @@
+"""
+Region OCR - Read only the parts of a label that contain text
+
+A label photo is mostly artwork, bottle and background. Tesseract's full page
+analysis still has to look at every one of those pixels before it finds the
+few text blocks worth reading. This module finds the text blocks itself with
+a cheap layout pass (layout_analysis.find_text_regions), then:
+
+1. Crops each block out of the preprocessed image
+2. OCRs the crops in parallel - one block per CPU core at a time
+3. Stitches the text back together in reading order (top to bottom, left
+   to right) so VerificationService sees one block of text, as before
+
+    ┌──────────────────────────┐
+    │  ░░ artwork ░░           │        [OLD TOM DISTILLERY]   ──► core 1
+    │   OLD TOM DISTILLERY     │  ──►   [BOURBON WHISKEY]      ──► core 2
+    │  ░░░░░░░░░░░░░░░░░░░░░   │        [45% ALC/VOL  750 mL]  ──► core 3
+    │   BOURBON WHISKEY        │
+    │  ░░░░░░░░░░░░░░░░░░░░░   │
+    │   45% ALC/VOL   750 mL   │
+    └──────────────────────────┘
+
+Early Exit:
+-----------
+Because crops finish one at a time, the caller can look at the text read so
+far and decide it has seen enough (see VerificationService.early_exit_check).
+Only the crops read from the top without a gap count: with crop 2 still
+missing, crops 1 and 3 are not shown, as their joined text could match
+words that crop 2 would separate.
+Crops still waiting for a worker are then cancelled and the partial text is
+returned with "early_exit": True. Crops already being read run to completion
+in the background - Tesseract can't be interrupted mid-image - but their
+text is ignored.
+
+When to Skip It:
+----------------
+Region OCR falls back to reading the whole image when:
+- no text blocks are found (the detector may simply have missed them)
+- the blocks cover most of the image anyway (nothing to save)
+- there are so many blocks that per-crop overhead would outweigh the gain
+- every crop came back empty (better to let Tesseract look for itself)
+
+Configuration:
+--------------
+OCR_REGION_MODE          off (default) | on
+OCR_REGION_WORKERS       Crops OCR'd at the same time (default: CPU count)
+OCR_REGION_MAX_COVERAGE  Use the whole image if blocks cover more than this
+                         fraction of it (default 0.6)
+OCR_REGION_MAX_REGIONS   Use the whole image if there are more blocks (default 12)
+"""
+
+from concurrent.futures import ThreadPoolExecutor, TimeoutError as FuturesTimeoutError, as_completed
+import os
+import threading
+import time
+
+from deadline import DeadlineExceeded
+from layout_analysis import find_text_regions
+from ocr_words import combine_words, words_to_text
+
+
+class RegionOCR:
+    """
+    Runs OCR on detected text blocks instead of the whole image.
+    """
+
+    # Tesseract page segmentation mode for crops: "a single uniform block of
+    # text". The crop IS the block, so there's no layout left to analyze.
+    BLOCK_PSM = 6
+
+    def __init__(self, enabled=False, max_workers=None, max_coverage=0.6, max_regions=12):
+        """
+        Parameters:
+        -----------
+        enabled : bool
+            False always reads the whole image
+        max_workers : int, optional
+            Crops OCR'd concurrently across all requests (default: CPU count)
+        max_coverage : float
+            Fall back to the whole image above this fraction of its area
+        max_regions : int
+            Fall back to the whole image above this many blocks
+        """
+        self.enabled = enabled
+        self.max_workers = max_workers or os.cpu_count() or 1
+        self.max_coverage = max_coverage
+        self.max_regions = max_regions
+
+        # Created on first use so a disabled RegionOCR starts no threads
+        self._executor = None
+        self._lock = threading.Lock()
+
+        self.images = 0
+        self.regions = 0
+        self.fallbacks = 0
+        self.early_exits = 0
+        self.regions_skipped = 0
+        self.ocr_seconds_skipped = 0.0
+        self._area_read = 0.0
+
+    @classmethod
+    def from_env(cls):
+        """
+        Build from OCR_REGION_* environment variables (see module docstring).
+        """
+        max_workers = os.environ.get('OCR_REGION_WORKERS')
+        return cls(
+            enabled=os.environ.get('OCR_REGION_MODE', 'off') == 'on',
+            max_workers=int(max_workers) if max_workers else None,
+            max_coverage=float(os.environ.get('OCR_REGION_MAX_COVERAGE', 0.6)),
+            max_regions=int(os.environ.get('OCR_REGION_MAX_REGIONS', 12))
+        )
+
+    @property
+    def executor(self):
+        """
+        Thread pool shared by every request.
+
+        Threads are enough here: pytesseract waits on a tesseract process and
+        tesserocr releases the GIL while recognizing, so crops really do run
+        on separate cores. Sharing one pool caps the total OCR work in flight
+        no matter how many requests arrive at once.
+        """
+        with self._lock:
+            if self._executor is None:
+                self._executor = ThreadPoolExecutor(
+                    max_workers=self.max_workers,
+                    thread_name_prefix='ocr-region'
+                )
+            return self._executor
+
+    def signature(self):
+        """
+        Settings that change OCR output, for cache keys.
+        """
+        if not self.enabled:
+            return "regions=off"
+        return f"regions=psm{self.BLOCK_PSM}/{self.max_coverage}/{self.max_regions}"
+
+    def extract(self, engine, image, stop_when=None, deadline=None):
+        """
+        OCR the text blocks of a preprocessed image.
+
+        Parameters:
+        -----------
+        engine : OCREngine
+            The engine to run on each crop
+        image : PIL.Image
+            Output of OCRService._preprocess_image()
+        stop_when : callable, optional
+            Called with the text of the crops read so far without a gap (in
+            reading order) each time that text grows. Returning True stops
+            OCR early.
+        deadline : Deadline, optional
+            When it passes, crops still waiting are cancelled and
+            DeadlineExceeded is raised
+
+        Returns:
+        --------
+        dict or None
+            The usual {"success", "text", "error"} result, plus
+            "early_exit": True if stop_when ended OCR before every crop was
+            read. None if the caller should read the whole image instead.
+        """
+        regions = find_text_regions(image)
+
+        image_area = image.width * image.height
+        region_area = sum((right - left) * (bottom - top) for left, top, right, bottom in regions)
+        if (not regions or len(regions) > self.max_regions
+                or region_area > self.max_coverage * image_area):
+            self._record(fallback=True)
+            return None
+
+        # Submitted in reading order, so the queue reads the top of the
+        # label (usually brand and product type) first
+        futures = [
+            self.executor.submit(self._timed_extract, engine, image.crop(box), deadline)
+            for box in regions
+        ]
+        position = {future: index for index, future in enumerate(futures)}
+        results = [None] * len(futures)
+
+        early_exit = False
+        read_from_top = 0
+        try:
+            for future in as_completed(futures, timeout=deadline.remaining() if deadline else None):
+                result, seconds = future.result()
+                results[position[future]] = (result, seconds)
+
+                # An engine failure (e.g. Tesseract missing) fails the whole
+                # image, just as it would have without regions
+                if not result["success"] and result["error"] != engine.NO_TEXT_ERROR:
+                    self._cancel(futures)
+                    self._record(regions=len(regions), area=region_area / image_area)
+                    return result
+
+                finished = self._finished_from_top(results)
+                if stop_when and finished > read_from_top and stop_when(self._stitch(results[:finished])):
+                    early_exit = True
+                    break
+                read_from_top = finished
+        except (FuturesTimeoutError, DeadlineExceeded) as e:
+            # Out of time: free the pool for other requests
+            self._cancel(futures)
+            self._record(regions=len(regions), area=region_area / image_area)
+            raise DeadlineExceeded('ocr') from e
+
+        # Word boxes are relative to their crop - move them into the image
+        read = [(regions[index], entry[0]) for index, entry in enumerate(results)
+                if entry is not None and entry[0]["success"]]
+        words = combine_words(
+            [result["words"] for _, result in read],
+            [(box[0], box[1]) for box, _ in read]
+        )
+        if not words:
+            self._record(fallback=True)
+            return None
+
+        if early_exit:
+            self._record_early_exit(regions, results, self._cancel(futures))
+
+        self._record(regions=len(regions), area=region_area / image_area)
+        result = {
+            "success": True,
+            "text": words_to_text(words),
+            "error": None,
+            "words": words
+        }
+        if early_exit:
+            result["early_exit"] = True
+        return result
+
+    @staticmethod
+    def _timed_extract(engine, crop, deadline=None):
+        started = time.perf_counter()
+        result = engine.extract(crop, RegionOCR.BLOCK_PSM, deadline=deadline)
+        return result, time.perf_counter() - started
+
+    @staticmethod
+    def _finished_from_top(results):
+        """
+        How many crops, from the first in reading order, have finished.
+        """
+        for index, entry in enumerate(results):
+            if entry is None:
+                return index
+        return len(results)
+
+    @staticmethod
+    def _stitch(results):
+        """
+        Join the text of finished crops in reading order.
+        """
+        return "\n".join(
+            entry[0]["text"] for entry in results
+            if entry is not None and entry[0]["success"]
+        )
+
+    @staticmethod
+    def _cancel(futures):
+        """
+        Cancel crops that haven't started yet. Returns their positions.
+        """
+        return [index for index, future in enumerate(futures) if future.cancel()]
+
+    def _record_early_exit(self, regions, results, skipped):
+        """
+        Count the OCR work an early exit avoided.
+
+        Skipped time is an estimate: the seconds per pixel of the crops we
+        did read, times the pixels of the crops we cancelled.
+        """
+        def area(box):
+            left, top, right, bottom = box
+            return (right - left) * (bottom - top)
+
+        read = [(regions[index], entry[1]) for index, entry in enumerate(results) if entry is not None]
+        read_area = sum(area(box) for box, _ in read)
+        read_seconds = sum(seconds for _, seconds in read)
+        skipped_area = sum(area(regions[index]) for index in skipped)
+
+        with self._lock:
+            self.early_exits += 1
+            self.regions_skipped += len(skipped)
+            if read_area:
+                self.ocr_seconds_skipped += read_seconds * skipped_area / read_area
+
+    def stats(self):
+        """
+        Counters for monitoring (exposed on GET /stats).
+
+        area_read is the average fraction of the image that was OCR'd when
+        regions were used - 0.3 means Tesseract saw 30% of the pixels.
+        ocr_seconds_skipped estimates the OCR time early exits saved.
+        """
+        with self._lock:
+            used = self.images - self.fallbacks
+            return {
+                "enabled": self.enabled,
+                "images": self.images,
+                "whole_image_fallbacks": self.fallbacks,
+                "regions_read": self.regions,
+                "area_read": round(self._area_read / used, 4) if used else 0.0,
+                "early_exits": self.early_exits,
+                "regions_skipped": self.regions_skipped,
+                "ocr_seconds_skipped": round(self.ocr_seconds_skipped, 3)
+            }
+
+    def _record(self, fallback=False, regions=0, area=0.0):
+        with self._lock:
+            self.images += 1
+            self.fallbacks += fallback
+            self.regions += regions
+            self._area_read += area
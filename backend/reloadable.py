@@ -0,0 +1,176 @@
+"""
+Reloadable - A file read into an index, re-read when it changes
+
+The brand catalog (brand_registry.py) and the product type synonym table
+(product_synonyms.py) are files an operator edits while the server runs.
+Both are loaded the same way:
+
+- A loaded index is never changed. A reload builds a complete new index on
+  a background thread while requests keep using the old one, then swaps it
+  in with a single assignment - requests see either the old file or the
+  new one, never half of each, and never wait.
+- A file that fails to load leaves the old index in place.
+- Reloads happen on request (an HTTP endpoint), or by themselves when the
+  file's modification time changes, checked at most every check_seconds.
+  The check rides on reads of the index, so background job workers (other
+  processes) pick changes up too.
+
+Subclasses say how to read the file (read_index) and what to call it in
+logs (description).
+"""
+
+import logging
+import os
+import threading
+import time
+
+
+logger = logging.getLogger(__name__)
+
+
+class ReloadableFile:
+    """
+    The current index built from a file, and the loading and reloading of it.
+    """
+
+    # What the file is, for log messages and thread names
+    description = "file"
+
+    # Exceptions read_index raises for a file that can't be used
+    load_errors = (OSError, ValueError)
+
+    def __init__(self, path=None, check_seconds=30.0):
+        """
+        Parameters:
+        -----------
+        path : str, optional
+            The file to read. None = nothing to load (disabled).
+        check_seconds : float
+            How often to compare the file's modification time with the
+            loaded one. 0 = only reload on request.
+        """
+        self.path = path
+        self.check_seconds = check_seconds
+
+        # Replaced whole, never modified - see module docstring
+        self._index = None
+        self._loaded_mtime = None
+        self._last_check = time.monotonic()
+
+        self._lock = threading.Lock()
+        self._reloading = False
+        self.loads = 0
+        self.load_failures = 0
+        self.last_error = None
+        self.last_load_seconds = 0.0
+        self.loaded_at = None
+
+    def read_index(self, path):
+        """
+        Read the file into a new index. Must be overridden.
+
+        Raises one of load_errors if the file can't be used.
+        """
+        raise NotImplementedError
+
+    @property
+    def enabled(self):
+        return self.path is not None
+
+    @property
+    def index(self):
+        """
+        The current index, or None if nothing is loaded. Read it once per
+        operation: a reload may swap in a new one at any time.
+        """
+        self._reload_if_changed()
+        return self._index
+
+    def load(self):
+        """
+        Read the file now, then swap the new index in.
+
+        Returns:
+        --------
+        bool
+            False if the file couldn't be read; the previous index (if
+            any) stays in use
+        """
+        started = time.perf_counter()
+        try:
+            mtime = os.path.getmtime(self.path)
+            index = self.read_index(self.path)
+        except self.load_errors as e:
+            with self._lock:
+                self.load_failures += 1
+                self.last_error = str(e)
+            logger.warning("%s %s not loaded: %s", self.description.capitalize(), self.path, e)
+            return False
+
+        elapsed = time.perf_counter() - started
+        with self._lock:
+            self._index = index
+            self._loaded_mtime = mtime
+            self.loads += 1
+            self.last_error = None
+            self.last_load_seconds = elapsed
+            self.loaded_at = time.time()
+        logger.info("%s loaded: %d entries in %.2f s", self.description.capitalize(), len(index), elapsed)
+        return True
+
+    def reload_async(self):
+        """
+        Start a reload on a background thread, unless one is running.
+
+        Returns:
+        --------
+        bool
+            True if a reload was started
+        """
+        if not self.enabled:
+            return False
+        with self._lock:
+            if self._reloading:
+                return False
+            self._reloading = True
+
+        def reload():
+            try:
+                self.load()
+            finally:
+                with self._lock:
+                    self._reloading = False
+
+        name = self.description.replace(' ', '-') + '-reload'
+        threading.Thread(target=reload, name=name, daemon=True).start()
+        return True
+
+    def _reload_if_changed(self):
+        if not self.enabled or self.check_seconds <= 0:
+            return
+        now = time.monotonic()
+        if now - self._last_check < self.check_seconds:
+            return
+        self._last_check = now
+        try:
+            changed = os.path.getmtime(self.path) != self._loaded_mtime
+        except OSError:
+            return
+        if changed:
+            self.reload_async()
+
+    def stats(self):
+        """
+        Counters for monitoring (exposed on GET /stats).
+        """
+        with self._lock:
+            return {
+                "enabled": self.enabled,
+                "path": self.path,
+                "loads": self.loads,
+                "load_failures": self.load_failures,
+                "last_error": self.last_error,
+                "last_load_seconds": round(self.last_load_seconds, 3),
+                "loaded_at": self.loaded_at,
+                "reloading": self._reloading
+            }
@@ -0,0 +1,162 @@
+"""
+Resolution Normalization - Give Tesseract images at the size it reads best
+
+A modern phone photo is 12+ megapixels. Tesseract's running time grows with
+the number of pixels, yet it doesn't read better once text is big enough -
+it is most accurate when capital letters are roughly 20-40 pixels tall.
+Tiny images (thumbnails, screenshots) have the opposite problem: letters only
+a few pixels tall are guessed rather than read.
+
+Strategy:
+---------
+1. Decode big JPEGs at reduced size (Pillow's draft mode). The JPEG decoder
+   can skip detail and produce a 1/2, 1/4 or 1/8 size image directly, which
+   is much faster and uses far less memory than decoding everything and
+   shrinking afterwards.
+2. Estimate the typical text line height (layout_analysis.py).
+3. Scale the image so lines land near OCR_TARGET_TEXT_HEIGHT pixels.
+4. Keep the result within safe bounds: at most OCR_MAX_MEGAPIXELS, and a
+   long edge of at least OCR_MIN_LONG_EDGE pixels.
+
+If no text lines can be measured, only the bounds in step 4 apply.
+
+Off by default (OCR_RESIZE=1 turns it on): whether it pays depends on the
+labels. Measure accuracy and time on your own images first with
+benchmark_ocr.py --compare-resize.
+"""
+
+import math
+import os
+
+from PIL import Image
+
+from layout_analysis import estimate_text_height
+
+
+class ResolutionPolicy:
+    """
+    Decides how much to shrink or enlarge an image before OCR.
+    """
+
+    # Never scale by more than this in either direction in one go, so a bad
+    # text height estimate can't produce an absurd image
+    MIN_SCALE = 0.25
+    MAX_SCALE = 4.0
+
+    # Skip resizes this close to 1.0 - they cost time and change nothing
+    SCALE_TOLERANCE = 0.1
+
+    def __init__(self, enabled=False, target_text_height=32, max_megapixels=8.0, min_long_edge=1000):
+        """
+        Parameters:
+        -----------
+        enabled : bool
+            False leaves every image at its original size
+        target_text_height : int
+            Desired line height in pixels
+        max_megapixels : float
+            Upper bound on image size handed to OCR
+        min_long_edge : int
+            Images whose longer side is smaller than this are enlarged
+        """
+        self.enabled = enabled
+        self.target_text_height = target_text_height
+        self.max_pixels = int(max_megapixels * 1_000_000)
+        self.min_long_edge = min_long_edge
+
+    @classmethod
+    def from_env(cls):
+        """
+        Build a policy from environment variables.
+
+        OCR_RESIZE              1 to normalize resolution, 0 (default) to keep original size
+        OCR_TARGET_TEXT_HEIGHT  Desired text line height in pixels (default 32)
+        OCR_MAX_MEGAPIXELS      Largest image handed to OCR (default 8)
+        OCR_MIN_LONG_EDGE       Smallest long side before enlarging (default 1000)
+        """
+        return cls(
+            enabled=os.environ.get('OCR_RESIZE', '0') != '0',
+            target_text_height=int(os.environ.get('OCR_TARGET_TEXT_HEIGHT', 32)),
+            max_megapixels=float(os.environ.get('OCR_MAX_MEGAPIXELS', 8)),
+            min_long_edge=int(os.environ.get('OCR_MIN_LONG_EDGE', 1000))
+        )
+
+    def signature(self):
+        """
+        Settings that change OCR output, for cache keys.
+        """
+        if not self.enabled:
+            return "resize=off"
+        return f"resize={self.target_text_height}px/{self.max_pixels}px/{self.min_long_edge}px"
+
+    def draft(self, image):
+        """
+        Ask the JPEG decoder to decode an oversized image at reduced size.
+
+        Must be called after Image.open() and before the pixels are used.
+        draft() never goes below the requested size, so the image still has
+        at least max_pixels afterwards. Other formats are left alone.
+        """
+        if not self.enabled or image.format != 'JPEG':
+            return
+
+        width, height = image.size
+        if width * height <= self.max_pixels:
+            return
+
+        shrink = math.sqrt(width * height / self.max_pixels)
+        image.draft('L', (int(width / shrink), int(height / shrink)))
+
+    def apply(self, grayscale_image):
+        """
+        Resize a grayscale image to the target resolution.
+
+        Returns:
+        --------
+        tuple
+            (resized image, scale) - scale is new size / original size
+        """
+        if not self.enabled:
+            return grayscale_image, 1.0
+
+        scale = self.scale_for(grayscale_image)
+        if abs(scale - 1.0) <= self.SCALE_TOLERANCE:
+            return grayscale_image, 1.0
+
+        new_size = (
+            max(1, round(grayscale_image.width * scale)),
+            max(1, round(grayscale_image.height * scale))
+        )
+
+        if scale < 1.0:
+            # reducing_gap lets Pillow shrink in a fast first pass, then
+            # finish with the high-quality filter on the smaller image
+            resized = grayscale_image.resize(new_size, Image.LANCZOS, reducing_gap=3.0)
+        else:
+            resized = grayscale_image.resize(new_size, Image.BICUBIC)
+
+        return resized, scale
+
+    def scale_for(self, grayscale_image):
+        """
+        Work out the resize factor for an image (see module docstring).
+        """
+        width, height = grayscale_image.size
+
+        # Aim for the target text height when lines can be measured
+        text_height = estimate_text_height(grayscale_image)
+        if text_height:
+            scale = self.target_text_height / text_height
+            scale = min(self.MAX_SCALE, max(self.MIN_SCALE, scale))
+        else:
+            scale = 1.0
+
+        # Enlarge small images enough for OCR to see the letters
+        if max(width, height) * scale < self.min_long_edge:
+            scale = min(self.MAX_SCALE, self.min_long_edge / max(width, height))
+
+        # Never exceed the pixel budget - this bound wins over everything else
+        if width * height * scale * scale > self.max_pixels:
+            scale = math.sqrt(self.max_pixels / (width * height))
+
+        return scale
@@ -0,0 +1,232 @@
+"""
+Shared OCR Cache - An OCR result cache every server process can see
+
+The in-memory cache in ocr_cache.py only helps the process that filled it.
+With several gunicorn workers, or several containers behind Render's load
+balancer, a re-submitted image usually lands on a different process that
+has never seen it. A shared key-value store fixes that:
+
+    request ──► local LRU (this process) ──miss──► shared store (Redis) ──miss──► OCR
+                     ▲                                  ▲                          │
+                     └────────── store result ──────────┴──────────────────────────┘
+
+The local cache is still checked first - it answers in microseconds without
+a network round trip.
+
+Graceful Degradation:
+---------------------
+The shared store is an optimization, never a requirement. If it is down or
+slow, lookups fail fast (short socket timeout), the cache marks itself
+unavailable for a while, and requests carry on with the local cache only.
+After OCR_SHARED_CACHE_RETRY_SECONDS we try the store again.
+
+Configuration:
+--------------
+OCR_SHARED_CACHE_URL          redis://host:6379/0, or memory:// for the
+                              embedded stand-in (tests, local development).
+                              Unset = no shared cache.
+OCR_SHARED_CACHE_TTL_SECONDS  Entry lifetime in the store (default 86400)
+OCR_SHARED_CACHE_TIMEOUT_MS   Socket timeout per operation (default 100)
+OCR_SHARED_CACHE_RETRY_SECONDS  How long to stay local-only after a failure (default 30)
+"""
+
+import json
+import logging
+import os
+import threading
+import time
+
+
+logger = logging.getLogger(__name__)
+
+
+class InMemoryStore:
+    """
+    Embedded stand-in for Redis with the same get/set calls we use.
+
+    Lets tests and local development exercise the shared-cache code path
+    without running a Redis server. It is NOT shared between processes.
+    """
+
+    def __init__(self):
+        self._data = {}
+        self._lock = threading.Lock()
+
+    def get(self, key):
+        with self._lock:
+            entry = self._data.get(key)
+            if entry is None:
+                return None
+            value, expires_at = entry
+            if expires_at is not None and expires_at < time.monotonic():
+                del self._data[key]
+                return None
+            return value
+
+    def set(self, key, value, ex=None):
+        with self._lock:
+            expires_at = time.monotonic() + ex if ex else None
+            self._data[key] = (value, expires_at)
+
+
+def create_store(url, timeout_seconds):
+    """
+    Connect to the key-value store named by a URL.
+
+    Parameters:
+    -----------
+    url : str
+        redis://, rediss:// or unix:// for Redis (or any server speaking the
+        Redis protocol), memory:// for InMemoryStore
+    timeout_seconds : float
+        Connect and read timeout for each Redis operation
+    """
+    if url.startswith('memory://'):
+        return InMemoryStore()
+
+    # Imported here so the redis package is only needed when configured
+    import redis
+    return redis.Redis.from_url(
+        url,
+        socket_timeout=timeout_seconds,
+        socket_connect_timeout=timeout_seconds
+    )
+
+
+class SharedOCRCache:
+    """
+    Second-tier OCR cache in a shared key-value store, with automatic fallback.
+    """
+
+    # Namespace so our keys can't collide with other users of the same Redis
+    KEY_PREFIX = 'labelapp:ocr:'
+
+    def __init__(self, store, ttl_seconds=86400, retry_seconds=30):
+        """
+        Parameters:
+        -----------
+        store : object
+            Anything with get(key) and set(key, value, ex=seconds), such as
+            a redis.Redis client or an InMemoryStore
+        ttl_seconds : int
+            Entry lifetime in the store
+        retry_seconds : float
+            After a store error, skip the store for this long
+        """
+        self.store = store
+        self.ttl_seconds = int(ttl_seconds)
+        self.retry_seconds = retry_seconds
+
+        self._unavailable_until = 0.0
+        self._lock = threading.Lock()
+
+        self.hits = 0
+        self.misses = 0
+        self.errors = 0
+        self.skipped = 0
+
+    @classmethod
+    def from_env(cls):
+        """
+        Build the shared cache from environment variables, or None if it's
+        not configured or can't be set up.
+        """
+        url = os.environ.get('OCR_SHARED_CACHE_URL')
+        if not url:
+            return None
+
+        timeout_seconds = float(os.environ.get('OCR_SHARED_CACHE_TIMEOUT_MS', 100)) / 1000
+        try:
+            store = create_store(url, timeout_seconds)
+        except Exception as e:
+            # e.g. the redis package isn't installed, or the URL is malformed
+            logger.warning("Shared OCR cache disabled: %s", e)
+            return None
+
+        return cls(
+            store,
+            ttl_seconds=float(os.environ.get('OCR_SHARED_CACHE_TTL_SECONDS', 86400)),
+            retry_seconds=float(os.environ.get('OCR_SHARED_CACHE_RETRY_SECONDS', 30))
+        )
+
+    @property
+    def available(self):
+        """
+        False while we're backing off after a store error.
+        """
+        return time.monotonic() >= self._unavailable_until
+
+    def get(self, key):
+        """
+        Look up an OCR result. Returns None on a miss or if the store is down.
+        """
+        if not self.available:
+            self._count('skipped')
+            return None
+
+        try:
+            raw = self.store.get(self.KEY_PREFIX + key)
+        except Exception as e:
+            self._mark_unavailable(e)
+            return None
+
+        if raw is None:
+            self._count('misses')
+            return None
+
+        try:
+            result = json.loads(raw)
+        except ValueError:
+            # Corrupt or foreign value - treat it as a miss
+            self._count('misses')
+            return None
+
+        self._count('hits')
+        return result
+
+    def put(self, key, result):
+        """
+        Store an OCR result. Errors are swallowed - caching is best effort.
+        """
+        if not self.available:
+            self._count('skipped')
+            return
+
+        try:
+            self.store.set(self.KEY_PREFIX + key, json.dumps(result), ex=self.ttl_seconds)
+        except Exception as e:
+            self._mark_unavailable(e)
+
+    def stats(self):
+        """
+        Counters for monitoring (exposed on GET /stats).
+
+        skipped counts lookups and writes that went local-only because the
+        store was marked unavailable.
+        """
+        with self._lock:
+            return {
+                "enabled": True,
+                "available": self.available,
+                "hits": self.hits,
+                "misses": self.misses,
+                "errors": self.errors,
+                "skipped": self.skipped
+            }
+
+    def _count(self, counter):
+        with self._lock:
+            setattr(self, counter, getattr(self, counter) + 1)
+
+    def _mark_unavailable(self, error):
+        with self._lock:
+            self.errors += 1
+            was_available = time.monotonic() >= self._unavailable_until
+            self._unavailable_until = time.monotonic() + self.retry_seconds
+
+        # Log once per outage, not once per request
+        if was_available:
+            logger.warning(
+                "Shared OCR cache unreachable, using local cache only for %ss: %s",
+                self.retry_seconds, error
+            )
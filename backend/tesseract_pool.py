@@ -0,0 +1,127 @@
+"""
+Tesseract Pool - Keeps initialized in-process Tesseract engines warm
+
+The default OCR path (pytesseract) starts a brand new `tesseract` program for
+every image. Each start has to load the English language model from disk
+before it can read a single character, and that start-up cost is paid on
+every request.
+
+This module uses tesserocr, a Python binding for Tesseract's C++ API, to load
+the model ONCE and keep the engine in memory. Each engine (a "handle") can
+only work on one image at a time, so we keep a small pool of them:
+
+    Request A ──checkout──► [handle 1]   (busy)
+    Request B ──checkout──► [handle 2]   (busy)
+    Request C ──checkout──► waits until A or B returns its handle
+
+Why a Bounded Pool?
+-------------------
+- Each handle holds its own copy of the language model (~tens of MB)
+- More handles than CPU cores doesn't make OCR faster, it just uses memory
+- One handle per worker thread means a thread never waits on another's OCR
+"""
+
+from contextlib import contextmanager
+import queue
+import threading
+
+
+class TesseractAPIPool:
+    """
+    A fixed-size pool of initialized tesserocr.PyTessBaseAPI handles.
+
+    Handles are created lazily (on first use), so an app configured for the
+    subprocess engine never pays for loading them.
+    """
+
+    def __init__(self, size, lang='eng'):
+        """
+        Create an empty pool.
+
+        Parameters:
+        -----------
+        size : int
+            Maximum number of handles (usually one per worker thread)
+        lang : str
+            Tesseract language model to load into each handle
+        """
+        self.size = max(1, size)
+        self.lang = lang
+
+        # Idle handles wait here until a request checks one out
+        self._idle = queue.LifoQueue()
+
+        # How many handles exist in total (idle + checked out)
+        self._created = 0
+        self._lock = threading.Lock()
+
+    @contextmanager
+    def checkout(self):
+        """
+        Borrow a handle for the duration of a `with` block.
+
+        Usage:
+        ------
+            with pool.checkout() as api:
+                api.SetImage(image)
+                text = api.GetUTF8Text()
+
+        The handle is always returned to the pool, even if OCR raises.
+        """
+        api = self._acquire()
+        try:
+            yield api
+        finally:
+            # Drop the image we were given so an idle handle doesn't keep
+            # a large bitmap alive in memory
+            api.Clear()
+            self._idle.put(api)
+
+    def _acquire(self):
+        """
+        Take an idle handle, create a new one if under the limit, or wait.
+        """
+        try:
+            return self._idle.get_nowait()
+        except queue.Empty:
+            pass
+
+        with self._lock:
+            can_create = self._created < self.size
+            if can_create:
+                self._created += 1
+
+        if can_create:
+            try:
+                return self._create_handle()
+            except Exception:
+                # Give the slot back so a later request can retry
+                with self._lock:
+                    self._created -= 1
+                raise
+
+        # Pool is at capacity - block until another request returns a handle
+        return self._idle.get()
+
+    def _create_handle(self):
+        """
+        Load the language model into a new Tesseract engine.
+
+        tesserocr is imported here rather than at module level so the app
+        still starts on machines that only have the tesseract binary.
+        """
+        import tesserocr
+        return tesserocr.PyTessBaseAPI(lang=self.lang)
+
+    def close(self):
+        """
+        Release every idle handle's native memory.
+        """
+        while True:
+            try:
+                api = self._idle.get_nowait()
+            except queue.Empty:
+                break
+            api.End()
+            with self._lock:
+                self._created -= 1
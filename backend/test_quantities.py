@@ -0,0 +1,166 @@
+"""
+Checks for quantities.py and the numeric ABV / net contents fallback
+
+Usage:
+------
+    cd backend
+    python -m unittest test_quantities
+"""
+
+import random
+import unittest
+
+from quantities import QuantityMatcher, Quantity, abv_matcher, extract, parse_number, volume_matcher
+from verification_service import VerificationService
+
+
+def found(text):
+    """
+    (unit, number, text) of every quantity extract() finds in text.
+    """
+    return [(quantity.unit, quantity.number, quantity.text) for quantity in extract(text)]
+
+
+class ParseNumberTest(unittest.TestCase):
+
+    def test_plain_and_decimal_point(self):
+        self.assertEqual(parse_number("45"), (45.0, 0))
+        self.assertEqual(parse_number("45.00"), (45.0, 2))
+        self.assertEqual(parse_number("25.4"), (25.4, 1))
+
+    def test_decimal_comma(self):
+        self.assertEqual(parse_number("13,5"), (13.5, 1))
+        self.assertEqual(parse_number("1,75"), (1.75, 2))
+
+    def test_thousands_separator(self):
+        self.assertEqual(parse_number("1,750"), (1750.0, 0))
+        # A point before three digits stays a decimal point
+        self.assertEqual(parse_number("1.750"), (1.75, 3))
+
+
+class ExtractTest(unittest.TestCase):
+
+    def test_percent_followed_by_letters(self):
+        self.assertEqual(found("45.00%alc/vol"), [("%", 45.0, "45.00%")])
+        self.assertEqual(found("40%vol"), [("%", 40.0, "40%")])
+        self.assertEqual(found("13,5%vol"), [("%", 13.5, "13,5%")])
+
+    def test_percent_with_space(self):
+        self.assertEqual(found("alc. 45 % by vol."), [("%", 45.0, "45 %")])
+
+    def test_proof(self):
+        self.assertEqual(found("90 proof"), [("proof", 90.0, "90 proof")])
+        self.assertEqual(found("90° proof"), [("proof", 90.0, "90° proof")])
+
+    def test_volume_spellings(self):
+        self.assertEqual(found("750ml"), [("ml", 750.0, "750ml")])
+        self.assertEqual(found("75 cl"), [("cl", 75.0, "75 cl")])
+        self.assertEqual(found("1,75 l"), [("l", 1.75, "1,75 l")])
+        self.assertEqual(found("1,750 ml"), [("ml", 1750.0, "1,750 ml")])
+        self.assertEqual(found("25.4 fl. oz."), [("fl oz", 25.4, "25.4 fl. oz.")])
+        self.assertEqual(found("2 litres"), [("l", 2.0, "2 litres")])
+
+    def test_letter_units_end_the_word(self):
+        self.assertEqual(found("750 lager"), [])
+        self.assertEqual(found("12 ozark"), [])
+
+    def test_number_not_continued_from_before(self):
+        self.assertEqual(found("4.5%"), [("%", 4.5, "4.5%")])
+        self.assertEqual(found("145%"), [("%", 145.0, "145%")])
+
+    def test_one_scan_in_order(self):
+        self.assertEqual(
+            [quantity.text for quantity in extract("45% alc/vol (90 proof) 750 ml")],
+            ["45%", "90 proof", "750 ml"]
+        )
+
+
+class QuantityMatcherTest(unittest.TestCase):
+
+    def matching(self, matcher, text):
+        return [quantity.text for quantity in extract(text) if matcher.matches(quantity)]
+
+    def test_abv_equal_numbers(self):
+        self.assertEqual(self.matching(abv_matcher("45"), "45.00%alc/vol 90 proof 46% 4.5%"),
+                         ["45.00%", "90 proof"])
+        self.assertEqual(self.matching(abv_matcher("90 proof"), "45 % 45.5%"), ["45 %"])
+
+    def test_abv_same_unit_not_rounded(self):
+        self.assertEqual(self.matching(abv_matcher("45.5"), "46% 45.5%"), ["45.5%"])
+
+    def test_abv_tolerance(self):
+        self.assertEqual(self.matching(abv_matcher("40", 0.3), "40.3% 40.4% 80.6 proof 80.8 proof"),
+                         ["40.3%", "80.6 proof"])
+        self.assertEqual(self.matching(abv_matcher("40"), "40.4% 80.8 proof"), [])
+
+    def test_volume_across_units(self):
+        self.assertEqual(self.matching(volume_matcher("750 mL"), "75 cl 25.4 fl oz 0,75 l 700 ml"),
+                         ["75 cl", "25.4 fl oz", "0,75 l"])
+        # The form may be the rounded figure
+        self.assertEqual(self.matching(volume_matcher("25.4 fl oz"), "750 ml"), ["750 ml"])
+        self.assertEqual(self.matching(volume_matcher("1.8 fl oz"), "53 ml 50 ml"), ["53 ml"])
+        # ... but a whole form figure is exact: 350 ml is 11.8 fl oz
+        self.assertEqual(self.matching(volume_matcher("12 fl oz"), "355 ml 350 ml"), ["355 ml"])
+
+    def test_small_volume_rounding(self):
+        # 50 mL is 1.69 fl oz, printed "1.7" - 0.6% off
+        self.assertEqual(self.matching(volume_matcher("50 ml"), "1.7 fl oz 1.8 fl oz"), ["1.7 fl oz"])
+
+    def test_rounding_limit(self):
+        # 12 fl oz is 0.75 pint: rounded to whole pints it would be "1"
+        self.assertEqual(self.matching(volume_matcher("12 fl oz"), "1 pint"), [])
+        self.assertEqual(self.matching(volume_matcher("1 pint"), "12 oz 16 oz"), ["16 oz"])
+
+    def test_volume_tolerance(self):
+        self.assertEqual(self.matching(volume_matcher("750 ml", 0.01), "745 ml 758 ml"), ["745 ml"])
+
+    def test_kinds_never_mix(self):
+        matcher = QuantityMatcher(Quantity(45.0, 0, "%", 0, 0, "45%"))
+        self.assertEqual(self.matching(matcher, "45 ml 45 cl"), [])
+
+    def test_form_values_without_a_quantity(self):
+        self.assertIsNone(abv_matcher("abc"))
+        self.assertIsNone(volume_matcher("1 bottle"))
+
+
+class NumericFallbackTest(unittest.TestCase):
+    """
+    The numeric comparison only ever adds matches: where a field's pattern
+    matches as typed, the result is the same as without it.
+    """
+
+    TOKENS = ["old", "tom", "45", "45%", "45.0 %", "45.00%alc/vol", "90 proof", "4.5%", "145%", "750",
+              "ml", "750ml", "75 cl", "25.4 fl oz", "12 fl oz", "12 FL. OZ", "355 ml", "1,75 l", "1.5 l",
+              "\n", "%", "bourbon"]
+    ABVS = ["45", "45%", " 4.5 ", "1.5", "abc", "90 proof"]
+    VOLUMES = ["750 mL", "12 fl oz", "1.5 L", "bogus", "750", ".5 ml", "355ml", "1.75 l"]
+
+    def test_only_adds_matches(self):
+        service = VerificationService(compile_cache_size=0, max_edits={})
+        generator = random.Random(25)
+        added = 0
+
+        for _ in range(3000):
+            form = {"brand_name": "old tom", "product_type": "bourbon",
+                    "abv": generator.choice(self.ABVS), "net_contents": generator.choice(self.VOLUMES)}
+            text = service._normalize_text(
+                " ".join(generator.choice(self.TOKENS) for _ in range(generator.randint(0, 12)))
+            )
+            compiled = service.compile_form(form)
+            with_numeric = compiled.find(text)
+            numeric, compiled.numeric = compiled.numeric, {}
+            without = compiled.find(text)
+            compiled.numeric = numeric
+
+            for field in ("abv", "net_contents"):
+                if field in without:
+                    self.assertEqual(with_numeric.get(field), without[field], (form, text))
+                elif field in with_numeric:
+                    added += 1
+
+        # The fallback did find something the patterns missed
+        self.assertGreater(added, 0)
+
+
+if __name__ == '__main__':
+    unittest.main()
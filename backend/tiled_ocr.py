@@ -0,0 +1,424 @@
+"""
+Tiled OCR - Read very large label scans on several CPU cores at once
+
+Tesseract reads one image on one core. A wrap-around bottle label or a full
+COLA proof can be tens of megapixels, so it sits on a single core for a long
+time while the others idle. Tiling cuts the image into horizontal strips and
+reads them side by side:
+
+    ┌────────────────────────────┐
+    │ strip 1                    │ ──► worker process 1
+    ├╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌┤ ◄── overlap
+    │ strip 2                    │ ──► worker process 2
+    ├╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌╌┤
+    │ strip 3                    │ ──► worker process 3
+    └────────────────────────────┘
+
+Why Overlapping Strips?
+-----------------------
+A cut straight through a line of text leaves half a line in each strip and
+neither can read it. Neighboring strips therefore share OCR_TILE_OVERLAP
+pixels, enough that every line lies whole in at least one strip. Lines
+near the cut are then read twice; merge_strip_words() drops the copies.
+
+Why Processes Instead of Threads?
+---------------------------------
+Strips are big, so each one is a long, CPU-heavy OCR run. Separate
+processes give each strip a whole core no matter which engine is used.
+
+Only the web server process starts them, though. A background job or batch
+worker (job_service.py) is already one of a pool of processes sized to the
+CPUs: a process pool of its own in each would start up to CPUs × CPUs
+Tesseract runs. Worker processes (and anywhere processes can't be started)
+tile with a thread pool of OCR_TILE_MAX_WORKERS threads instead - they
+serve one request at a time, so that is all they can use.
+
+CPU Budget:
+-----------
+One huge scan must not take every core from everyone else. A request keeps
+at most OCR_TILE_MAX_WORKERS strips in flight at once; the rest wait their
+turn. The process pool itself is shared by all requests.
+
+Configuration:
+--------------
+OCR_TILE_MIN_MEGAPIXELS  Tile images larger than this (unset = tiling off)
+OCR_TILE_HEIGHT          Strip height in pixels, before overlap (default 1200)
+OCR_TILE_OVERLAP         Pixels shared by neighboring strips (default 120)
+OCR_TILE_MAX_WORKERS     Strips one request OCRs at the same time (default 4)
+OCR_TILE_PROCESSES       Size of the shared process pool (default: CPU count)
+
+Tiling looks at the image AFTER resolution normalization (resolution.py),
+which caps images at OCR_MAX_MEGAPIXELS - set the two together.
+"""
+
+from concurrent.futures import FIRST_COMPLETED, ProcessPoolExecutor, ThreadPoolExecutor, wait
+import difflib
+import logging
+import multiprocessing
+import os
+import re
+import threading
+
+from PIL import Image
+
+from deadline import Deadline, DeadlineExceeded
+from ocr_engines import ENGINES
+from ocr_words import combine_words, group_lines, words_to_text
+
+
+logger = logging.getLogger(__name__)
+
+
+# Engines created inside pool worker processes, by name and settings (one
+# per process)
+_worker_engines = {}
+
+
+def ocr_strip(engine_name, settings, mode, size, pixels, expires_at=None):
+    """
+    OCR one strip. Runs in a pool worker process.
+
+    The strip arrives as raw pixels rather than a PIL.Image so it is cheap
+    to send between processes. Each worker builds the caller's engine from
+    its name and settings (OCREngine.settings) on first use and keeps it
+    for later strips. expires_at is the request's deadline as a wall-clock
+    time (Deadline.wall_clock): time the strip spent waiting for a worker
+    is already used up, and a strip whose request has run out of time
+    isn't read at all.
+    """
+    key = (engine_name, tuple(sorted(settings.items())))
+    engine = _worker_engines.get(key)
+    if engine is None:
+        engine = _worker_engines[key] = ENGINES[engine_name](**settings)
+    deadline = None
+    if expires_at is not None:
+        deadline = Deadline.from_wall_clock(expires_at)
+        deadline.check('ocr')
+    return engine.extract(Image.frombytes(mode, size, pixels), deadline=deadline)
+
+
+def _normalize_line(line):
+    return re.sub(r'\s+', ' ', line).strip().lower()
+
+
+def _overlap_length(previous_lines, lines, max_lines):
+    """
+    How many leading lines of `lines` repeat the end of `previous_lines`.
+
+    Lines are compared loosely (SequenceMatcher ratio) because the two
+    strips may read the same line slightly differently.
+    """
+    longest = min(len(previous_lines), len(lines), max_lines)
+    for size in range(longest, 0, -1):
+        pairs = zip(previous_lines[-size:], lines[:size])
+        if all(difflib.SequenceMatcher(None, _normalize_line(a), _normalize_line(b)).ratio() >= 0.8
+               for a, b in pairs):
+            return size
+    return 0
+
+
+def merge_strip_words(word_lists, tops, max_overlap_lines=6):
+    """
+    Join strip words top to bottom, dropping lines read twice in overlaps.
+
+    Parameters:
+    -----------
+    word_lists : list of list of dict
+        OCR words of each strip, in strip order (see ocr_words.py)
+    tops : list of int
+        Top edge of each strip in the full image, to move boxes into it
+    max_overlap_lines : int
+        Most lines an overlap can hold
+
+    Returns:
+    --------
+    tuple
+        (merged words, number of duplicate lines dropped)
+
+    Example:
+    --------
+    strip 1: "OLD TOM DISTILLERY\\nBOURBON WHISKEY"
+    strip 2: "BOURBON WHISKEY\\n45% ALC/VOL"
+    merged:  "OLD TOM DISTILLERY\\nBOURBON WHISKEY\\n45% ALC/VOL"  (1 dropped)
+    """
+    kept_texts = []
+    kept_lines = []
+    dropped = 0
+    for words, top in zip(word_lists, tops):
+        lines = group_lines(words)
+        texts = [" ".join(word["text"] for word in line) for line in lines]
+        repeated = _overlap_length(kept_texts, texts, max_overlap_lines)
+        kept_texts.extend(texts[repeated:])
+        kept_lines.extend((line, top) for line in lines[repeated:])
+        dropped += repeated
+
+    merged = combine_words([line for line, _ in kept_lines], [(0, top) for _, top in kept_lines])
+    return merged, dropped
+
+
+class TiledOCR:
+    """
+    Splits large images into overlapping strips and OCRs them in parallel.
+    """
+
+    def __init__(self, min_megapixels=None, strip_height=1200, overlap=120,
+                 max_workers=4, processes=None):
+        """
+        Parameters:
+        -----------
+        min_megapixels : float or None
+            Only images larger than this are tiled. None disables tiling.
+        strip_height : int
+            Height of each strip before overlap, in pixels
+        overlap : int
+            Pixels shared by neighboring strips - at least one text line
+        max_workers : int
+            Strips of one request OCR'd at the same time (the CPU budget)
+        processes : int, optional
+            Size of the process pool shared by all requests (default: CPU count)
+        """
+        self.min_pixels = int(min_megapixels * 1_000_000) if min_megapixels else None
+        self.strip_height = strip_height
+        self.overlap = overlap
+        self.max_workers = max(1, max_workers)
+        self.processes = processes or os.cpu_count() or 1
+
+        # Created on first use so a server that never tiles starts no processes
+        self._executor = None
+        self._uses_processes = None
+        self._lock = threading.Lock()
+
+        self.images = 0
+        self.strips = 0
+        self.duplicate_lines = 0
+        self.early_exits = 0
+        self.strips_skipped = 0
+
+    @classmethod
+    def from_env(cls):
+        """
+        Build from OCR_TILE_* environment variables (see module docstring).
+        """
+        min_megapixels = os.environ.get('OCR_TILE_MIN_MEGAPIXELS')
+        processes = os.environ.get('OCR_TILE_PROCESSES')
+        return cls(
+            min_megapixels=float(min_megapixels) if min_megapixels else None,
+            strip_height=int(os.environ.get('OCR_TILE_HEIGHT', 1200)),
+            overlap=int(os.environ.get('OCR_TILE_OVERLAP', 120)),
+            max_workers=int(os.environ.get('OCR_TILE_MAX_WORKERS', 4)),
+            processes=int(processes) if processes else None
+        )
+
+    @property
+    def enabled(self):
+        return self.min_pixels is not None
+
+    def applies_to(self, image):
+        """
+        True if the image is big enough to be tiled.
+        """
+        return (self.enabled
+                and image.width * image.height > self.min_pixels
+                and image.height > self.strip_height + self.overlap)
+
+    def signature(self):
+        """
+        Settings that change OCR output, for cache keys.
+        """
+        if not self.enabled:
+            return "tiles=off"
+        return f"tiles={self.min_pixels}px/{self.strip_height}+{self.overlap}px"
+
+    @property
+    def executor(self):
+        """
+        The shared worker pool: processes if possible, threads otherwise.
+        """
+        with self._lock:
+            if self._executor is None:
+                self._executor, self._uses_processes = self._create_executor()
+            return self._executor
+
+    def _create_executor(self):
+        # Any process started by multiprocessing - a job or batch worker, or
+        # a benchmark's pool worker (daemons, which may not start children)
+        # - gets threads (see "Why Processes Instead of Threads?")
+        if multiprocessing.parent_process() is None:
+            try:
+                return ProcessPoolExecutor(
+                    max_workers=self.processes,
+                    mp_context=multiprocessing.get_context('spawn')
+                ), True
+            except (OSError, ValueError) as e:
+                logger.warning("Tiled OCR falling back to threads: %s", e)
+
+            return ThreadPoolExecutor(
+                max_workers=self.processes,
+                thread_name_prefix='ocr-tile'
+            ), False
+
+        return ThreadPoolExecutor(
+            max_workers=self.max_workers,
+            thread_name_prefix='ocr-tile'
+        ), False
+
+    def strip_boxes(self, image):
+        """
+        Crop boxes (left, top, right, bottom) of the overlapping strips.
+        """
+        boxes = []
+        top = 0
+        while top < image.height:
+            bottom = min(image.height, top + self.strip_height + self.overlap)
+            boxes.append((0, top, image.width, bottom))
+            if bottom == image.height:
+                break
+            top += self.strip_height
+        return boxes
+
+    def extract(self, engine, image, stop_when=None, deadline=None):
+        """
+        OCR a large preprocessed image strip by strip.
+
+        Parameters:
+        -----------
+        engine : OCREngine
+            Used directly by the thread pool; process workers build their
+            own engine with the same name and settings
+        image : PIL.Image
+            Output of OCRService._preprocess_image()
+        stop_when : callable, optional
+            Given the merged text of the strips read so far without a gap
+            from the top, returns True to stop early (see
+            VerificationService.early_exit_check)
+        deadline : Deadline, optional
+            When it passes, strips not yet started are cancelled and
+            DeadlineExceeded is raised
+
+        Returns:
+        --------
+        dict
+            The usual {"success", "text", "error", "words"} result, plus
+            "early_exit": True if stop_when ended OCR early
+        """
+        executor = self.executor
+        boxes = self.strip_boxes(image)
+        strips = [image.crop(box) for box in boxes]
+
+        def submit(strip):
+            if self._uses_processes:
+                return executor.submit(
+                    ocr_strip, engine.name, engine.settings(), strip.mode, strip.size, strip.tobytes(),
+                    deadline.wall_clock() if deadline else None
+                )
+            return executor.submit(engine.extract, strip, deadline=deadline)
+
+        results = [None] * len(strips)
+        position = {}
+        next_strip = 0
+        in_flight = set()
+        early_exit = False
+        read_from_top = 0
+
+        while next_strip < len(strips) or in_flight:
+            # Keep up to max_workers strips of THIS request running
+            while next_strip < len(strips) and len(in_flight) < self.max_workers:
+                future = submit(strips[next_strip])
+                position[future] = next_strip
+                in_flight.add(future)
+                next_strip += 1
+
+            done, in_flight = wait(
+                in_flight,
+                timeout=deadline.remaining() if deadline else None,
+                return_when=FIRST_COMPLETED
+            )
+            try:
+                if not done:
+                    # wait() only returns empty-handed when the time is up
+                    raise DeadlineExceeded('ocr')
+                for future in done:
+                    results[position[future]] = future.result()
+            except DeadlineExceeded:
+                for pending in in_flight:
+                    pending.cancel()
+                self._record(len(strips), 0)
+                raise
+
+            for future in done:
+                result = results[position[future]]
+
+                # An engine failure (e.g. Tesseract missing) fails the image
+                if not result["success"] and result["error"] != engine.NO_TEXT_ERROR:
+                    for pending in in_flight:
+                        pending.cancel()
+                    self._record(len(strips), 0)
+                    return result
+
+            # Only strips read from the top without a gap: text either side
+            # of a strip still being read must not be joined
+            finished = next((index for index, result in enumerate(results) if result is None), len(results))
+            if stop_when and finished > read_from_top \
+                    and stop_when(words_to_text(self._merge(results[:finished], boxes)[0])):
+                early_exit = True
+                break
+            read_from_top = finished
+
+        words, duplicates = self._merge(results, boxes)
+
+        skipped = 0
+        if early_exit:
+            skipped = len(strips) - next_strip + sum(future.cancel() for future in in_flight)
+        self._record(len(strips), duplicates, early_exit, skipped)
+
+        if not words:
+            return {
+                "success": False,
+                "text": "",
+                "error": engine.NO_TEXT_ERROR
+            }
+
+        result = {
+            "success": True,
+            "text": words_to_text(words),
+            "error": None,
+            "words": words
+        }
+        if early_exit:
+            result["early_exit"] = True
+        return result
+
+    @staticmethod
+    def _merge(results, boxes):
+        """
+        Merge the words of finished strips, in strip order.
+        """
+        finished = [(result, box) for result, box in zip(results, boxes)
+                    if result is not None and result["success"]]
+        return merge_strip_words(
+            [result["words"] for result, _ in finished],
+            [box[1] for _, box in finished]
+        )
+
+    def stats(self):
+        """
+        Counters for monitoring (exposed on GET /stats).
+        """
+        with self._lock:
+            return {
+                "enabled": self.enabled,
+                "pool": None if self._executor is None else ("processes" if self._uses_processes else "threads"),
+                "images": self.images,
+                "strips": self.strips,
+                "duplicate_lines_dropped": self.duplicate_lines,
+                "early_exits": self.early_exits,
+                "strips_skipped": self.strips_skipped
+            }
+
+    def _record(self, strips, duplicates, early_exit=False, skipped=0):
+        with self._lock:
+            self.images += 1
+            self.strips += strips
+            self.duplicate_lines += duplicates
+            self.early_exits += early_exit
+            self.strips_skipped += skipped
@@ -0,0 +1,399 @@
+"""
+Tracing - A timeline of where each request spent its time
+
+/metrics tells us that OCR is slow ON AVERAGE. When one user reports "my
+label took 40 seconds", we need that request's own timeline:
+
+    POST /verify                                   41.2 s   trace 4bf92f35...
+    ├── upload_parse                                0.1 s
+    ├── ocr.extract                                40.8 s
+    │   └── ocr.rung  rung=contrast cache=miss     40.8 s
+    │       ├── decode                              0.3 s
+    │       ├── normalize                           0.2 s
+    │       ├── preprocess                          0.1 s
+    │       └── ocr.engine  mode=whole             40.2 s   ◄── here
+    └── verify_label                                0.002 s
+
+Each box is a "span": a named, timed step with a few attributes. Spans nest
+inside the span that was active when they started, and all spans of one
+request share a trace id. The id is returned in the X-Trace-Id response
+header, so a user complaint ("it failed, trace 4bf92f35...") leads straight
+to its timeline.
+
+Span and trace ids, and the OTLP export, follow OpenTelemetry conventions,
+so traces can go to any OpenTelemetry collector (Jaeger, Tempo, ...) without
+adding the OpenTelemetry SDK to this app. A client that already has a trace
+can continue it by sending a W3C traceparent header.
+
+Exporters:
+----------
+jsonl  One JSON object per finished request, appended to a file:
+       {"trace_id": "...", "spans": [{"name", "span_id", "parent_id",
+        "start", "duration_ms", "attributes", "status"}, ...]}
+otlp   POST to an OTLP/HTTP collector in its JSON encoding
+       (e.g. http://localhost:4318/v1/traces)
+
+Exporting happens on a background thread, so a slow collector or disk never
+delays a response. If the export queue is full, traces are dropped and
+counted rather than waited for.
+
+Configuration:
+--------------
+TRACE_EXPORT         off (default) | jsonl | otlp | jsonl,otlp
+TRACE_JSONL_PATH     File for the jsonl exporter (default traces.jsonl)
+TRACE_OTLP_ENDPOINT  Collector URL (default http://localhost:4318/v1/traces)
+TRACE_SERVICE_NAME   service.name reported to the collector (default label-verifier)
+
+Note: background jobs and batches run in worker processes and aren't traced.
+"""
+
+from contextlib import contextmanager
+import contextvars
+import json
+import logging
+import os
+import queue
+import random
+import re
+import threading
+import time
+import urllib.request
+
+
+logger = logging.getLogger(__name__)
+
+
+# Response header carrying the trace id
+TRACE_HEADER = 'X-Trace-Id'
+
+# W3C trace context: version-traceid-parentid-flags
+TRACEPARENT_PATTERN = re.compile(r'^00-([0-9a-f]{32})-([0-9a-f]{16})-[0-9a-f]{2}$')
+
+# The span new spans nest under, per thread / request
+_current_span = contextvars.ContextVar('current_span', default=None)
+
+
+def _new_id(bits):
+    return f'{random.getrandbits(bits):0{bits // 4}x}'
+
+
+class Span:
+    """
+    One timed step of a request.
+    """
+
+    def __init__(self, name, trace, parent_id=None, attributes=None):
+        self.name = name
+        self.trace = trace
+        self.span_id = _new_id(64)
+        self.parent_id = parent_id
+        self.attributes = dict(attributes or {})
+        self.status = 'ok'
+        self.start_ns = time.time_ns()
+        self.end_ns = None
+
+    @property
+    def trace_id(self):
+        return self.trace.trace_id
+
+    def set(self, **attributes):
+        """
+        Add attributes, e.g. span.set(cache='hit').
+        """
+        self.attributes.update(attributes)
+
+    def to_dict(self):
+        return {
+            "name": self.name,
+            "span_id": self.span_id,
+            "parent_id": self.parent_id,
+            "start": self.start_ns / 1e9,
+            "duration_ms": round((self.end_ns - self.start_ns) / 1e6, 3),
+            "attributes": self.attributes,
+            "status": self.status
+        }
+
+
+class _NoSpan:
+    """
+    Stands in for a Span when nothing is being traced, so callers can
+    always call span.set().
+    """
+
+    def set(self, **attributes):
+        pass
+
+
+NO_SPAN = _NoSpan()
+
+
+class Trace:
+    """
+    The spans of one request, collected until its root span ends.
+    """
+
+    def __init__(self, trace_id=None, remote_parent_id=None):
+        self.trace_id = trace_id or _new_id(128)
+        self.remote_parent_id = remote_parent_id
+        self.spans = []
+        self._lock = threading.Lock()
+
+    def add(self, span):
+        with self._lock:
+            self.spans.append(span)
+
+
+class JSONLinesExporter:
+    """
+    Appends each trace to a file as one line of JSON.
+    """
+
+    def __init__(self, path):
+        self.path = path
+
+    def export(self, trace):
+        record = {
+            "trace_id": trace.trace_id,
+            "spans": [span.to_dict() for span in trace.spans]
+        }
+        with open(self.path, 'a', encoding='utf-8') as trace_file:
+            trace_file.write(json.dumps(record) + "\n")
+
+
+class OTLPHTTPExporter:
+    """
+    Sends each trace to an OpenTelemetry collector (OTLP/HTTP, JSON encoding).
+    """
+
+    # OTLP span kinds and status codes
+    KIND_INTERNAL = 1
+    KIND_SERVER = 2
+    STATUS_OK = 1
+    STATUS_ERROR = 2
+
+    def __init__(self, endpoint, service_name, timeout_seconds=2.0):
+        self.endpoint = endpoint
+        self.service_name = service_name
+        self.timeout_seconds = timeout_seconds
+
+    @staticmethod
+    def _attribute(key, value):
+        if isinstance(value, bool):
+            encoded = {"boolValue": value}
+        elif isinstance(value, int):
+            encoded = {"intValue": str(value)}
+        elif isinstance(value, float):
+            encoded = {"doubleValue": value}
+        else:
+            encoded = {"stringValue": str(value)}
+        return {"key": key, "value": encoded}
+
+    def _span(self, span):
+        encoded = {
+            "traceId": span.trace_id,
+            "spanId": span.span_id,
+            "name": span.name,
+            # The root span's parent (if any) lives in the calling service
+            "kind": self.KIND_SERVER if span.parent_id == span.trace.remote_parent_id else self.KIND_INTERNAL,
+            "startTimeUnixNano": str(span.start_ns),
+            "endTimeUnixNano": str(span.end_ns),
+            "attributes": [self._attribute(key, value) for key, value in span.attributes.items()],
+            "status": {"code": self.STATUS_ERROR if span.status == 'error' else self.STATUS_OK}
+        }
+        if span.parent_id:
+            encoded["parentSpanId"] = span.parent_id
+        return encoded
+
+    def export(self, trace):
+        body = {
+            "resourceSpans": [{
+                "resource": {"attributes": [self._attribute("service.name", self.service_name)]},
+                "scopeSpans": [{
+                    "scope": {"name": "label-verifier.tracing"},
+                    "spans": [self._span(span) for span in trace.spans]
+                }]
+            }]
+        }
+        request = urllib.request.Request(
+            self.endpoint,
+            data=json.dumps(body).encode('utf-8'),
+            headers={"Content-Type": "application/json"},
+            method='POST'
+        )
+        with urllib.request.urlopen(request, timeout=self.timeout_seconds):
+            pass
+
+
+class Tracer:
+    """
+    Creates spans and hands finished traces to the exporters.
+    """
+
+    def __init__(self, exporters=(), max_queue=1000):
+        """
+        Parameters:
+        -----------
+        exporters : sequence
+            Objects with an export(trace) method. None = tracing off.
+        max_queue : int
+            Finished traces waiting for export before new ones are dropped
+        """
+        self.exporters = list(exporters)
+        self._queue = queue.Queue(maxsize=max_queue)
+        self._worker = None
+        self._lock = threading.Lock()
+
+        self.traces = 0
+        self.dropped = 0
+        self.export_errors = 0
+
+    @classmethod
+    def from_env(cls):
+        """
+        Build from TRACE_* environment variables (see module docstring).
+        """
+        names = [name.strip() for name in os.environ.get('TRACE_EXPORT', 'off').split(',')]
+        exporters = []
+        if 'jsonl' in names:
+            exporters.append(JSONLinesExporter(os.environ.get('TRACE_JSONL_PATH', 'traces.jsonl')))
+        if 'otlp' in names:
+            exporters.append(OTLPHTTPExporter(
+                os.environ.get('TRACE_OTLP_ENDPOINT', 'http://localhost:4318/v1/traces'),
+                os.environ.get('TRACE_SERVICE_NAME', 'label-verifier')
+            ))
+        return cls(exporters)
+
+    @property
+    def enabled(self):
+        return bool(self.exporters)
+
+    def start_trace(self, name, traceparent=None, **attributes):
+        """
+        Start a request's root span and make it the current span.
+
+        Use when the start and end of the request are in different places
+        (e.g. Flask's before_request and teardown_request hooks); otherwise
+        use span().
+
+        Parameters:
+        -----------
+        traceparent : str, optional
+            W3C traceparent header of the incoming request. When valid, the
+            request joins the caller's trace instead of starting a new one.
+
+        Returns:
+        --------
+        tuple or None
+            Handle for end_trace(); None if tracing is off
+        """
+        if not self.enabled:
+            return None
+
+        match = TRACEPARENT_PATTERN.match((traceparent or '').strip().lower())
+        trace = Trace(*match.groups()) if match else Trace()
+        root = Span(name, trace, trace.remote_parent_id, attributes)
+        return root, _current_span.set(root)
+
+    def end_trace(self, handle, error=None):
+        """
+        End the root span started by start_trace() and queue the trace
+        for export.
+        """
+        if handle is None:
+            return
+        root, token = handle
+        _current_span.reset(token)
+        self._finish(root, error)
+
+        with self._lock:
+            self.traces += 1
+        try:
+            self._queue.put_nowait(root.trace)
+        except queue.Full:
+            with self._lock:
+                self.dropped += 1
+            return
+        self._ensure_worker()
+
+    @contextmanager
+    def span(self, name, **attributes):
+        """
+        Time a block as a child of the current span.
+
+        Yields the Span, to add attributes found along the way. Outside a
+        trace (tracing off, a script, a worker process) it yields NO_SPAN
+        and costs next to nothing.
+
+            with tracer.span('ocr.engine') as span:
+                ...
+                span.set(words=len(words))
+        """
+        parent = _current_span.get()
+        if parent is None:
+            yield NO_SPAN
+            return
+
+        span = Span(name, parent.trace, parent.span_id, attributes)
+        token = _current_span.set(span)
+        error = None
+        try:
+            yield span
+        except BaseException as e:
+            error = e
+            raise
+        finally:
+            _current_span.reset(token)
+            self._finish(span, error)
+
+    def current_trace_id(self):
+        """
+        Trace id of the current request, or None.
+        """
+        span = _current_span.get()
+        return span.trace_id if span else None
+
+    @staticmethod
+    def _finish(span, error):
+        span.end_ns = time.time_ns()
+        if error is not None:
+            span.status = 'error'
+            span.attributes['error.type'] = type(error).__name__
+        span.trace.add(span)
+
+    def _ensure_worker(self):
+        with self._lock:
+            if self._worker is None:
+                self._worker = threading.Thread(target=self._export_loop, name='trace-export', daemon=True)
+                self._worker.start()
+
+    def _export_loop(self):
+        while True:
+            trace = self._queue.get()
+            # Parents end after their children, so the root is last; put
+            # spans in start order to read as a timeline
+            trace.spans.sort(key=lambda span: span.start_ns)
+            for exporter in self.exporters:
+                try:
+                    exporter.export(trace)
+                except Exception as e:
+                    with self._lock:
+                        self.export_errors += 1
+                    logger.warning("Trace export to %s failed: %s", type(exporter).__name__, e)
+
+    def stats(self):
+        """
+        Counters for monitoring (exposed on GET /stats).
+        """
+        with self._lock:
+            return {
+                "enabled": self.enabled,
+                "exporters": [type(exporter).__name__ for exporter in self.exporters],
+                "traces": self.traces,
+                "dropped": self.dropped,
+                "export_errors": self.export_errors,
+                "queued": self._queue.qsize()
+            }
+
+
+# Create singleton instance
+tracer = Tracer.from_env()
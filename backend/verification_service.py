@@ -32,8 +32,17 @@ Cons:
 We document these trade-offs and keep matching simple per project requirements.
 """
 
+import os
 import re
 
+from brand_registry import BrandRegistry
+from form_matcher import CompiledForm, CompiledFormCache
+from fuzzy_match import ApproximatePattern, allowed_distance, lookalike_pattern
+from ocr_words import bounding_box, words_in_span
+from product_synonyms import SynonymTable
+from quantities import abv_matcher, volume_matcher
+from tracing import tracer
+
 
 class VerificationService:
     """
@@ -46,20 +55,93 @@ class VerificationService:
     - Can be extended with more sophisticated matching later
     """
 
-    def __init__(self):
+    # Fields that must match for overall_match
+    REQUIRED_FIELDS = ["brand_name", "product_type", "abv"]
+
+    # How much of the label OCR must have read before it may stop early:
+    # off              - always read the whole label
+    # required         - stop once every required field matched
+    # required+warning - ... and the government warning was found
+    EARLY_EXIT_MODES = ('off', 'required', 'required+warning')
+
+    # Form fields a compiled form depends on (see compile_form)
+    FORM_FIELDS = ("brand_name", "product_type", "abv", "net_contents")
+
+    # "GOVERNMENT WARNING" with common OCR errors (see _check_government_warning)
+    GOVERNMENT_WARNING_PATTERN = re.compile(r'gov[et\']?[eo]?rn?m[em]?nt\s*warn?ing', re.IGNORECASE)
+
+    # Fields that may match approximately, and the environment variable
+    # holding the most edits (misread characters) each may need
+    FUZZY_FIELDS = {
+        "brand_name": 'VERIFY_BRAND_MAX_EDITS',
+        "product_type": 'VERIFY_PRODUCT_TYPE_MAX_EDITS'
+    }
+
+    # Fields compared as numbers (see quantities.py), and the environment
+    # variable holding how far apart the form and the label may be: ABV in
+    # percentage points, net contents as a fraction of the label's figure
+    NUMERIC_FIELDS = {
+        "abv": 'VERIFY_ABV_TOLERANCE',
+        "net_contents": 'VERIFY_VOLUME_TOLERANCE'
+    }
+
+    def __init__(self, early_exit_mode=None, compile_cache_size=None, max_edits=None, registry=None,
+                 synonyms=None, tolerances=None):
         """
         Initialize the verification service.
 
+        Parameters:
+        -----------
+        early_exit_mode : str, optional
+            One of EARLY_EXIT_MODES. Defaults to the VERIFY_EARLY_EXIT
+            environment variable, or 'off' if unset.
+        compile_cache_size : int, optional
+            Compiled forms to keep (see form_matcher.py). Defaults to the
+            VERIFY_COMPILE_CACHE_SIZE environment variable, or 256.
+        max_edits : dict, optional
+            FUZZY_FIELDS name → most edits a match may need (see
+            fuzzy_match.py). Defaults to the environment variables in
+            FUZZY_FIELDS, or 0 (exact matches only).
+        registry : BrandRegistry, optional
+            Catalog of registered brands (see brand_registry.py). Defaults
+            to the one BRAND_REGISTRY_PATH names, if any.
+        synonyms : SynonymTable, optional
+            Other names for product types (see product_synonyms.py).
+            Defaults to the table PRODUCT_SYNONYMS_PATH names, or the
+            bundled one.
+        tolerances : dict, optional
+            NUMERIC_FIELDS name → how far apart form and label may be.
+            Defaults to the environment variables in NUMERIC_FIELDS, or 0
+            (equal, allowing for rounding between units).
+
         We could add configuration here like:
         - Matching strictness level (strict, medium, loose)
         - Custom regex patterns
-        - Required vs optional fields
-
-        For now, we keep it simple with default behavior.
         """
-        pass
+        early_exit_mode = early_exit_mode or os.environ.get('VERIFY_EARLY_EXIT', 'off')
+        if early_exit_mode not in self.EARLY_EXIT_MODES:
+            raise ValueError(
+                f"Unknown early exit mode '{early_exit_mode}'. "
+                f"Choose one of: {', '.join(self.EARLY_EXIT_MODES)}"
+            )
+        self.early_exit_mode = early_exit_mode
+
+        if compile_cache_size is None:
+            compile_cache_size = int(os.environ.get('VERIFY_COMPILE_CACHE_SIZE', 256))
+        self.compiled_forms = CompiledFormCache(compile_cache_size)
+
+        if max_edits is None:
+            max_edits = {field: int(os.environ.get(variable, 0)) for field, variable in self.FUZZY_FIELDS.items()}
+        self.max_edits = {field: max_edits.get(field, 0) for field in self.FUZZY_FIELDS}
+
+        self.registry = registry if registry is not None else BrandRegistry.from_env()
+        self.synonyms = synonyms if synonyms is not None else SynonymTable.from_env()
 
-    def verify_label(self, form_data, ocr_text):
+        if tolerances is None:
+            tolerances = {field: float(os.environ.get(variable, 0)) for field, variable in self.NUMERIC_FIELDS.items()}
+        self.tolerances = {field: tolerances.get(field, 0.0) for field in self.NUMERIC_FIELDS}
+
+    def verify_label(self, form_data, ocr_text, words=None):
         """
         Verify that form data matches the OCR extracted text.
 
@@ -77,6 +159,16 @@ class VerificationService:
         ocr_text : str
             Raw text extracted from the label image by OCR
 
+        words : list, optional
+            The OCR words ocr_text was built from (see ocr_words.py). When
+            given, every matched field reports where on the label it was
+            found: "box" [left, top, right, bottom] and "confidence" (the
+            lowest word confidence in the match, 0-100).
+
+        Every matched field reports "span", the character range of the match
+        in the normalized OCR text (lowercase, whitespace collapsed to single
+        spaces - see _normalize_text).
+
         Returns:
         --------
         dict
@@ -86,11 +178,18 @@ class VerificationService:
                     "brand_name": {
                         "match": bool,
                         "expected": str,
-                        "found": str or None
+                        "found": str or None,
+                        "span": [start, end],    # if matched, see below
+                        "distance": int,         # brand name / product type, if matched
+                        "synonym": bool,         # product type, if matched
+                        "box": [l, t, r, b],     # only with words, if matched
+                        "confidence": float      # only with words, if matched
                     },
                     # ... similar for other fields
                 },
-                "ocr_text": str              # Include for debugging
+                "ocr_text": str,             # Include for debugging
+                "registry": {...}            # only with a brand catalog, see
+                                             # BrandRegistry.check
             }
 
         Verification Process:
@@ -98,17 +197,23 @@ class VerificationService:
         1. Normalize both form inputs and OCR text (lowercase, strip whitespace)
         2. Check each field:
            - Brand Name: substring match
-           - Product Type: substring match
-           - ABV: regex pattern match for percentage
-           - Net Contents: regex pattern match for volume
+           - Product Type: substring match, or one of its synonyms
+           - ABV: regex pattern match for percentage, or the same number
+             of percent / proof
+           - Net Contents: regex pattern match for volume, or the same
+             volume in any unit
            - Government Warning: check for "GOVERNMENT WARNING" (optional)
         3. Combine results into overall match status
         """
 
+        # The form's patterns are compiled once and cached (see compile_form)
+        compiled = self.compile_form(form_data)
+
         # Normalize the OCR text once (we'll use this for all comparisons)
         # Normalization: convert to lowercase and remove extra whitespace
         # This makes matching case-insensitive and whitespace-tolerant
-        normalized_ocr = self._normalize_text(ocr_text)
+        with tracer.span('verify.normalize', characters=len(ocr_text)):
+            normalized_ocr = self._normalize_text(ocr_text)
 
         # Initialize results structure
         results = {
@@ -117,47 +222,338 @@ class VerificationService:
             "ocr_text": ocr_text  # Include for debugging/transparency
         }
 
-        # Check Brand Name (REQUIRED)
-        results["details"]["brand_name"] = self._check_brand_name(
-            form_data.get("brand_name", ""),
-            normalized_ocr
-        )
-
-        # Check Product Type (REQUIRED)
-        results["details"]["product_type"] = self._check_product_type(
-            form_data.get("product_type", ""),
-            normalized_ocr
-        )
-
-        # Check ABV (REQUIRED)
-        results["details"]["abv"] = self._check_abv(
-            form_data.get("abv", ""),
-            normalized_ocr
-        )
-
-        # Check Net Contents (OPTIONAL - only if provided)
-        if form_data.get("net_contents"):
-            results["details"]["net_contents"] = self._check_net_contents(
-                form_data.get("net_contents"),
-                normalized_ocr
-            )
-
-        # Check Government Warning (OPTIONAL - simple check)
-        results["details"]["government_warning"] = self._check_government_warning(
-            normalized_ocr
-        )
+        # The field checks are the "matching" part of a request's timeline
+        with tracer.span('verify.match') as span:
+            found = compiled.find(normalized_ocr)
+
+            # Brand name, product type and ABV are REQUIRED; net contents is
+            # only checked if provided; the warning is a simple check
+            for field in ("brand_name", "product_type", "abv", "net_contents", "government_warning"):
+                if field == "net_contents" and not form_data.get("net_contents"):
+                    continue
+                results["details"][field] = self._field_result(compiled, field, found.get(field))
+
+            span.set(matched=sum(detail["match"] for detail in results["details"].values()))
+
+        # What the brand catalog says, if one is loaded. Informational only:
+        # it doesn't change overall_match.
+        if self.registry.enabled:
+            with tracer.span('verify.registry'):
+                registry_result = self.registry.check(
+                    form_data.get("brand_name"),
+                    form_data.get("product_type"),
+                    normalized_ocr
+                )
+            if registry_result is not None:
+                results["registry"] = registry_result
+
+        # Point each match back at the words it came from
+        if words:
+            with tracer.span('verify.attach_boxes', words=len(words)):
+                self._attach_boxes(results["details"], words, normalized_ocr)
 
         # Determine overall match
         # Required fields: brand_name, product_type, abv
         # Optional fields don't affect overall match
-        required_fields = ["brand_name", "product_type", "abv"]
-        for field in required_fields:
+        for field in self.REQUIRED_FIELDS:
             if not results["details"][field]["match"]:
                 results["overall_match"] = False
                 break
 
         return results
 
+    def early_exit_check(self, form_data):
+        """
+        Build a test that tells OCR when it has read enough of a label.
+
+        Parameters:
+        -----------
+        form_data : dict
+            The same form inputs later passed to verify_label()
+
+        Returns:
+        --------
+        callable or None
+            A function taking the OCR text read so far and returning True
+            once every required field (and, in 'required+warning' mode, the
+            government warning) matches it. None when early exit is off.
+
+        Why Is This Safe?
+        -----------------
+        The text passed in must be a beginning of the label's text: the
+        pieces read from the top, with none missing in between (tiled and
+        region OCR only pass those). Reading on only adds text after it, so
+        a field found in it is still found in the full text, and
+        overall_match can't change. Text from either side of a piece not
+        yet read must never be tested together - "OLD TOM" + "DISTILLERY"
+        could match a brand the missing piece would have split. Optional
+        fields the caller didn't wait for (net contents, and the warning in
+        'required' mode) may be reported as not found.
+        """
+        if self.early_exit_mode == 'off':
+            return None
+
+        compiled = self.compile_form(form_data)
+        fields = list(self.REQUIRED_FIELDS)
+        if self.early_exit_mode == 'required+warning':
+            fields.append("government_warning")
+
+        def has_read_enough(ocr_text):
+            checks = self._check_fields(compiled, fields, self._normalize_text(ocr_text))
+            return all(check["match"] for check in checks)
+
+        return has_read_enough
+
+    def required_field_score(self, form_data):
+        """
+        Build a function that rates how well OCR text verifies.
+
+        Parameters:
+        -----------
+        form_data : dict
+            The same form inputs later passed to verify_label()
+
+        Returns:
+        --------
+        callable
+            Takes OCR text, returns the fraction of required fields that
+            match it: 1.0 means overall_match would be True.
+
+        Used by the preprocessing ladder (see preprocessing.py) to decide
+        whether a heavier preprocessing recipe is worth trying, and which
+        attempt to keep if none verifies.
+        """
+        compiled = self.compile_form(form_data)
+
+        def score(ocr_text):
+            checks = self._check_fields(compiled, self.REQUIRED_FIELDS, self._normalize_text(ocr_text))
+            return sum(1 for check in checks if check["match"]) / len(checks)
+
+        return score
+
+    def fields_to_recheck(self, form_data, verification_result):
+        """
+        Numeric fields that were filled in but not found on the label.
+
+        These are the fields a targeted second OCR pass (field_ocr.py) can
+        often rescue: OCR tends to garble short digit strings.
+
+        Returns:
+        --------
+        list of str
+            Subset of ["abv", "net_contents"]
+        """
+        return [
+            field for field in ("abv", "net_contents")
+            if form_data.get(field) and not verification_result["details"][field]["match"]
+        ]
+
+    def recheck_fields(self, form_data, ocr_text, verification_result, read_fields, words=None):
+        """
+        Give failed numeric fields a second chance with targeted OCR.
+
+        Parameters:
+        -----------
+        form_data : dict
+            The form inputs passed to verify_label()
+        ocr_text : str
+            The full-page OCR text verify_label() was given
+        verification_result : dict
+            What verify_label() returned
+        read_fields : callable
+            Takes a list of field names, returns an OCR result dict with
+            extra text for them (e.g. OCRService.extract_field_text)
+        words : list, optional
+            The words of ocr_text, so rechecked fields get boxes too
+
+        Returns:
+        --------
+        tuple
+            (verification result, list of fields that now match). The
+            original result comes back unchanged if nothing was recovered.
+
+        Why Check Against the Page?
+        ---------------------------
+        A whitelist makes Tesseract answer with digits whatever it sees:
+        artwork or a barcode can come back as "45%". So each re-read line
+        is checked on its own, and a field it matches only counts if the
+        full-page text has the same characters, however garbled ("4S%" for
+        "45%", see fuzzy_match.lookalike_pattern). A recovered field's
+        detail is the only thing replaced: its span and box point at the
+        garbled text on the page, and ocr_text stays the page's text.
+        """
+        fields = self.fields_to_recheck(form_data, verification_result)
+        if not fields:
+            return verification_result, []
+
+        field_result = read_fields(fields)
+        if not field_result["success"]:
+            return verification_result, []
+
+        compiled = self.compile_form(form_data)
+        normalized_ocr = self._normalize_text(ocr_text)
+        details = dict(verification_result["details"])
+        recovered = []
+
+        for line in field_result["text"].splitlines():
+            normalized_line = self._normalize_text(line)
+            for field in fields:
+                if field in recovered:
+                    continue
+                check = self._check_fields(compiled, [field], normalized_line)[0]
+                if not check["match"]:
+                    continue
+                start, end = check["span"]
+                on_page = lookalike_pattern(normalized_line[start:end]).search(normalized_ocr)
+                if on_page is None:
+                    continue
+                check["span"] = [on_page.start(), on_page.end()]
+                check["field_ocr"] = True
+                details[field] = check
+                recovered.append(field)
+
+        if not recovered:
+            return verification_result, []
+
+        if words is not None:
+            self._attach_boxes({field: details[field] for field in recovered}, words, normalized_ocr)
+
+        rechecked = dict(verification_result, details=details)
+        rechecked["overall_match"] = all(details[field]["match"] for field in self.REQUIRED_FIELDS)
+        return rechecked, recovered
+
+    def compile_form(self, form_data):
+        """
+        Compile a form's checks once, for any number of OCR texts.
+
+        Parameters:
+        -----------
+        form_data : dict
+            The form inputs passed to verify_label()
+
+        Returns:
+        --------
+        CompiledForm
+            From the cache if the same form values were compiled recently
+
+        Each field gets its compiled pattern, or - when the OCR text can't
+        change its result (a field left empty, a volume we can't parse) -
+        its finished result.
+
+        The product type's synonym pattern is part of the cache key, so a
+        reloaded synonym table takes effect without emptying the cache.
+        """
+        values = {field: form_data.get(field) or "" for field in self.FORM_FIELDS}
+
+        synonym_pattern = None
+        index = self.synonyms.index
+        if index is not None and values["product_type"]:
+            synonym_pattern = index.pattern_for(self._normalize_text(values["product_type"]))
+
+        key = tuple(values[field] for field in self.FORM_FIELDS) + (synonym_pattern,)
+        return self.compiled_forms.get(key, lambda: self._compile_form(values, synonym_pattern))
+
+    def _compile_form(self, values, synonym_pattern=None):
+        patterns = {}
+        fixed = {}
+        approximate = {}
+        synonyms = {"product_type": synonym_pattern} if synonym_pattern is not None else {}
+        numeric = {}
+
+        for field, error in (("brand_name", "Brand name not provided in form"),
+                             ("product_type", "Product type not provided in form")):
+            if values[field]:
+                # Substring search: the normalized value, taken literally
+                normalized = self._normalize_text(values[field])
+                patterns[field] = re.compile(re.escape(normalized))
+
+                # ... or, failing that, with a few misread characters
+                max_distance = allowed_distance(normalized, self.max_edits[field])
+                if max_distance:
+                    approximate[field] = (ApproximatePattern(normalized), max_distance)
+            else:
+                fixed[field] = {"match": False, "expected": "", "found": None, "error": error}
+
+        if values["abv"]:
+            patterns["abv"] = self._abv_pattern(values["abv"])
+            # ... or, failing that, the same number of percent or proof
+            matcher = abv_matcher(values["abv"], self.tolerances["abv"])
+            if matcher:
+                numeric["abv"] = matcher
+        else:
+            fixed["abv"] = {"match": False, "expected": "", "found": None, "error": "ABV not provided in form"}
+
+        net_contents = values["net_contents"]
+        if not net_contents:
+            # This field is optional, so no error if not provided
+            fixed["net_contents"] = {"match": True, "expected": "Not provided", "found": "Not checked"}
+        else:
+            pattern = self._net_contents_pattern(net_contents)
+            if pattern is None:
+                fixed["net_contents"] = {
+                    "match": False,
+                    "expected": net_contents,
+                    "found": None,
+                    "error": "Could not parse volume format from form input"
+                }
+            else:
+                patterns["net_contents"] = pattern
+                # ... or, failing that, the same volume in any unit
+                matcher = volume_matcher(net_contents, self.tolerances["net_contents"])
+                if matcher:
+                    numeric["net_contents"] = matcher
+
+        patterns["government_warning"] = self.GOVERNMENT_WARNING_PATTERN
+        return CompiledForm(values, patterns, fixed, approximate, synonyms, numeric)
+
+    def _field_result(self, compiled, field, found):
+        """
+        A field's entry in "details", given what compiled.find() found.
+        """
+        if field in compiled.fixed:
+            # A copy: callers add boxes to their details
+            return dict(compiled.fixed[field])
+
+        value = compiled.values.get(field)
+        if field == "brand_name":
+            return self._check_brand_name(value, found)
+        if field == "product_type":
+            return self._check_product_type(value, found)
+        if field == "abv":
+            return self._check_abv(value, found)
+        if field == "net_contents":
+            return self._check_net_contents(value, found)
+        return self._check_government_warning(found)
+
+    def _check_fields(self, compiled, fields, normalized_ocr):
+        """
+        Run the checks for the given fields, in that order.
+        """
+        found = compiled.find(normalized_ocr, fields)
+        return [self._field_result(compiled, field, found.get(field)) for field in fields]
+
+    def _attach_boxes(self, details, words, normalized_ocr):
+        """
+        Add "box" and "confidence" to each matched detail with a span.
+
+        A check's span is a character range of the normalized OCR text.
+        The normalized text is the words joined by single spaces, so each
+        character range maps straight onto a run of words.
+        """
+        # Only trust the mapping if words and text really agree (e.g. text
+        # from an older cache entry may not have come from these words)
+        if " ".join(word["text"] for word in words).lower() != normalized_ocr:
+            return
+
+        for detail in details.values():
+            span = detail.get("span")
+            if not detail["match"] or span is None:
+                continue
+            covered = words_in_span(words, *span)
+            if covered:
+                detail["box"] = bounding_box(covered)
+                detail["confidence"] = min(word["confidence"] for word in covered)
+
     def _normalize_text(self, text):
         """
         Normalize text for comparison.
@@ -191,7 +587,7 @@ class VerificationService:
         normalized = re.sub(r'\s+', ' ', text)
         return normalized.lower().strip()
 
-    def _check_brand_name(self, brand_name, normalized_ocr):
+    def _check_brand_name(self, brand_name, found):
         """
         Check if brand name appears in OCR text.
 
@@ -201,31 +597,29 @@ class VerificationService:
         -----------
         brand_name : str
             User's input from form
-        normalized_ocr : str
-            Lowercase OCR text
+        found : fuzzy_match.Found or None
+            Where the normalized brand name was found in the normalized OCR
+            text (see compile_form)
 
         Returns:
         --------
         dict
-            {"match": bool, "expected": str, "found": str or None}
-        """
-        if not brand_name:
-            return {
-                "match": False,
-                "expected": "",
-                "found": None,
-                "error": "Brand name not provided in form"
-            }
-
-        normalized_brand = self._normalize_text(brand_name)
+            {"match": bool, "expected": str, "found": str or None,
+             "distance": int (if matched)}
 
+        With VERIFY_BRAND_MAX_EDITS above 0, a brand name OCR misread by a
+        character or two ("0ld tom distillery") still matches; "found" is
+        then the text as read and "distance" the number of edits.
+        """
         # Simple substring check
         # Example: "tom" in "old tom distillery" → True
-        if normalized_brand in normalized_ocr:
+        if found:
             return {
                 "match": True,
                 "expected": brand_name,
-                "found": normalized_brand
+                "found": found.text,
+                "distance": found.distance,
+                "span": [found.start, found.end]
             }
         else:
             return {
@@ -235,7 +629,7 @@ class VerificationService:
                 "error": f"Brand name '{brand_name}' not found in label"
             }
 
-    def _check_product_type(self, product_type, normalized_ocr):
+    def _check_product_type(self, product_type, found):
         """
         Check if product type appears in OCR text.
 
@@ -249,26 +643,26 @@ class VerificationService:
 
         - Form: "IPA"
           OCR: "INDIA PALE ALE"
-          Result: NO MATCH ✗ (different words)
+          Result: MATCH ✓ (a synonym, see product_synonyms.py)
+
+        - Form: "Lager"
+          OCR: "PILSNER"
+          Result: NO MATCH ✗ (different words, not in the synonym table)
 
         Note: We use substring matching, not exact matching.
         The user could enter "Bourbon" and it would match "Bourbon Whiskey".
+        Like the brand name, it may match with up to
+        VERIFY_PRODUCT_TYPE_MAX_EDITS edits ("distance"). "synonym" says
+        whether the label had another name for it.
         """
-        if not product_type:
-            return {
-                "match": False,
-                "expected": "",
-                "found": None,
-                "error": "Product type not provided in form"
-            }
-
-        normalized_type = self._normalize_text(product_type)
-
-        if normalized_type in normalized_ocr:
+        if found:
             return {
                 "match": True,
                 "expected": product_type,
-                "found": normalized_type
+                "found": found.text,
+                "distance": found.distance,
+                "synonym": found.distance == 0 and found.text != self._normalize_text(product_type),
+                "span": [found.start, found.end]
             }
         else:
             return {
@@ -278,9 +672,9 @@ class VerificationService:
                 "error": f"Product type '{product_type}' not found in label"
             }
 
-    def _check_abv(self, abv, normalized_ocr):
+    def _abv_pattern(self, abv):
         """
-        Check if ABV (alcohol percentage) appears in OCR text.
+        Compile the pattern that finds an ABV (alcohol percentage).
 
         Matching Method: Regex pattern search for number + % symbol
 
@@ -306,44 +700,46 @@ class VerificationService:
         Form: "45"
         Pattern matches: "45%", "45.0%", "45 %"
         Doesn't match: "450%", "145%", "4.5%"
-        """
-        if not abv:
-            return {
-                "match": False,
-                "expected": "",
-                "found": None,
-                "error": "ABV not provided in form"
-            }
 
+        When the pattern finds nothing, the label's percentages and proof
+        figures are compared with the form as numbers ("45.00%",
+        "90 proof" - see quantities.py).
+        """
         # Clean the ABV input (remove % if user included it)
         abv_clean = abv.strip().replace('%', '').strip()
 
-        # Build regex pattern
         # \\b ensures we match whole numbers (45 but not 145 or 450)
         # (?:\\.0)? optionally matches ".0" for "45.0%"
         # \\s* allows optional space before %
-        pattern = r'\b' + re.escape(abv_clean) + r'(?:\.0)?\s*%'
+        return re.compile(r'\b' + re.escape(abv_clean) + r'(?:\.0)?\s*%')
 
-        # Search for pattern in OCR text
-        match = re.search(pattern, normalized_ocr)
+    def _check_abv(self, abv, found):
+        """
+        Check if ABV (alcohol percentage) appears in OCR text.
 
-        if match:
+        found is where _abv_pattern() found it - or, failing that, the same
+        ABV as a number (see quantities.py) - or None.
+        """
+        # "45" → "45%"; "45%" and "90 proof" already say what they are
+        expected = abv if '%' in abv or 'proof' in abv.lower() else abv + "%"
+        if found:
             return {
                 "match": True,
-                "expected": abv + "%",
-                "found": match.group(0)  # The actual matched text
+                "expected": expected,
+                "found": found.text,  # The actual matched text
+                "span": [found.start, found.end]
             }
         else:
             return {
                 "match": False,
-                "expected": abv + "%",
+                "expected": expected,
                 "found": None,
-                "error": f"ABV '{abv}%' not found in label"
+                "error": f"ABV '{expected}' not found in label"
             }
 
-    def _check_net_contents(self, net_contents, normalized_ocr):
+    def _net_contents_pattern(self, net_contents):
         """
-        Check if net contents (volume) appears in OCR text.
+        Compile the pattern that finds net contents (volume).
 
         Matching Method: Flexible regex pattern for volume
 
@@ -363,44 +759,41 @@ class VerificationService:
            - Optional space between number and unit
            - Case-insensitive unit matching
            - Optional periods in unit (e.g., "fl. oz")
-        """
-        if not net_contents:
-            # This field is optional, so no error if not provided
-            return {
-                "match": True,
-                "expected": "Not provided",
-                "found": "Not checked"
-            }
 
+        When the pattern finds nothing, the label's volumes are compared
+        with the form as numbers, in any unit ("75 cl", "25.4 fl oz" for
+        "750 mL" - see quantities.py).
+
+        Returns None if the form input isn't a number followed by a unit.
+        """
         normalized_contents = self._normalize_text(net_contents)
 
         # Extract number and unit using regex
         # Pattern: one or more digits, optional space, then letters/periods
         volume_match = re.search(r'(\d+(?:\.\d+)?)\s*([a-z.\s]+)', normalized_contents)
-
         if not volume_match:
-            return {
-                "match": False,
-                "expected": net_contents,
-                "found": None,
-                "error": "Could not parse volume format from form input"
-            }
+            return None
 
         number = volume_match.group(1)  # e.g., "750"
         unit = volume_match.group(2).strip()  # e.g., "ml"
 
         # Build flexible pattern
         # Allow optional space and case-insensitive unit
-        pattern = number + r'\s*' + re.escape(unit)
+        return re.compile(number + r'\s*' + re.escape(unit), re.IGNORECASE)
 
-        # Search in OCR text
-        match = re.search(pattern, normalized_ocr, re.IGNORECASE)
+    def _check_net_contents(self, net_contents, found):
+        """
+        Check if net contents (volume) appears in OCR text.
 
-        if match:
+        found is where _net_contents_pattern() found it - or, failing that,
+        the same volume in any unit (see quantities.py) - or None.
+        """
+        if found:
             return {
                 "match": True,
                 "expected": net_contents,
-                "found": match.group(0)
+                "found": found.text,
+                "span": [found.start, found.end]
             }
         else:
             return {
@@ -410,11 +803,12 @@ class VerificationService:
                 "error": f"Net contents '{net_contents}' not found in label"
             }
 
-    def _check_government_warning(self, normalized_ocr):
+    def _check_government_warning(self, found):
         """
         Check if government warning statement appears on label.
 
         Matching Method: Regex pattern search for "GOVERNMENT WARNING" with OCR error tolerance
+        (GOVERNMENT_WARNING_PATTERN; found is where it was found, or None)
 
         Per TTB Requirements:
         ---------------------
@@ -442,19 +836,14 @@ class VerificationService:
         - \s*: optional whitespace
         - warn?ing: matches "WARNING" or "WARING" (OCR error)
         """
-        # Pattern 1: Flexible "GOVERNMENT WARNING" with common OCR errors
-        # Matches: GOVERNMENT WARNING, GOVT WARNING, GOVERNEMENT WARNING, etc.
-        gov_warning_pattern = r'gov[et\']?[eo]?rn?m[em]?nt\s*warn?ing'
-
-        match = re.search(gov_warning_pattern, normalized_ocr, re.IGNORECASE)
-
-        if match:
-            found_text = match.group(0)
+        if found:
+            found_text = found.text
 
             return {
                 "match": True,
                 "expected": "Government Warning Present",
-                "found": found_text.upper()
+                "found": found_text.upper(),
+                "span": [found.start, found.end]
             }
         else:
             return {
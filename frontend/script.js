@@ -6,6 +6,7 @@
  * - Image preview
  * - API communication
  * - Results display
+ * - Batch verification with streamed results
  *
  * JavaScript Concepts Used:
  * - Event listeners (responding to user actions)
@@ -37,6 +38,11 @@ document.addEventListener('DOMContentLoaded', function() {
     const tryAgainBtn = document.getElementById('tryAgainBtn');
     const errorDisplay = document.getElementById('errorDisplay');
     const dismissErrorBtn = document.getElementById('dismissErrorBtn');
+    const batchForm = document.getElementById('batchForm');
+    const batchSubmitBtn = document.getElementById('batchSubmitBtn');
+    const batchResultsSection = document.getElementById('batchResultsSection');
+    const batchResultsBody = document.getElementById('batchResultsBody');
+    const batchSummary = document.getElementById('batchSummary');
 
     // ===== IMAGE PREVIEW FUNCTIONALITY =====
 
@@ -313,6 +319,163 @@ document.addEventListener('DOMContentLoaded', function() {
         return nameMap[field] || field;
     }
 
+    // ===== BATCH VERIFICATION =====
+
+    /**
+     * Handle batch form submission
+     *
+     * Unlike the single-label form, we don't wait for one big JSON response.
+     * The server streams one line of JSON per label (NDJSON) as soon as that
+     * label's OCR finishes, and we add a table row for each line right away.
+     */
+    batchForm.addEventListener('submit', async function(e) {
+        e.preventDefault();
+
+        errorDisplay.style.display = 'none';
+        batchResultsBody.innerHTML = '';
+        batchSummary.textContent = 'Uploading labels...';
+        batchResultsSection.style.display = 'block';
+        batchSubmitBtn.disabled = true;
+
+        const total = document.getElementById('batchImages').files.length;
+        let received = 0;
+
+        try {
+            const response = await fetch('/verify/batch?stream=ndjson', {
+                method: 'POST',
+                body: new FormData(batchForm)
+            });
+
+            // Validation errors (bad manifest, too many images) come back as
+            // a normal JSON error before any streaming starts
+            if (!response.ok) {
+                const data = await response.json();
+                batchResultsSection.style.display = 'none';
+                showError(data.error || 'Batch verification failed');
+                return;
+            }
+
+            await readNdjson(response, function(record) {
+                if (record.type === 'result') {
+                    received += 1;
+                    batchResultsBody.appendChild(createBatchRow(record));
+                    batchSummary.textContent = `Verified ${received} of ${total} labels...`;
+                } else if (record.type === 'summary') {
+                    displayBatchSummary(record.summary);
+                } else if (record.type === 'error') {
+                    showError(record.error);
+                }
+            });
+
+        } catch (error) {
+            showError('Network error: ' + error.message);
+        } finally {
+            batchSubmitBtn.disabled = false;
+        }
+    });
+
+    /**
+     * Read a newline-delimited JSON response one record at a time
+     *
+     * response.body is a stream of byte chunks. A chunk can end in the
+     * middle of a line, so we keep the unfinished tail in a buffer until
+     * the next chunk completes it.
+     *
+     * @param {Response} response - fetch() response with an NDJSON body
+     * @param {Function} onRecord - called with each parsed JSON object
+     */
+    async function readNdjson(response, onRecord) {
+        const reader = response.body.getReader();
+        const decoder = new TextDecoder();
+        let buffer = '';
+
+        while (true) {
+            const { done, value } = await reader.read();
+            if (done) {
+                break;
+            }
+
+            buffer += decoder.decode(value, { stream: true });
+            const lines = buffer.split('\n');
+            buffer = lines.pop();  // Last piece may be an incomplete line
+
+            for (const line of lines) {
+                if (line.trim()) {
+                    onRecord(JSON.parse(line));
+                }
+            }
+        }
+
+        // Whatever is left once the stream ends is the final line
+        buffer += decoder.decode();
+        if (buffer.trim()) {
+            onRecord(JSON.parse(buffer));
+        }
+    }
+
+    /**
+     * Create a table row for one label of a batch
+     *
+     * @param {Object} record - {filename, result, seconds} from the stream
+     * @returns {HTMLElement} - <tr> element
+     */
+    function createBatchRow(record) {
+        const result = record.result;
+        const row = document.createElement('tr');
+
+        let status;
+        if (!result.success) {
+            row.className = 'error';
+            status = '⚠ ' + (result.error || 'Could not verify');
+        } else if (result.overall_match) {
+            row.className = 'match';
+            status = '✓ Match';
+        } else {
+            row.className = 'no-match';
+            status = '✗ Mismatch';
+        }
+
+        const details = result.details || {};
+        const fieldIcon = function(field) {
+            if (!details[field]) {
+                return '';
+            }
+            return details[field].match ? '✓' : '✗';
+        };
+
+        const cells = [
+            record.filename,
+            status,
+            fieldIcon('brand_name'),
+            fieldIcon('product_type'),
+            fieldIcon('abv'),
+            record.seconds ? record.seconds.toFixed(1) + ' s' : ''
+        ];
+
+        // textContent (not innerHTML) so filenames can't inject HTML
+        for (const value of cells) {
+            const cell = document.createElement('td');
+            cell.textContent = value;
+            row.appendChild(cell);
+        }
+
+        return row;
+    }
+
+    /**
+     * Show the final batch summary once every label is done
+     *
+     * @param {Object} summary - {labels, matched, failed, wall_seconds, labels_per_second}
+     */
+    function displayBatchSummary(summary) {
+        batchSummary.textContent =
+            `${summary.labels} labels: ${summary.matched} matched, ` +
+            `${summary.labels - summary.matched - summary.failed} mismatched, ` +
+            `${summary.failed} could not be verified. ` +
+            `Finished in ${summary.wall_seconds.toFixed(1)} s ` +
+            `(${summary.labels_per_second || 0} labels/s).`;
+    }
+
     // ===== ERROR DISPLAY =====
 
     /**
@@ -386,4 +549,9 @@ document.addEventListener('DOMContentLoaded', function() {
  *    A promise represents a value that may not be available yet
  *    fetch() returns a promise
  *    await waits for promise to resolve
+ *
+ * 7. STREAMS
+ *    response.body.getReader()
+ *    Reads a response piece by piece as it arrives, instead of
+ *    waiting for the whole body like response.json() does
  */